@@ -4,22 +4,34 @@ import chat.client.controller.ChatController;
 import chat.client.model.ChatClientModel;
 import chat.client.model.ClientNetworkConnection;
 import chat.client.view.ChatFrame;
+import chat.protocol.WireProtocol;
 import java.io.IOException;
-import org.json.JSONException;
 
 /**
  * Starts the chat-client.
  */
 public class ChatClient {
+  private static final String PROTOCOL_OPTION = "--protocol=";
+
   /**
-   * starts the ChatClient program.
+   * starts the ChatClient program. The framing that is requested from the server can be chosen
+   * with {@code --protocol=json} or {@code --protocol=binary}, which is the default.
    *
    * @param args command-line arguments.
    * @throws IOException the IOException that is thrown.
-   * @throws JSONException the JSONException that is thrown.
    */
 
-  public static void main(String[] args) throws IOException, JSONException {
+  public static void main(String[] args) throws IOException {
+    WireProtocol protocol = WireProtocol.BINARY;
+    for (String arg : args) {
+      if (!arg.startsWith(PROTOCOL_OPTION)) {
+        throw new IllegalArgumentException("Unknown option '" + arg + "'");
+      }
+      protocol = WireProtocol.fromWireName(arg.substring(PROTOCOL_OPTION.length()));
+      if (protocol == null) {
+        throw new IllegalArgumentException("Unknown protocol '" + arg + "'");
+      }
+    }
 
     ChatClientModel model = new ChatClientModel();
     ChatController controller = new ChatController(model);
@@ -27,7 +39,7 @@ public class ChatClient {
 
     model.addPropertyChangeListener(chatFrame);
 
-    ClientNetworkConnection connection = new ClientNetworkConnection(model);
+    ClientNetworkConnection connection = new ClientNetworkConnection(model, protocol);
     model.setConnection(connection);
     connection.start();
 
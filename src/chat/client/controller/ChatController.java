@@ -2,12 +2,15 @@ package chat.client.controller;
 
 import chat.client.model.ChatClientModel;
 import java.io.IOException;
-import org.json.JSONException;
 
 /**
  * The controller of the chat-UI.
  */
 public class ChatController {
+  private static final String JOIN_COMMAND = "/join ";
+  private static final String LEAVE_COMMAND = "/leave";
+  private static final String MESSAGE_COMMAND = "/msg ";
+
   private ChatClientModel model;
 
   /**
@@ -25,20 +28,55 @@ public class ChatController {
    *
    * @param nickname The user-name with whom the user attempts to log in.
    */
-  public void login(final String nickname) throws JSONException, IOException {
+  public void login(final String nickname) throws IOException {
     model.logInWithName(nickname);
   }
 
   /**
-   * Send a message to the model that is to be published to the other chat clients.
+   * Send a message to the model that is to be published to the other chat clients. The commands
+   * {@code /join <room>} and {@code /leave} join a room or leave the current one instead, and
+   * {@code /msg <nickname> <text>} sends a private message to a single user.
    *
    * @param text The message that is to be send.
    */
   public void postMessage(final String text) {
+    if (text.startsWith(JOIN_COMMAND) && !text.substring(JOIN_COMMAND.length()).isBlank()) {
+      model.joinRoom(text.substring(JOIN_COMMAND.length()).trim());
+      return;
+    }
+    if (text.startsWith(MESSAGE_COMMAND)) {
+      String[] recipientAndText = text.substring(MESSAGE_COMMAND.length()).trim().split(" ", 2);
+      if (recipientAndText.length == 2 && !recipientAndText[1].isBlank()) {
+        model.sendDirectMessage(recipientAndText[0], recipientAndText[1]);
+        return;
+      }
+    }
+    if (text.trim().equals(LEAVE_COMMAND)) {
+      model.leaveRoom();
+      return;
+    }
     model.postMessage(text);
 
   }
 
+  /**
+   * Show the messages of another room that has been joined before.
+   *
+   * @param room the name of the room, or {@code null} for the main chat.
+   */
+  public void selectRoom(final String room) {
+    model.selectRoom(room);
+  }
+
+  /**
+   * Load the messages of the current room that precede the oldest message that is shown.
+   *
+   * @param beforeSequence the sequence number of the oldest message that is shown.
+   */
+  public void loadOlderMessages(final long beforeSequence) {
+    model.requestHistory(beforeSequence);
+  }
+
   /**
    * Run cleanup tasks.
    */
@@ -3,30 +3,48 @@ package chat.client.model;
 import static java.util.Objects.requireNonNull;
 
 import chat.client.model.events.ChatEvent;
+import chat.client.model.events.ConnectionStateEvent;
+import chat.client.model.events.DeliveryStatusEvent;
+import chat.client.model.events.HistoryLoadedEvent;
 import chat.client.model.events.LoggedInEvent;
 import chat.client.model.events.LoginFailedEvent;
 import chat.client.model.events.MessageAddedEvent;
 import chat.client.model.events.MessageRemovedEvent;
+import chat.client.model.events.RoomChangedEvent;
+import chat.client.model.events.RosterChangedEvent;
 import chat.client.model.events.UserJoinEvent;
 import chat.client.model.events.UserLeftEvent;
 import chat.client.view.chatview.ChatEntry;
+import chat.client.view.chatview.DirectMessage;
 import chat.client.view.chatview.LoggedInMessage;
 import chat.client.view.chatview.UserJoinedMessage;
 import chat.client.view.chatview.UserLeftMessage;
 import chat.client.view.chatview.UserTextMessage;
 import java.beans.PropertyChangeListener;
+import chat.protocol.DeliveryStatus;
 import java.beans.PropertyChangeSupport;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import org.json.JSONException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 
 /**
  * The model of the chat-client. Manages all the internal data belonging to a single chat client.
  */
 public class ChatClientModel {
 
+  private static final int HISTORY_PAGE_SIZE = 50;
+  private static final int SEEN_SEQUENCES = 1024;
+
   private ClientNetworkConnection connection;
   private final PropertyChangeSupport support;
   private List<ChatEntry> messages;
@@ -35,6 +53,13 @@ public class ChatClientModel {
   private UserTextMessage userTextMessage;
   private LoggedInMessage loggedInMessage;
   private String nickname;
+  private final List<String> rooms = new ArrayList<>();
+  private String currentRoom;
+  private final Map<String, Queue<DirectMessage>> pendingDirectMessages = new HashMap<>();
+  private final Map<String, HistoryPage> pendingHistory = new HashMap<>();
+  private final Map<String, Long> newestSequences = new HashMap<>();
+  private final Map<String, Set<Long>> seenSequences = new HashMap<>();
+  private final List<String> roster = new ArrayList<>();
 
 
   /**
@@ -94,19 +119,20 @@ public class ChatClientModel {
    *
    * @param nickname the chosen nickname of the chat participant.
    */
-  public void logInWithName(String nickname) throws JSONException, IOException {
+  public void logInWithName(String nickname) throws IOException {
 
     connection.sendLogin(nickname);
 
   }
 
   /**
-   * Send a chat-message to the server that should be broadcast to other chat participants.
+   * Send a chat-message to the server that should be broadcast to the other participants of the
+   * current room, or of the main chat.
    *
    * @param message The message to be broadcast.
    */
   public void postMessage(String message) {
-    userTextMessage = new UserTextMessage(nickname, new Date(), message);
+    userTextMessage = new UserTextMessage(nickname, new Date(), message, currentRoom);
     messages.add(userTextMessage);
 
     connection.sendMessage(userTextMessage);
@@ -116,6 +142,123 @@ public class ChatClientModel {
 
   }
 
+  /**
+   * Send a private message to a single user. The message is added to the chat entries right away
+   * and gets its delivery status once the server has reported it.
+   *
+   * @param recipient the nickname of the recipient.
+   * @param message   the text of the message.
+   */
+  public void sendDirectMessage(String recipient, String message) {
+    DirectMessage directMessage = new DirectMessage(nickname, recipient, new Date(), message);
+    synchronized (pendingDirectMessages) {
+      pendingDirectMessages.computeIfAbsent(recipient, x -> new ArrayDeque<>()).add(directMessage);
+    }
+    messages.add(directMessage);
+
+    connection.sendDirectMessage(directMessage);
+
+    notifyListeners(new MessageAddedEvent(directMessage));
+  }
+
+  /**
+   * Add a private message that another user has sent to this client.
+   * Used by the network layer to update the model accordingly.
+   *
+   * @param nickname The name of the sender.
+   * @param date     The date when the message was sent.
+   * @param content  The text of the message.
+   */
+  public void addDirectMessage(String nickname, Date date, String content) {
+    DirectMessage directMessage = new DirectMessage(nickname, this.nickname, date, content);
+    messages.add(directMessage);
+
+    notifyListeners(new MessageAddedEvent(directMessage));
+  }
+
+  /**
+   * Record the outcome of the oldest direct message to a user that has no status yet. The server
+   * handles the messages of a client in order, so the reports arrive in the order of sending.
+   * Used by the network layer to update the model accordingly.
+   *
+   * @param recipient the nickname the message was sent to.
+   * @param status    the reported status.
+   */
+  public void deliveryStatus(String recipient, DeliveryStatus status) {
+    DirectMessage directMessage;
+    synchronized (pendingDirectMessages) {
+      Queue<DirectMessage> pending = pendingDirectMessages.get(recipient);
+      if (pending == null) {
+        return;
+      }
+      directMessage = pending.poll();
+      if (pending.isEmpty()) {
+        pendingDirectMessages.remove(recipient);
+      }
+    }
+    directMessage.setStatus(status);
+    notifyListeners(new DeliveryStatusEvent(directMessage));
+  }
+
+  /**
+   * Join a room and make it the current room. Rooms are created by the server when their first
+   * participant joins.
+   *
+   * @param room the name of the room.
+   */
+  public void joinRoom(String room) {
+    if (!rooms.contains(room)) {
+      connection.sendJoinRoom(room);
+      rooms.add(room);
+    }
+    currentRoom = room;
+    notifyListeners(new RoomChangedEvent());
+  }
+
+  /**
+   * Leave the current room and return to the main chat.
+   */
+  public void leaveRoom() {
+    if (currentRoom == null) {
+      return;
+    }
+    connection.sendLeaveRoom(currentRoom);
+    rooms.remove(currentRoom);
+    currentRoom = null;
+    notifyListeners(new RoomChangedEvent());
+  }
+
+  /**
+   * Show the chat of another room that has been joined before.
+   *
+   * @param room the name of the room, or {@code null} for the main chat.
+   */
+  public void selectRoom(String room) {
+    if (room != null && !rooms.contains(room)) {
+      return;
+    }
+    currentRoom = room;
+    notifyListeners(new RoomChangedEvent());
+  }
+
+  /**
+   * Get the rooms that the user has joined, in the order in which they were joined.
+   *
+   * @return a list containing the names of the rooms.
+   */
+  public List<String> getRooms() {
+    return new ArrayList<>(rooms);
+  }
+
+  /**
+   * Get the room whose messages are shown and into which messages are posted.
+   *
+   * @return the name of the room, or {@code null} for the main chat.
+   */
+  public String getCurrentRoom() {
+    return currentRoom;
+  }
+
   /**
    * get the current userTextMessage sent by the client.
    *
@@ -169,6 +312,7 @@ public class ChatClientModel {
   public void loggedIn(String nickname) {
     //notify chat view that a login is successful
     this.nickname = nickname;
+    forgetSequences();
     loggedInMessage = new LoggedInMessage(nickname);
     messages.add(loggedInMessage);
     LoggedInEvent loggedInEvent = new LoggedInEvent();
@@ -202,13 +346,269 @@ public class ChatClientModel {
    * @param content  The actual content (text) that the participant had sent.
    */
   public void addTextMessage(String nickname, Date date, String content) {
-    userTextMessage = new UserTextMessage(nickname, date, content);
+    addTextMessage(nickname, date, content, null);
+  }
+
+  /**
+   * Add a text message of a room to the list of chat entries.
+   * Used by the network layer to update the model accordingly.
+   *
+   * @param nickname The name of the chat participants that has sent this message.
+   * @param date     The date when the chat message was sent.
+   * @param content  The actual content (text) that the participant had sent.
+   * @param room     The room the message was posted to, or {@code null} for the main chat.
+   */
+  public void addTextMessage(String nickname, Date date, String content, String room) {
+    addTextMessage(nickname, date, content, room, 0);
+  }
+
+  /**
+   * Add a numbered text message of a room. Messages that are older than the page of history that
+   * is being loaded belong to that page, and messages that have been received before are ignored.
+   * Used by the network layer to update the model accordingly.
+   *
+   * @param nickname The name of the chat participants that has sent this message.
+   * @param date     The date when the chat message was sent.
+   * @param content  The actual content (text) that the participant had sent.
+   * @param room     The room the message was posted to, or {@code null} for the main chat.
+   * @param sequence The sequence number of the message within its room, or {@code 0} if unknown.
+   */
+  public void addTextMessage(String nickname, Date date, String content, String room,
+      long sequence) {
+    UserTextMessage message = new UserTextMessage(nickname, date, content, room, sequence);
+    if (sequence != 0) {
+      synchronized (pendingHistory) {
+        HistoryPage page = pendingHistory.get(room);
+        if (page != null && sequence < page.beforeSequence()) {
+          page.messages().add(message);
+          return;
+        }
+        if (!markSeen(room, sequence)) {
+          //the server may send a message both live and with the backfill or replay of a login
+          return;
+        }
+        newestSequences.merge(room, sequence, Math::max);
+      }
+    }
+    userTextMessage = message;
     messages.add(userTextMessage);
 
     MessageAddedEvent messageAddedEvent = new MessageAddedEvent(userTextMessage);
     notifyListeners(messageAddedEvent);
   }
 
+  /**
+   * Remember the sequence numbers of the recent messages of a room. The caller holds the lock of
+   * the pending history.
+   *
+   * @return {@code false} if the message has been received before.
+   */
+  private boolean markSeen(String room, long sequence) {
+    Set<Long> seen = seenSequences.computeIfAbsent(room, x -> new LinkedHashSet<>());
+    if (!seen.add(sequence)) {
+      return false;
+    }
+    if (seen.size() > SEEN_SEQUENCES) {
+      seen.remove(seen.iterator().next());
+    }
+    return true;
+  }
+
+  /**
+   * Get the sequence number of the newest message of a room that has been received.
+   *
+   * @param room the name of the room, or {@code null} for the main chat.
+   * @return the sequence number, or {@code 0} if no numbered message has been received.
+   */
+  public long getNewestSequence(String room) {
+    synchronized (pendingHistory) {
+      return newestSequences.getOrDefault(room, 0L);
+    }
+  }
+
+  /**
+   * Notify the subscribed observers that the connection to the server has been lost. The network
+   * layer reconnects by itself, messages posted in the meantime are sent afterwards.
+   */
+  public void connectionLost() {
+    notifyListeners(new ConnectionStateEvent(false));
+  }
+
+  /**
+   * Update the model after the client has logged in again on a new connection. The server puts the
+   * client back into its rooms by itself; joining them again covers a server that could no longer
+   * resume the session.
+   *
+   * @param sessionResumed whether the server has resumed the previous session, rather than
+   *                       starting a fresh one.
+   */
+  public void resumed(boolean sessionResumed) {
+    synchronized (pendingHistory) {
+      //requests that were sent on the lost connection will never be answered
+      pendingHistory.clear();
+    }
+    if (!sessionResumed) {
+      forgetSequences();
+    }
+    connection.rejoinRooms(getRooms());
+    notifyListeners(new ConnectionStateEvent(true));
+  }
+
+  /**
+   * Forget the sequence numbers of the messages received so far. A fresh session may number the
+   * messages from the start again, e.g. on a restarted server without a journal, whose messages
+   * would otherwise be dropped as duplicates.
+   */
+  private void forgetSequences() {
+    synchronized (pendingHistory) {
+      newestSequences.clear();
+      seenSequences.clear();
+    }
+  }
+
+  /**
+   * Ask the server for the page of messages of the current room that precedes the given message.
+   * The page is not added to the chat entries, it is only handed to the listeners, such that the
+   * model does not grow when the user scrolls back.
+   *
+   * @param beforeSequence the sequence number of the oldest message that is shown.
+   */
+  public void requestHistory(long beforeSequence) {
+    synchronized (pendingHistory) {
+      if (beforeSequence <= 1 || pendingHistory.containsKey(currentRoom)) {
+        return;
+      }
+      pendingHistory.put(currentRoom, new HistoryPage(beforeSequence, new ArrayList<>()));
+    }
+    connection.sendHistoryRequest(currentRoom, beforeSequence, HISTORY_PAGE_SIZE);
+  }
+
+  /**
+   * Hand a page of older messages to the listeners once the server has sent all of it.
+   * Used by the network layer to update the model accordingly.
+   *
+   * @param room the room of the page, or {@code null} for the main chat.
+   */
+  public void historyLoaded(String room) {
+    HistoryPage page;
+    synchronized (pendingHistory) {
+      page = pendingHistory.remove(room);
+    }
+    if (page == null) {
+      return;
+    }
+    //a short page means that the server has no older messages, or no longer keeps them
+    boolean complete = page.messages().size() < HISTORY_PAGE_SIZE;
+    notifyListeners(new HistoryLoadedEvent(room, page.messages(), complete));
+  }
+
+  /**
+   * Replace the roster by a snapshot of the users that are online, which the server sends after
+   * every login. Only the differences are reported to the listeners.
+   * Used by the network layer to update the model accordingly.
+   *
+   * @param users the nicknames of all users that are online.
+   */
+  public void rosterReceived(List<String> users) {
+    List<String> added = new ArrayList<>();
+    List<String> removed = new ArrayList<>();
+    synchronized (roster) {
+      Set<String> snapshot = new HashSet<>(users);
+      for (String nickname : roster) {
+        if (!snapshot.contains(nickname)) {
+          removed.add(nickname);
+        }
+      }
+      removeFromRoster(removed);
+      for (String nickname : snapshot) {
+        if (addToRoster(nickname)) {
+          added.add(nickname);
+        }
+      }
+    }
+    Collections.sort(added);
+    notifyListeners(new RosterChangedEvent(added, removed));
+  }
+
+  /**
+   * Apply a batch of presence changes to the roster and add a status-update entry for every user
+   * that has actually come online or gone offline.
+   * Used by the network layer to update the model accordingly.
+   *
+   * @param joined the nicknames of the users that have come online.
+   * @param left   the nicknames of the users that have gone offline.
+   */
+  public void rosterChanged(Collection<String> joined, Collection<String> left) {
+    List<String> added = new ArrayList<>();
+    List<String> removed = new ArrayList<>();
+    synchronized (roster) {
+      for (String nickname : joined) {
+        if (addToRoster(nickname)) {
+          added.add(nickname);
+        }
+      }
+      for (String nickname : left) {
+        if (Collections.binarySearch(roster, nickname) >= 0) {
+          removed.add(nickname);
+        }
+      }
+      removeFromRoster(removed);
+    }
+    Collections.sort(added);
+    Collections.sort(removed);
+    notifyListeners(new RosterChangedEvent(added, removed));
+    for (String nickname : added) {
+      if (!nickname.equals(this.nickname)) {
+        addStatusEntry(new UserJoinedMessage(nickname, null));
+      }
+    }
+    for (String nickname : removed) {
+      addStatusEntry(new UserLeftMessage(nickname, null));
+    }
+  }
+
+  private void addStatusEntry(ChatEntry entry) {
+    messages.add(entry);
+    notifyListeners(new MessageAddedEvent(entry));
+  }
+
+  /**
+   * Insert a nickname into the sorted roster. The caller holds the lock of the roster.
+   *
+   * @return {@code false} if the user is already in the roster.
+   */
+  private boolean addToRoster(String nickname) {
+    int index = Collections.binarySearch(roster, nickname);
+    if (index >= 0) {
+      return false;
+    }
+    roster.add(-index - 1, nickname);
+    return true;
+  }
+
+  /**
+   * Remove nicknames from the sorted roster. The caller holds the lock of the roster.
+   */
+  private void removeFromRoster(Collection<String> nicknames) {
+    for (String nickname : nicknames) {
+      int index = Collections.binarySearch(roster, nickname);
+      if (index >= 0) {
+        roster.remove(index);
+      }
+    }
+  }
+
+  /**
+   * Get the users that are online, sorted by their nicknames.
+   *
+   * @return a list containing the nicknames.
+   */
+  public List<String> getRoster() {
+    synchronized (roster) {
+      return new ArrayList<>(roster);
+    }
+  }
+
   /**
    * Add a status-update entry "User joined" to the list of chat entries.
    * Used by the network layer to update the model accordingly.
@@ -216,7 +616,22 @@ public class ChatClientModel {
    * @param nickname The name of the newly joined user.
    */
   public void userJoined(String nickname) {
-    userJoinedMessage = new UserJoinedMessage(nickname);
+    userJoined(nickname, null);
+  }
+
+  /**
+   * Add a status-update entry "User joined" to the list of chat entries of a room.
+   * Used by the network layer to update the model accordingly.
+   *
+   * @param nickname The name of the newly joined user.
+   * @param room     The room the user has joined, or {@code null} for the main chat.
+   */
+  public void userJoined(String nickname, String room) {
+    if (room == null) {
+      //a server that sends no roster still tells about every user that comes online
+      updateRoster(nickname, true);
+    }
+    userJoinedMessage = new UserJoinedMessage(nickname, room);
     messages.add(userJoinedMessage);
     UserJoinEvent userJoinEvent = new UserJoinEvent();
     notifyListeners(userJoinEvent);
@@ -229,12 +644,43 @@ public class ChatClientModel {
    * @param nickname the nickname of the user.
    */
   public void userLeft(String nickname) {
-    userLeftMessage = new UserLeftMessage(nickname);
+    userLeft(nickname, null);
+  }
+
+  /**
+   * Add a status-update entry "User has left" to the list of chat entries of a room.
+   * Used by the network layer to update the model accordingly.
+   *
+   * @param nickname the nickname of the user.
+   * @param room     the room the user has left, or {@code null} for the main chat.
+   */
+  public void userLeft(String nickname, String room) {
+    if (room == null) {
+      updateRoster(nickname, false);
+    }
+    userLeftMessage = new UserLeftMessage(nickname, room);
     messages.add(userLeftMessage);
     UserLeftEvent userLeftEvent = new UserLeftEvent();
     notifyListeners(userLeftEvent);
   }
 
+  private void updateRoster(String nickname, boolean online) {
+    boolean changed;
+    synchronized (roster) {
+      if (online) {
+        changed = addToRoster(nickname);
+      } else {
+        changed = Collections.binarySearch(roster, nickname) >= 0;
+        removeFromRoster(List.of(nickname));
+      }
+    }
+    if (changed) {
+      List<String> change = List.of(nickname);
+      notifyListeners(online ? new RosterChangedEvent(change, List.of())
+          : new RosterChangedEvent(List.of(), change));
+    }
+  }
+
   /**
    * get the current userLeftMessage that was sent to this client.
    *
@@ -255,4 +701,13 @@ public class ChatClientModel {
     }
 
   }
+
+  /**
+   * A page of history that has been requested but not completely received yet.
+   *
+   * @param beforeSequence the sequence number before which the page ends.
+   * @param messages       the messages of the page received so far.
+   */
+  private record HistoryPage(long beforeSequence, List<UserTextMessage> messages) {
+  }
 }
@@ -1,125 +1,401 @@
 package chat.client.model;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
+import chat.client.view.chatview.DirectMessage;
 import chat.client.view.chatview.UserTextMessage;
-import java.io.BufferedReader;
+import chat.protocol.BinaryCodec;
+import chat.protocol.FrameBuffer;
+import chat.protocol.FrameDecoder;
+import chat.protocol.FrameTooLargeException;
+import chat.protocol.JsonCodec;
+import chat.protocol.MessageType;
+import chat.protocol.WireMessage;
+import chat.protocol.WireProtocol;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.ArrayDeque;
 import java.util.Date;
-import java.util.Objects;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * The network-connection of the client. Establishes a connection to the server and takes
- * care of sending and receiving messages in JSON format.
+ * care of sending and receiving messages in JSON format, or in the binary framing if the login
+ * negotiates it. Together with the binary framing the client asks for compression of large
+ * frames. The client keeps a roster of the users that are online, which the server sends as a
+ * snapshot after the login and as batches of changes afterwards.
+ *
+ * <p>When the connection is lost, the client reconnects by itself and resumes its session. The
+ * attempts are spread with a jittered exponential backoff, such that the clients of a restarted
+ * server do not all come back at the same moment. Messages that the user sends in the meantime
+ * are kept in a bounded buffer and sent in order once the session has been resumed.
  */
 public class ClientNetworkConnection {
 
   private static final String HOST = "localhost";
   private static final int PORT = 8080;
+  private static final int COMPRESSION_THRESHOLD = 1024;
+  private static final int ACK_INTERVAL = 16;
+  private static final int SEND_BUFFER_SIZE = 256;
+  private static final long INITIAL_BACKOFF_MILLIS = 250;
+  private static final long MAX_BACKOFF_MILLIS = 30_000;
+  private static final List<String> FEATURES =
+      List.of(WireMessage.ROSTER_FEATURE, WireMessage.PING_FEATURE);
   private Socket socket;
-  private JSONObject jsonObject;
   private final ChatClientModel model;
+  private final WireProtocol requestedProtocol;
+  private WireProtocol protocol = WireProtocol.JSON;
+  private boolean compressing;
   private String nickname;
-  private OutputStreamWriter writer;
+  private String sessionToken;
+  private boolean resuming;
+  private final Map<String, Integer> unackedMessages = new HashMap<>();
+  private final ArrayDeque<WireMessage> pendingSends = new ArrayDeque<>();
+  private boolean online;
+  private boolean stopped;
+  private Thread reconnectThread;
+  private int reconnectAttempts;
+  private OutputStream out;
+  private final FrameBuffer frameBuffer = new FrameBuffer();
+  private final FrameBuffer compressedBuffer = new FrameBuffer();
+  private final WireMessage outgoing = new WireMessage();
 
 
   /**
-   * construct a ClientNetworkConnection.
+   * construct a ClientNetworkConnection that asks the server for the binary framing.
    *
    * @param model the ChatClientModel.
    */
   public ClientNetworkConnection(ChatClientModel model) {
-    this.model = model;
+    this(model, WireProtocol.BINARY);
+  }
 
+  /**
+   * construct a ClientNetworkConnection.
+   *
+   * @param model             the ChatClientModel.
+   * @param requestedProtocol the framing to ask for when logging in. Servers that do not know it
+   *                          keep talking JSON.
+   */
+  public ClientNetworkConnection(ChatClientModel model, WireProtocol requestedProtocol) {
+    this.model = model;
+    this.requestedProtocol = requestedProtocol;
   }
 
   /**
    * Start the network connection.
    */
   public void start() throws IOException {
-    socket = new Socket(HOST, PORT);
+    connect();
+  }
+
+  /**
+   * Open a new connection to the server and start the thread that reads from it. Every connection
+   * starts with the JSON framing.
+   */
+  private synchronized void connect() throws IOException {
+    Socket connection = new Socket(HOST, PORT);
+    socket = connection;
+    protocol = WireProtocol.JSON;
+    compressing = false;
 
     //output message to server
-    writer = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+    out = connection.getOutputStream();
 
     //receive message from server
     //set new thread so that this doesn't bock the main client thread
     Thread readerThread = new Thread() {
       public void run() {
         try {
-          BufferedReader reader =
-              new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
-          while (true) {
-            String line = reader.readLine();
-            jsonObject = new JSONObject(line);
-            String getType = (String) jsonObject.get("type");
-
-            if (Objects.equals(getType, "login success")) {
-              model.loggedIn(nickname);
+          InputStream in = connection.getInputStream();
+          FrameDecoder decoder = new FrameDecoder();
+          WireMessage message = new WireMessage();
+          while (decoder.readFrame(in)) {
+            decoder.decode(message);
+            MessageType getType = message.getType();
+
+            if (getType == MessageType.LOGIN_SUCCESS) {
+              if (message.getProtocol() == WireProtocol.BINARY) {
+                //the server confirmed the binary framing, every later frame uses it
+                boolean compression = BinaryCodec.DEFLATE.equals(message.getCompression());
+                decoder.setProtocol(WireProtocol.BINARY);
+                decoder.setCompression(compression);
+                switchProtocol(WireProtocol.BINARY, compression);
+              }
+              if (loggedIn(message.getSession())) {
+                model.resumed(message.isResumed());
+              } else {
+                model.loggedIn(nickname);
+              }
+              flushPendingSends();
+            }
+            if (getType == MessageType.PING) {
+              pong();
             }
-            if (Objects.equals(getType, "login failed")) {
+            if (getType == MessageType.SERVER_SHUTDOWN) {
+              serverShuttingDown();
+            }
+            if (getType == MessageType.LOGIN_FAILED) {
+              loginFailed();
               model.loginFailed();
             }
-            if (Objects.equals(getType, "user joined")) {
-              String getNickname = (String) jsonObject.get("nick");
-              model.userJoined(getNickname);
+            if (getType == MessageType.ROSTER) {
+              model.rosterReceived(orEmpty(message.getUsers()));
+            }
+            if (getType == MessageType.ROSTER_DELTA) {
+              model.rosterChanged(orEmpty(message.getUsers()), orEmpty(message.getLeft()));
             }
-            if (Objects.equals(getType, "user left")) {
-              String getNickname = (String) jsonObject.get("nick");
-              model.userLeft(getNickname);
+            if (getType == MessageType.USER_JOINED) {
+              model.userJoined(message.getNickname(), message.getRoom());
             }
-            if (Objects.equals(getType, "message")) {
-              model.addTextMessage((String) jsonObject.get("nick"),
-                  new Date(), (String) jsonObject.get("content"));
+            if (getType == MessageType.USER_LEFT) {
+              model.userLeft(message.getNickname(), message.getRoom());
+            }
+            if (getType == MessageType.DIRECT_MESSAGE) {
+              Date time = message.getTime() != 0 ? new Date(message.getTime()) : new Date();
+              model.addDirectMessage(message.getNickname(), time, message.getContent());
+            }
+            if (getType == MessageType.DELIVERY_STATUS) {
+              model.deliveryStatus(message.getTo(), message.getStatus());
+            }
+            if (getType == MessageType.MESSAGE) {
+              Date time = message.getTime() != 0 ? new Date(message.getTime()) : new Date();
+              model.addTextMessage(message.getNickname(), time, message.getContent(),
+                  message.getRoom(), message.getSequence());
+              if (message.getSequence() != 0) {
+                acknowledge(message.getRoom(), message.getSequence());
+              }
+            }
+            if (getType == MessageType.HISTORY_END) {
+              model.historyLoaded(message.getRoom());
             }
           }
-        } catch (IOException | JSONException e) {
-          e.printStackTrace();
+        } catch (FrameTooLargeException e) {
+          //nothing can be read behind the frame, so the connection is given up and reopened
+          System.err.println("Closing the connection to the server: " + e.getMessage());
+        } catch (IOException e) {
+          //the connection is broken, which is handled like the end of the stream
         }
+        connectionLost(connection);
       }
     };
     readerThread.start();
 
   }
 
+  private static List<String> orEmpty(List<String> nicknames) {
+    return nicknames == null ? List.of() : nicknames;
+  }
 
   /**
    * Stop the network-connection.
    */
-  public void stop() throws IOException {
-    //inform the server that this client is logged off,
-    //and this client socket will be closed right away.
-    jsonObject = new JSONObject();
-    try {
-      jsonObject.put("type", "close client socket");
-      jsonObject.put("nick", nickname);
-    } catch (JSONException e) {
-      e.printStackTrace();
+  public synchronized void stop() throws IOException {
+    stopped = true;
+    if (reconnectThread != null) {
+      reconnectThread.interrupt();
+    }
+    if (socket == null) {
+      return;
+    }
+    if (online) {
+      //inform the server that this client is logged off,
+      //and this client socket will be closed right away.
+      send(outgoingOfType(MessageType.CLOSE_CLIENT_SOCKET).setNickname(nickname));
     }
-    writer.write(jsonObject + System.lineSeparator());
-    writer.flush();
 
     socket.close();
   }
 
+  /**
+   * Start reconnecting after a connection has been lost, unless the client is stopping or the
+   * connection has already been replaced.
+   *
+   * @param connection the socket whose connection has ended.
+   */
+  private synchronized void connectionLost(Socket connection) {
+    if (stopped || connection != socket) {
+      return;
+    }
+    online = false;
+    if (reconnectThread != null) {
+      return;
+    }
+    reconnectThread = new Thread(this::reconnect, "chat-reconnect");
+    reconnectThread.setDaemon(true);
+    reconnectThread.start();
+    model.connectionLost();
+  }
+
+  /**
+   * Try to resume the session until a new connection has been opened. A connection that ends
+   * before its login has succeeded starts another round with the backoff of the previous one.
+   */
+  private void reconnect() {
+    while (true) {
+      long delay;
+      synchronized (this) {
+        delay = backoffMillis(reconnectAttempts++);
+      }
+      try {
+        Thread.sleep(delay);
+        resume();
+        return;
+      } catch (InterruptedException e) {
+        return;
+      } catch (IOException e) {
+        //the server is not back yet, try again a bit later
+      }
+    }
+  }
+
+  /**
+   * Get the time to wait before an attempt to reconnect. The delay is drawn uniformly from zero up
+   * to an exponentially growing, capped ceiling, which spreads clients that have lost their
+   * connections at the same time.
+   *
+   * @param attempt the number of attempts that have failed before, starting with {@code 0}.
+   * @return the delay in milliseconds.
+   */
+  static long backoffMillis(int attempt) {
+    long ceiling = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt, 20));
+    return ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
   /**
    * Send a login-request to the server.
    *
    * @param nickname The name of the user that requests to log in.
    */
-  public void sendLogin(String nickname) throws JSONException, IOException {
+  public synchronized void sendLogin(String nickname) throws IOException {
     this.nickname = nickname;
-    jsonObject = new JSONObject();
-    jsonObject.put("type", "login");
-    jsonObject.put("nick", nickname);
+    WireMessage login = outgoingOfType(MessageType.LOGIN).setNickname(nickname)
+        .setFeatures(FEATURES);
+    if (requestedProtocol == WireProtocol.BINARY) {
+      login.setProtocol(WireProtocol.BINARY).setCompression(BinaryCodec.DEFLATE);
+    }
+    send(login);
+  }
+
+  /**
+   * Open a new connection after the old one has been lost, and resume the session with the token
+   * of the last login. The server puts the client back into its rooms and only sends the messages
+   * that the client has missed, which are those behind the last sequence number of the main chat
+   * and behind the acknowledged ones of the rooms.
+   *
+   * @throws IOException if the server cannot be reached.
+   */
+  public synchronized void resume() throws IOException {
+    if (stopped || Thread.currentThread().isInterrupted()) {
+      return;
+    }
+    online = false;
+    try {
+      socket.close();
+    } catch (IOException e) {
+      //the old connection is broken anyway
+    }
+    connect();
+    if (reconnectThread != null && reconnectThread != Thread.currentThread()) {
+      //the session has been resumed on request, the pending attempt is obsolete
+      reconnectThread.interrupt();
+    }
+    reconnectThread = null;
+    if (nickname == null) {
+      //the connection was lost before the login, which the user still has to send
+      return;
+    }
+    resuming = sessionToken != null;
+    WireMessage login = outgoingOfType(MessageType.LOGIN).setNickname(nickname)
+        .setSession(sessionToken).setSequence(model.getNewestSequence(null))
+        .setFeatures(FEATURES);
+    if (requestedProtocol == WireProtocol.BINARY) {
+      login.setProtocol(WireProtocol.BINARY).setCompression(BinaryCodec.DEFLATE);
+    }
+    send(login);
+  }
 
-    writer.write(jsonObject + System.lineSeparator());
-    writer.flush();
+  /**
+   * Remember the token of a successful login.
+   *
+   * @param token the token with which the session can be resumed.
+   * @return {@code true} if the login has asked to resume a previous session, which the server
+   *         may have refused.
+   */
+  private synchronized boolean loggedIn(String token) {
+    sessionToken = token;
+    online = true;
+    reconnectAttempts = 0;
+    boolean resumed = resuming;
+    resuming = false;
+    return resumed;
+  }
+
+  /**
+   * Answer a ping of the server, which closes connections that stay silent for too long. The
+   * ping is answered before the login as well, e.g. while the user is still on the login screen.
+   */
+  private synchronized void pong() {
+    if (socket == null || socket.isClosed()) {
+      return;
+    }
+    try {
+      send(outgoingOfType(MessageType.PONG));
+    } catch (IOException e) {
+      connectionLost(socket);
+    }
+  }
+
+  /**
+   * Buffer the messages that the user sends from now on, because the server goes down and would
+   * no longer deliver them. They are sent once the connection to the restarted server is up.
+   */
+  private synchronized void serverShuttingDown() {
+    online = false;
+  }
+
+  private synchronized void loginFailed() {
+    resuming = false;
+  }
+
+  /**
+   * Send the messages that have been buffered while the connection was down, in the order in
+   * which the user has sent them.
+   */
+  private synchronized void flushPendingSends() {
+    while (online && !pendingSends.isEmpty()) {
+      try {
+        send(pendingSends.peekFirst());
+        pendingSends.removeFirst();
+      } catch (IOException e) {
+        //the message stays in the buffer for the next connection
+        connectionLost(socket);
+      }
+    }
+  }
+
+  /**
+   * Acknowledge the messages of a chat up to a sequence number, but only every few messages, such
+   * that a resumed session replays at most a few messages twice.
+   *
+   * @param room     the name of the room, or {@code null} for the main chat.
+   * @param sequence the sequence number of the received message.
+   */
+  private synchronized void acknowledge(String room, long sequence) {
+    int unacked = unackedMessages.merge(room, 1, Integer::sum);
+    if (unacked < ACK_INTERVAL) {
+      return;
+    }
+    unackedMessages.remove(room);
+    sendIfOnline(outgoingOfType(MessageType.ACK).setRoom(room).setSequence(sequence));
+  }
+
+  private synchronized void switchProtocol(WireProtocol protocol, boolean compressing) {
+    this.protocol = protocol;
+    this.compressing = compressing;
   }
 
   /**
@@ -127,17 +403,133 @@ public class ClientNetworkConnection {
    *
    * @param chatMessage The {@link UserTextMessage} containing the message of the user.
    */
-  public void sendMessage(UserTextMessage chatMessage) {
+  public synchronized void sendMessage(UserTextMessage chatMessage) {
+    if (chatMessage.getRoom() == null) {
+      sendOrBuffer(outgoingOfType(MessageType.POST_MESSAGE).setContent(chatMessage.getContent()));
+    } else {
+      sendOrBuffer(outgoingOfType(MessageType.POST_TO_ROOM).setContent(chatMessage.getContent())
+          .setRoom(chatMessage.getRoom()));
+    }
+  }
+
+  /**
+   * Send a private message to a single user.
+   *
+   * @param directMessage The {@link DirectMessage} containing the recipient and the message.
+   */
+  public synchronized void sendDirectMessage(DirectMessage directMessage) {
+    sendOrBuffer(outgoingOfType(MessageType.DIRECT_MESSAGE).setTo(directMessage.getRecipient())
+        .setContent(directMessage.getContent()));
+  }
 
+  /**
+   * Ask the server to add this client to a room.
+   *
+   * @param room the name of the room.
+   */
+  public synchronized void sendJoinRoom(String room) {
+    sendOrBuffer(outgoingOfType(MessageType.JOIN_ROOM).setRoom(room));
+  }
+
+  /**
+   * Join the rooms of the user again after a session has been resumed. The requests are sent
+   * ahead of the messages that have been buffered while the connection was down, which may post
+   * to these rooms.
+   *
+   * @param rooms the names of the rooms.
+   */
+  public synchronized void rejoinRooms(List<String> rooms) {
+    for (String room : rooms) {
+      sendIfOnline(outgoingOfType(MessageType.JOIN_ROOM).setRoom(room));
+    }
+  }
+
+  /**
+   * Ask the server to remove this client from a room.
+   *
+   * @param room the name of the room.
+   */
+  public synchronized void sendLeaveRoom(String room) {
+    sendOrBuffer(outgoingOfType(MessageType.LEAVE_ROOM).setRoom(room));
+  }
+
+  /**
+   * Ask the server for the messages of a room that precede the oldest known one.
+   *
+   * @param room           the name of the room, or {@code null} for the main chat.
+   * @param beforeSequence the sequence number of the oldest known message.
+   * @param limit          the largest number of messages to send.
+   */
+  public synchronized void sendHistoryRequest(String room, long beforeSequence, int limit) {
+    //a request on a lost connection is dropped, the model forgets it when the session resumes
+    sendIfOnline(outgoingOfType(MessageType.HISTORY_REQUEST).setRoom(room)
+        .setSequence(beforeSequence).setLimit(limit));
+  }
+
+  private WireMessage outgoingOfType(MessageType type) {
+    outgoing.clear();
+    return outgoing.setType(type);
+  }
+
+  /**
+   * Send a message that the user has initiated. While the connection is down, or while older
+   * messages are still waiting, the message is added to the bounded buffer instead. A full buffer
+   * drops its oldest message rather than block the user interface.
+   *
+   * @param message the message to send.
+   */
+  private void sendOrBuffer(WireMessage message) {
+    if (online && pendingSends.isEmpty()) {
+      try {
+        send(message);
+        return;
+      } catch (IOException e) {
+        connectionLost(socket);
+      }
+    }
+    if (pendingSends.size() == SEND_BUFFER_SIZE) {
+      pendingSends.removeFirst();
+    }
+    pendingSends.addLast(message.copy());
+  }
+
+  /**
+   * Send a message that is worthless on a later connection, or drop it if the connection is down.
+   *
+   * @param message the message to send.
+   */
+  private void sendIfOnline(WireMessage message) {
+    if (!online) {
+      return;
+    }
     try {
-      jsonObject = new JSONObject();
-      jsonObject.put("type", "post message");
-      jsonObject.put("content", chatMessage.getContent());
-      writer.write(jsonObject + System.lineSeparator());
-      writer.flush();
+      send(message);
+    } catch (IOException e) {
+      connectionLost(socket);
+    }
+  }
 
-    } catch (JSONException | IOException e) {
-      e.printStackTrace();
+  /**
+   * Encode a message into the reused frame buffer and write it to the server. The callers hold the
+   * monitor of this connection, since the outgoing message and the buffer are shared.
+   *
+   * @param message the message to send.
+   * @throws IOException if writing to the socket fails.
+   */
+  private void send(WireMessage message) throws IOException {
+    frameBuffer.reset();
+    if (protocol == WireProtocol.JSON) {
+      JsonCodec.encode(message, frameBuffer);
+    } else {
+      BinaryCodec.encode(message, frameBuffer);
+    }
+    compressedBuffer.reset();
+    if (compressing && frameBuffer.size() >= COMPRESSION_THRESHOLD
+        && BinaryCodec.compress(frameBuffer.array(), 0, frameBuffer.size(), compressedBuffer)) {
+      compressedBuffer.writeTo(out);
+    } else {
+      frameBuffer.writeTo(out);
     }
+    out.flush();
   }
 }
@@ -0,0 +1,28 @@
+package chat.client.model.events;
+
+/**
+ * Event that is sent by the model to the observers. It notifies the observers that the connection
+ * to the server has been lost, or that the session has been resumed on a new connection.
+ */
+public class ConnectionStateEvent extends ChatEvent {
+
+  private final boolean connected;
+
+  /**
+   * construct a ConnectionStateEvent.
+   *
+   * @param connected whether the client is connected to the server again.
+   */
+  public ConnectionStateEvent(boolean connected) {
+    this.connected = connected;
+  }
+
+  public boolean isConnected() {
+    return connected;
+  }
+
+  @Override
+  public String getName() {
+    return "ConnectionStateEvent";
+  }
+}
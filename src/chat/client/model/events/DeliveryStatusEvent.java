@@ -0,0 +1,25 @@
+package chat.client.model.events;
+
+import chat.client.view.chatview.DirectMessage;
+
+/**
+ * Event that is sent by the model to the observers. It notifies the observers that the server has
+ * reported whether a direct message of this client could be delivered.
+ */
+public class DeliveryStatusEvent extends ChatEvent {
+
+  private final DirectMessage message;
+
+  public DeliveryStatusEvent(DirectMessage message) {
+    this.message = message;
+  }
+
+  public DirectMessage getMessage() {
+    return message;
+  }
+
+  @Override
+  public String getName() {
+    return "DeliveryStatusEvent";
+  }
+}
@@ -0,0 +1,45 @@
+package chat.client.model.events;
+
+import chat.client.view.chatview.UserTextMessage;
+import java.util.List;
+
+/**
+ * Event that is sent by the model to the observers. It notifies the observers that a page of older
+ * messages of a room has been received, which belong above the messages that are shown.
+ */
+public class HistoryLoadedEvent extends ChatEvent {
+
+  private final String room;
+  private final List<UserTextMessage> messages;
+  private final boolean complete;
+
+  /**
+   * construct a HistoryLoadedEvent.
+   *
+   * @param room     the room of the messages, or {@code null} for the main chat.
+   * @param messages the older messages, oldest first.
+   * @param complete whether the server has no messages that are even older.
+   */
+  public HistoryLoadedEvent(String room, List<UserTextMessage> messages, boolean complete) {
+    this.room = room;
+    this.messages = messages;
+    this.complete = complete;
+  }
+
+  public String getRoom() {
+    return room;
+  }
+
+  public List<UserTextMessage> getMessages() {
+    return messages;
+  }
+
+  public boolean isComplete() {
+    return complete;
+  }
+
+  @Override
+  public String getName() {
+    return "HistoryLoadedEvent";
+  }
+}
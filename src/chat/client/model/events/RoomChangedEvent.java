@@ -0,0 +1,12 @@
+package chat.client.model.events;
+
+/**
+ * Event that is sent by the model to the observers. It notifies the observers that the user has
+ * joined, left or switched to another room.
+ */
+public class RoomChangedEvent extends ChatEvent {
+  @Override
+  public String getName() {
+    return "RoomChangedEvent";
+  }
+}
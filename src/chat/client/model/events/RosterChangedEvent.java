@@ -0,0 +1,38 @@
+package chat.client.model.events;
+
+import java.util.List;
+
+/**
+ * Event that is sent by the model to the observers. It notifies the observers about the users
+ * that have come online or gone offline, such that a roster that is shown can be updated without
+ * being rebuilt.
+ */
+public class RosterChangedEvent extends ChatEvent {
+
+  private final List<String> added;
+  private final List<String> removed;
+
+  /**
+   * construct a RosterChangedEvent.
+   *
+   * @param added   the nicknames that have been added to the roster, in sorted order.
+   * @param removed the nicknames that have been removed from the roster, in sorted order.
+   */
+  public RosterChangedEvent(List<String> added, List<String> removed) {
+    this.added = added;
+    this.removed = removed;
+  }
+
+  public List<String> getAdded() {
+    return added;
+  }
+
+  public List<String> getRemoved() {
+    return removed;
+  }
+
+  @Override
+  public String getName() {
+    return "RosterChangedEvent";
+  }
+}
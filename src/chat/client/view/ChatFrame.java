@@ -4,8 +4,14 @@ import static java.util.Objects.requireNonNull;
 
 import chat.client.controller.ChatController;
 import chat.client.model.ChatClientModel;
+import chat.client.model.events.ConnectionStateEvent;
+import chat.client.model.events.HistoryLoadedEvent;
+import chat.client.model.events.MessageAddedEvent;
+import chat.client.model.events.RosterChangedEvent;
 import chat.client.view.chatview.ChatCellRenderer;
 import chat.client.view.chatview.ChatEntry;
+import chat.client.view.chatview.DirectMessage;
+import chat.client.view.chatview.UserTextMessage;
 import java.awt.CardLayout;
 import java.awt.Dimension;
 import java.awt.GridBagConstraints;
@@ -19,18 +25,21 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.IOException;
 import java.io.Serial;
+import java.util.List;
 import java.util.Objects;
+import javax.swing.DefaultComboBoxModel;
 import javax.swing.DefaultListModel;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JPanel;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingUtilities;
-import org.json.JSONException;
 
 /**
  * The main view of the chat user interface. It provides and connects all graphical elements
@@ -44,6 +53,8 @@ public class ChatFrame extends JFrame implements PropertyChangeListener {
 
   private static final String LOGIN_CARD = "login";
   private static final String CHAT_CARD = "chat";
+  private static final String MAIN_CHAT = "Main chat";
+  private static final String TITLE = "Chat Client";
 
   private final ChatClientModel model;
   private final ChatController controller;
@@ -51,8 +62,15 @@ public class ChatFrame extends JFrame implements PropertyChangeListener {
   private CardLayout layout;
   private JTextField nickName;
   private DefaultListModel<ChatEntry> listModel;
+  private JList<ChatEntry> chatList;
   private JTextArea inputArea;
   private JScrollPane scrollPane;
+  private DefaultComboBoxModel<String> roomModel;
+  private JComboBox<String> roomSelector;
+  private DefaultListModel<String> rosterModel;
+  private JScrollPane rosterPane;
+  private boolean updatingRooms;
+  private boolean historyComplete;
 
   /**
    * Create a new graphical view that contains all necessary elements for chatting with .
@@ -61,7 +79,7 @@ public class ChatFrame extends JFrame implements PropertyChangeListener {
    * @param controller The {@link ChatController} that validates and forwards any user input.
    */
   public ChatFrame(ChatController controller, ChatClientModel model) {
-    super("Chat Client");
+    super(TITLE);
 
     this.controller = requireNonNull(controller);
     this.model = requireNonNull(model);
@@ -84,9 +102,14 @@ public class ChatFrame extends JFrame implements PropertyChangeListener {
     nickName = new JTextField(20);
 
     listModel = new DefaultListModel<>();
-    listModel.addAll(model.getMessages());
+    showEntriesOfCurrentRoom();
 
-    JList<ChatEntry> chatList = new JList<>(listModel);
+    roomModel = new DefaultComboBoxModel<>();
+    roomModel.addElement(MAIN_CHAT);
+    roomSelector = new JComboBox<>(roomModel);
+    roomSelector.setToolTipText("Type /join <room> to join a room and /leave to leave it.");
+
+    chatList = new JList<>(listModel);
     chatList.setCellRenderer(new ChatCellRenderer());
     scrollPane = new JScrollPane(chatList);
     scrollPane.setPreferredSize(new Dimension(150, 300));
@@ -94,6 +117,11 @@ public class ChatFrame extends JFrame implements PropertyChangeListener {
     scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
     scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
 
+    rosterModel = new DefaultListModel<>();
+    rosterPane = new JScrollPane(new JList<>(rosterModel));
+    rosterPane.setPreferredSize(new Dimension(120, 300));
+    rosterPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+
     inputArea = new JTextArea(3, 50);
     inputArea.setLineWrap(true);
     inputArea.setWrapStyleWord(true);
@@ -108,13 +136,28 @@ public class ChatFrame extends JFrame implements PropertyChangeListener {
       try {
         controller.login(nickName.getText());
 
-      } catch (JSONException ex) {
-        ex.printStackTrace();
       } catch (IOException ex) {
         ex.printStackTrace();
       }
     });
 
+    roomSelector.addActionListener(e -> {
+      if (updatingRooms) {
+        return;
+      }
+      String selected = (String) roomSelector.getSelectedItem();
+      controller.selectRoom(MAIN_CHAT.equals(selected) ? null : selected);
+    });
+
+    //scrolling to the top of the chat loads the messages before the oldest one that is shown
+    scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+      JScrollBar bar = scrollPane.getVerticalScrollBar();
+      if (!e.getValueIsAdjusting() && e.getValue() == bar.getMinimum()
+          && bar.getMaximum() - bar.getMinimum() > bar.getVisibleAmount()) {
+        loadOlderMessages();
+      }
+    });
+
     inputArea.addKeyListener(new KeyAdapter() {
       @Override
       public void keyPressed(KeyEvent event) {
@@ -157,13 +200,28 @@ public class ChatFrame extends JFrame implements PropertyChangeListener {
 
     GridBagConstraints constraints = new GridBagConstraints();
     constraints.insets = new Insets(5, 5, 5, 5);
+    constraints.fill = GridBagConstraints.HORIZONTAL;
+    chatPanel.add(roomSelector, constraints);
+
+    constraints = new GridBagConstraints();
+    constraints.insets = new Insets(5, 5, 5, 5);
     constraints.fill = GridBagConstraints.BOTH;
+    constraints.gridy = 1;
     constraints.weighty = 0.9;
     chatPanel.add(scrollPane, constraints);
 
+    //the users that are online, next to the chat
     constraints = new GridBagConstraints();
     constraints.insets = new Insets(5, 5, 5, 5);
+    constraints.fill = GridBagConstraints.BOTH;
+    constraints.gridx = 1;
     constraints.gridy = 1;
+    constraints.weighty = 0.9;
+    chatPanel.add(rosterPane, constraints);
+
+    constraints = new GridBagConstraints();
+    constraints.insets = new Insets(5, 5, 5, 5);
+    constraints.gridy = 2;
     chatPanel.add(inputArea, constraints);
   }
 
@@ -194,18 +252,22 @@ public class ChatFrame extends JFrame implements PropertyChangeListener {
 
     //check whether any message should be removed from the chat frame
     model.messageOversize();
-    if (Objects.equals(event.getPropertyName(), "MessageRemovedEvent")) {
-      int messageSize = model.getMessages().size();
-      for (int messageIndex = 0; messageIndex < messageSize - 100; messageIndex++) {
-        listModel.removeElementAt(messageIndex);
-      }
+    //while the user reads older messages, the shown entries are kept
+    if (Objects.equals(event.getPropertyName(), "MessageRemovedEvent") && isScrolledToBottom()) {
+      showEntriesOfCurrentRoom();
     }
 
     //if a login is successful, a LoggedInEvent is fired by the model
     //chat frame should update accordingly
     if (Objects.equals(event.getPropertyName(), "LoggedInEvent")) {
       showChat();
-      listModel.addElement(model.getLoggedInMessage());
+      addIfInCurrentRoom(model.getLoggedInMessage());
+    }
+
+    //if the user has joined, left or switched a room, show the entries of the current room
+    if (Objects.equals(event.getPropertyName(), "RoomChangedEvent")) {
+      updateRooms();
+      showEntriesOfCurrentRoom();
     }
 
     //if a login failed, a LoginFailedEvent is fired by the model
@@ -216,19 +278,167 @@ public class ChatFrame extends JFrame implements PropertyChangeListener {
 
     //if a messaged is added, update ChatFrame accordingly
     if (Objects.equals(event.getPropertyName(), "MessageAddedEvent")) {
-      listModel.addElement(model.getUserTextMessage());
+      addIfInCurrentRoom(((MessageAddedEvent) event.getNewValue()).getMessage());
+    }
+    //if a page of older messages has arrived, show it above the shown entries
+    if (Objects.equals(event.getPropertyName(), "HistoryLoadedEvent")) {
+      showHistory((HistoryLoadedEvent) event.getNewValue());
+    }
+    //while the client reconnects, the title tells the user that messages are held back
+    if (Objects.equals(event.getPropertyName(), "ConnectionStateEvent")) {
+      boolean connected = ((ConnectionStateEvent) event.getNewValue()).isConnected();
+      setTitle(connected ? TITLE : TITLE + " (reconnecting...)");
+    }
+    //if users have come online or gone offline, update the roster
+    if (Objects.equals(event.getPropertyName(), "RosterChangedEvent")) {
+      updateRoster((RosterChangedEvent) event.getNewValue());
+    }
+    //if a direct message has been delivered, show its new status
+    if (Objects.equals(event.getPropertyName(), "DeliveryStatusEvent")) {
+      chatList.repaint();
     }
     //if a user has left, update ChatFrame accordingly
     if (Objects.equals(event.getPropertyName(), "UserLeftEvent")) {
-      listModel.addElement(model.getUserLeftMessage());
+      addIfInCurrentRoom(model.getUserLeftMessage());
     }
     //if a user has joined, update ChatFrame accordingly
     if (Objects.equals(event.getPropertyName(), "UserJoinEvent")) {
-      listModel.addElement(model.getUserJoinedMessage());
+      addIfInCurrentRoom(model.getUserJoinedMessage());
     }
 
   }
 
+  /**
+   * Show a new entry, unless it belongs to another room than the one that is shown. Direct
+   * messages are shown in every room.
+   *
+   * @param entry the new chat entry.
+   */
+  private void addIfInCurrentRoom(ChatEntry entry) {
+    if (entry instanceof DirectMessage
+        || Objects.equals(entry.getRoom(), model.getCurrentRoom())) {
+      listModel.addElement(entry);
+    }
+  }
+
+  /**
+   * Ask for the messages that precede the oldest message that is shown, unless the server has
+   * none.
+   */
+  private void loadOlderMessages() {
+    if (historyComplete) {
+      return;
+    }
+    long oldest = 0;
+    for (int index = 0; index < listModel.size(); index++) {
+      if (listModel.get(index) instanceof UserTextMessage message && message.getSequence() != 0) {
+        oldest = oldest == 0 ? message.getSequence() : Math.min(oldest, message.getSequence());
+      }
+    }
+    if (oldest == 0) {
+      return;
+    }
+    controller.loadOlderMessages(oldest);
+  }
+
+  /**
+   * Insert a page of older messages above the shown entries, keeping the entries that are visible
+   * in place.
+   *
+   * @param event the event with the page.
+   */
+  private void showHistory(HistoryLoadedEvent event) {
+    if (!Objects.equals(event.getRoom(), model.getCurrentRoom())) {
+      return;
+    }
+    historyComplete = event.isComplete();
+    List<UserTextMessage> messages = event.getMessages();
+    JScrollBar bar = scrollPane.getVerticalScrollBar();
+    int distanceToBottom = bar.getMaximum() - bar.getValue();
+    for (int index = messages.size() - 1; index >= 0; index--) {
+      listModel.add(0, messages.get(index));
+    }
+    SwingUtilities.invokeLater(() -> bar.setValue(bar.getMaximum() - distanceToBottom));
+  }
+
+  /**
+   * Apply the changes of the roster to the shown list, which is kept in sorted order. Only the
+   * changed rows are touched, so a large roster is not rebuilt for every change.
+   *
+   * @param event the event with the added and removed nicknames.
+   */
+  private void updateRoster(RosterChangedEvent event) {
+    for (String nickname : event.getRemoved()) {
+      int index = rosterIndex(nickname);
+      if (index >= 0) {
+        rosterModel.remove(index);
+      }
+    }
+    for (String nickname : event.getAdded()) {
+      int index = rosterIndex(nickname);
+      if (index < 0) {
+        rosterModel.add(-index - 1, nickname);
+      }
+    }
+  }
+
+  /**
+   * Find a nickname in the sorted roster with a binary search.
+   *
+   * @return the index of the nickname, or {@code -(insertion point) - 1} if it is not shown.
+   */
+  private int rosterIndex(String nickname) {
+    int low = 0;
+    int high = rosterModel.size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = rosterModel.get(middle).compareTo(nickname);
+      if (comparison < 0) {
+        low = middle + 1;
+      } else if (comparison > 0) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -low - 1;
+  }
+
+  private boolean isScrolledToBottom() {
+    JScrollBar bar = scrollPane.getVerticalScrollBar();
+    return bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum();
+  }
+
+  /**
+   * Replace the shown entries by the entries of the current room.
+   */
+  private void showEntriesOfCurrentRoom() {
+    historyComplete = false;
+    listModel.clear();
+    for (ChatEntry entry : model.getMessages()) {
+      addIfInCurrentRoom(entry);
+    }
+  }
+
+  /**
+   * Fill the room selector with the joined rooms and select the current one, without reporting
+   * the changes back to the controller.
+   */
+  private void updateRooms() {
+    updatingRooms = true;
+    try {
+      roomModel.removeAllElements();
+      roomModel.addElement(MAIN_CHAT);
+      for (String room : model.getRooms()) {
+        roomModel.addElement(room);
+      }
+      String current = model.getCurrentRoom();
+      roomSelector.setSelectedItem(current == null ? MAIN_CHAT : current);
+    } finally {
+      updatingRooms = false;
+    }
+  }
+
   /**
    * Show the login view to the user.
    */
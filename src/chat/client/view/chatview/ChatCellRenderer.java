@@ -1,5 +1,6 @@
 package chat.client.view.chatview;
 
+import java.awt.Color;
 import java.awt.Component;
 import java.io.Serial;
 import java.text.DateFormat;
@@ -15,6 +16,8 @@ public class ChatCellRenderer extends JTextArea implements ListCellRenderer<Chat
   @Serial
   private static final long serialVersionUID = 1L;
 
+  private static final Color DIRECT_MESSAGE_BACKGROUND = new Color(255, 248, 220);
+
   private final DateFormat dateFormat;
 
   /**
@@ -41,11 +44,21 @@ public class ChatCellRenderer extends JTextArea implements ListCellRenderer<Chat
       setText(
           String.format("%s (%s): %s", userTextMsg.getSource(), time, userTextMsg.getContent()));
     }
+    String chat = value.getRoom() == null ? "the chat" : "room " + value.getRoom();
     if (value instanceof UserJoinedMessage userJoinedMsg) {
-      setText(userJoinedMsg.getNickname() + " has joined the chat.");
+      setText(userJoinedMsg.getNickname() + " has joined " + chat + ".");
     }
     if (value instanceof UserLeftMessage userLeftMsg) {
-      setText(userLeftMsg.getNickname() + " has left the chat.");
+      setText(userLeftMsg.getNickname() + " has left " + chat + ".");
+    }
+    if (value instanceof DirectMessage directMsg) {
+      //private messages stand out from the messages of the room
+      setBackground(DIRECT_MESSAGE_BACKGROUND);
+      String time = dateFormat.format(directMsg.getTime());
+      String status = directMsg.getStatus() == null ? ""
+          : " [" + directMsg.getStatus().getWireName() + "]";
+      setText(String.format("%s \u2192 %s (%s, private): %s%s", directMsg.getSource(),
+          directMsg.getRecipient(), time, directMsg.getContent(), status));
     }
     if (value instanceof LoggedInMessage loggedInMsg) {
       setText("Chat joined as " + loggedInMsg.getNickname() + ".");
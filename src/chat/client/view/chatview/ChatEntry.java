@@ -2,8 +2,34 @@ package chat.client.view.chatview;
 
 /**
  * An entry in the chat list. Can be a system message (e.g. 'user joined' or 'user left') or a chat
- * message.
+ * message. Every entry belongs either to the main chat or to a named room.
  */
 public abstract class ChatEntry {
 
+  private final String room;
+
+  /**
+   * construct an entry of the main chat.
+   */
+  protected ChatEntry() {
+    this(null);
+  }
+
+  /**
+   * construct an entry of a room.
+   *
+   * @param room the name of the room, or {@code null} for the main chat.
+   */
+  protected ChatEntry(String room) {
+    this.room = room;
+  }
+
+  /**
+   * Get the room the entry belongs to.
+   *
+   * @return the name of the room, or {@code null} for the main chat.
+   */
+  public String getRoom() {
+    return room;
+  }
 }
@@ -0,0 +1,66 @@
+package chat.client.view.chatview;
+
+import chat.protocol.DeliveryStatus;
+import java.util.Date;
+
+/**
+ * A private chat message between two users. It is shown in every room, and a message that this
+ * client has sent also shows whether the server could deliver it.
+ */
+public class DirectMessage extends ChatEntry {
+
+  private final String source;
+
+  private final String recipient;
+
+  private final Date time;
+
+  private final String content;
+
+  private volatile DeliveryStatus status;
+
+  /**
+   * construct a DirectMessage.
+   *
+   * @param source the nickname of the sender.
+   * @param recipient the nickname of the recipient.
+   * @param time the time when the DirectMessage was sent.
+   * @param content the content of the DirectMessage.
+   */
+  public DirectMessage(String source, String recipient, Date time, String content) {
+    this.source = source;
+    this.recipient = recipient;
+    this.time = time;
+    this.content = content;
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  public String getRecipient() {
+    return recipient;
+  }
+
+  public Date getTime() {
+    Date timeCopy = (Date) time.clone();
+    return timeCopy;
+  }
+
+  public String getContent() {
+    return content;
+  }
+
+  /**
+   * Get the outcome of a message that this client has sent.
+   *
+   * @return the status reported by the server, or {@code null} if it has not been reported yet.
+   */
+  public DeliveryStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(DeliveryStatus status) {
+    this.status = status;
+  }
+}
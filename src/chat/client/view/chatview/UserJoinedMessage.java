@@ -8,6 +8,17 @@ public class UserJoinedMessage extends ChatEntry {
   private final String nickname;
 
   public UserJoinedMessage(String nickname) {
+    this(nickname, null);
+  }
+
+  /**
+   * construct a UserJoinedMessage.
+   *
+   * @param nickname the nickname of the user.
+   * @param room     the room the user has joined, or {@code null} for the main chat.
+   */
+  public UserJoinedMessage(String nickname, String room) {
+    super(room);
     this.nickname = nickname;
   }
 
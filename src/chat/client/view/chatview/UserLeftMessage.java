@@ -8,6 +8,17 @@ public class UserLeftMessage extends ChatEntry {
   private final String nickname;
 
   public UserLeftMessage(String nickname) {
+    this(nickname, null);
+  }
+
+  /**
+   * construct a UserLeftMessage.
+   *
+   * @param nickname the nickname of the user.
+   * @param room     the room the user has left, or {@code null} for the main chat.
+   */
+  public UserLeftMessage(String nickname, String room) {
+    super(room);
     this.nickname = nickname;
   }
 
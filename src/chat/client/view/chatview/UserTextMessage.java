@@ -15,6 +15,8 @@ public class UserTextMessage extends ChatEntry {
 
   private final String content;
 
+  private final long sequence;
+
   /**
    * construct a UserTextMessage.
    *
@@ -23,9 +25,36 @@ public class UserTextMessage extends ChatEntry {
    * @param content the content of the UserTextMessage.
    */
   public UserTextMessage(String source, Date time, String content) {
+    this(source, time, content, null);
+  }
+
+  /**
+   * construct a UserTextMessage of a room.
+   *
+   * @param source the source of the UserTextMessage.
+   * @param time the time when the UserTextMessage was sent.
+   * @param content the content of the UserTextMessage.
+   * @param room the room of the UserTextMessage, or {@code null} for the main chat.
+   */
+  public UserTextMessage(String source, Date time, String content, String room) {
+    this(source, time, content, room, 0);
+  }
+
+  /**
+   * construct a UserTextMessage of a room that has been numbered by the server.
+   *
+   * @param source the source of the UserTextMessage.
+   * @param time the time when the UserTextMessage was sent.
+   * @param content the content of the UserTextMessage.
+   * @param room the room of the UserTextMessage, or {@code null} for the main chat.
+   * @param sequence the sequence number of the UserTextMessage within its room.
+   */
+  public UserTextMessage(String source, Date time, String content, String room, long sequence) {
+    super(room);
     this.source = source;
     this.time = time;
     this.content = content;
+    this.sequence = sequence;
   }
 
 
@@ -42,6 +71,15 @@ public class UserTextMessage extends ChatEntry {
     return content;
   }
 
+  /**
+   * Get the number the server has given the message within its room.
+   *
+   * @return the sequence number, or {@code 0} for messages of this client.
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
   @Override
   public String toString() {
     String dateString = DateFormat.getDateTimeInstance(DateFormat.MEDIUM,
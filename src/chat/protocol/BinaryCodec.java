@@ -0,0 +1,273 @@
+package chat.protocol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes the messages of the chat protocol in the compact binary framing:
+ *
+ * <pre>
+ * frame = varint(length of body) body
+ * body  = type byte, then any number of fields
+ * field = varint(tag &lt;&lt; 1 | kind) value
+ * value = zigzag varint                    for kind 0 (numbers)
+ *       | varint(byte length) UTF-8 bytes  for kind 1 (strings)
+ * </pre>
+ *
+ * <p>A list of strings is written as one field per element, all with the same tag, in order.
+ *
+ * <p>Fields with an unknown tag are skipped, so newer peers may add fields without breaking
+ * older ones. No character decoding is needed to find the end of a frame.
+ *
+ * <p>If both peers agreed on {@link #DEFLATE} at login, a body may also be compressed:
+ *
+ * <pre>
+ * body  = 0, varint(length of inflated body), raw deflate stream of the inflated body
+ * </pre>
+ *
+ * <p>Every body is compressed on its own, without a dictionary shared between frames, such that a
+ * compressed broadcast is identical for all recipients.
+ */
+public final class BinaryCodec {
+
+  /**
+   * The name of the only supported compression in the {@code compression} field of a login.
+   */
+  public static final String DEFLATE = "deflate";
+
+  private static final int COMPRESSED_MARKER = 0;
+  private static final ThreadLocal<Deflater> DEFLATERS =
+      ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+  private static final int KIND_VARINT = 0;
+  private static final int KIND_LENGTH_DELIMITED = 1;
+
+  private BinaryCodec() {
+  }
+
+  /**
+   * Encode a message including its length prefix.
+   *
+   * @param message the message to encode.
+   * @param out     the buffer to append the encoded frame to.
+   */
+  public static void encode(WireMessage message, FrameBuffer out) {
+    int start = out.size();
+    out.write(message.getType().getCode());
+    for (Field field : Field.VALUES) {
+      if (field.getKind() == Field.Kind.STRING && message.getString(field) != null) {
+        writeString(out, field, message.getString(field));
+      } else if (field.getKind() == Field.Kind.STRING_LIST && message.getList(field) != null) {
+        for (String value : message.getList(field)) {
+          writeString(out, field, value);
+        }
+      } else if (field.getKind() == Field.Kind.NUMBER && message.getNumber(field) != 0) {
+        long value = message.getNumber(field);
+        writeVarint(out, field.getTag() << 1 | KIND_VARINT);
+        writeVarint(out, (value << 1) ^ (value >> 63));
+      }
+    }
+    out.insertVarint(start, out.size() - start);
+  }
+
+  private static void writeString(FrameBuffer out, Field field, String value) {
+    writeVarint(out, field.getTag() << 1 | KIND_LENGTH_DELIMITED);
+    writeVarint(out, Utf8.encodedLength(value));
+    Utf8.write(out, value);
+  }
+
+  private static void writeVarint(FrameBuffer out, long value) {
+    while ((value & ~0x7fL) != 0) {
+      out.write((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  /**
+   * Compress an encoded frame. The frame is only appended if the compressed frame is smaller than
+   * the original one.
+   *
+   * @param frame  the array holding the encoded frame.
+   * @param offset the index of the length prefix of the frame.
+   * @param length the number of bytes of the frame including its length prefix.
+   * @param out    the buffer to append the compressed frame to.
+   * @return {@code true} if the compressed frame has been appended.
+   */
+  public static boolean compress(byte[] frame, int offset, int length, FrameBuffer out) {
+    int bodyStart = offset;
+    while (frame[bodyStart] < 0) {
+      bodyStart++;
+    }
+    bodyStart++;
+    int bodyLength = offset + length - bodyStart;
+
+    int start = out.size();
+    out.write(COMPRESSED_MARKER);
+    writeVarint(out, bodyLength);
+    Deflater deflater = DEFLATERS.get();
+    deflater.reset();
+    deflater.setInput(frame, bodyStart, bodyLength);
+    deflater.finish();
+    while (!deflater.finished() && out.size() - start < length) {
+      out.ensureCapacity(out.size() + Math.max(bodyLength / 2, 64));
+      byte[] array = out.array();
+      out.setSize(out.size() + deflater.deflate(array, out.size(), array.length - out.size()));
+    }
+    out.insertVarint(start, out.size() - start);
+    if (!deflater.finished() || out.size() - start >= length) {
+      //the frame does not get smaller, so it is not worth inflating on the other side
+      out.setSize(start);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Check whether the body of a frame has been compressed.
+   *
+   * @param buffer the array holding the frame.
+   * @param offset the index of the first byte of the body.
+   * @param length the number of bytes of the body.
+   * @return {@code true} if the body has to be inflated before it can be decoded.
+   */
+  public static boolean isCompressed(byte[] buffer, int offset, int length) {
+    return length > 0 && buffer[offset] == COMPRESSED_MARKER;
+  }
+
+  /**
+   * Inflate a compressed body.
+   *
+   * @param buffer    the array holding the frame.
+   * @param offset    the index of the first byte of the body.
+   * @param length    the number of bytes of the body.
+   * @param maxLength the largest inflated body that is accepted.
+   * @param inflater  the inflater of the connection, which is reset first.
+   * @param out       the buffer to append the inflated body to.
+   * @throws ProtocolException     if the body is malformed.
+   * @throws FrameTooLargeException if the body inflates to more than the limit.
+   */
+  public static void inflate(byte[] buffer, int offset, int length, int maxLength,
+      Inflater inflater, FrameBuffer out) throws ProtocolException {
+    int end = offset + length;
+    int[] position = {offset + 1};
+    long inflatedLength = readVarint(buffer, position, end);
+    if (inflatedLength < 0) {
+      throw new ProtocolException("Malformed compressed frame: negative length");
+    }
+    if (inflatedLength > maxLength) {
+      throw new FrameTooLargeException(maxLength);
+    }
+    int start = out.size();
+    out.ensureCapacity(start + (int) inflatedLength);
+    inflater.reset();
+    inflater.setInput(buffer, position[0], end - position[0]);
+    try {
+      int inflated = inflater.inflate(out.array(), start, (int) inflatedLength);
+      if (inflated != inflatedLength || !inflater.finished()) {
+        throw new ProtocolException("Malformed compressed frame: length mismatch");
+      }
+      out.setSize(start + inflated);
+    } catch (DataFormatException e) {
+      ProtocolException exception = new ProtocolException("Malformed compressed frame");
+      exception.initCause(e);
+      throw exception;
+    }
+  }
+
+  /**
+   * Decode the body of a single frame into a message. The fields of the message are cleared
+   * first.
+   *
+   * @param buffer  the array holding the frame.
+   * @param offset  the index of the first byte of the body, i.e. behind the length prefix.
+   * @param length  the number of bytes of the body.
+   * @param message the message to fill.
+   * @throws ProtocolException if the body is malformed.
+   */
+  public static void decode(byte[] buffer, int offset, int length, WireMessage message)
+      throws ProtocolException {
+    message.clear();
+    if (length == 0) {
+      throw new ProtocolException("Malformed binary frame: empty body");
+    }
+    int end = offset + length;
+    MessageType type = MessageType.fromCode(buffer[offset] & 0xff);
+    if (type == null) {
+      throw new ProtocolException(
+          "Malformed binary frame: unknown type " + (buffer[offset] & 0xff));
+    }
+    message.setType(type);
+    int[] position = {offset + 1};
+    while (position[0] < end) {
+      long key = readVarint(buffer, position, end);
+      Field field = Field.fromTag((int) (key >>> 1));
+      if ((key & 1) == KIND_VARINT) {
+        long value = readVarint(buffer, position, end);
+        if (field != null && field.getKind() == Field.Kind.NUMBER) {
+          message.setNumber(field, (value >>> 1) ^ -(value & 1));
+        }
+      } else {
+        long valueLength = readVarint(buffer, position, end);
+        //a length beyond 63 bits is negative and would move the position backwards
+        if (valueLength < 0 || valueLength > end - position[0]) {
+          throw new ProtocolException("Malformed binary frame: field exceeds frame");
+        }
+        if (field != null && field.getKind() == Field.Kind.STRING) {
+          message.setString(field, new String(buffer, position[0], (int) valueLength, UTF_8));
+        } else if (field != null && field.getKind() == Field.Kind.STRING_LIST) {
+          if (message.getList(field) == null) {
+            message.setList(field, new ArrayList<>());
+          }
+          message.getList(field).add(new String(buffer, position[0], (int) valueLength, UTF_8));
+        }
+        position[0] += (int) valueLength;
+      }
+    }
+  }
+
+  /**
+   * Decode a complete, uncompressed frame including its length prefix, e.g. one that has been
+   * stored as it was sent.
+   *
+   * @param frame   the array holding the frame.
+   * @param offset  the index of the length prefix.
+   * @param length  the number of bytes of the frame including its length prefix.
+   * @param message the message to fill.
+   * @throws ProtocolException if the frame is malformed.
+   */
+  public static void decodeFrame(byte[] frame, int offset, int length, WireMessage message)
+      throws ProtocolException {
+    int end = offset + length;
+    int[] position = {offset};
+    long bodyLength = readVarint(frame, position, end);
+    if (bodyLength != end - position[0]) {
+      throw new ProtocolException("Malformed binary frame: length mismatch");
+    }
+    decode(frame, position[0], (int) bodyLength, message);
+  }
+
+  /**
+   * Read a varint and advance the position behind it.
+   */
+  private static long readVarint(byte[] buffer, int[] position, int end)
+      throws ProtocolException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (position[0] >= end) {
+        throw new ProtocolException("Malformed binary frame: truncated varint");
+      }
+      byte b = buffer[position[0]++];
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new ProtocolException("Malformed binary frame: varint too long");
+  }
+}
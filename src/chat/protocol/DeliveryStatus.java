@@ -0,0 +1,53 @@
+package chat.protocol;
+
+/**
+ * The outcome of a direct message, reported back to its sender in a {@code delivery status}
+ * message.
+ */
+public enum DeliveryStatus {
+
+  /**
+   * The message has been queued for the recipient.
+   */
+  DELIVERED("delivered"),
+
+  /**
+   * Nobody is logged in with the nickname of the recipient.
+   */
+  UNKNOWN_USER("unknown user"),
+
+  /**
+   * The recipient could not keep up with its messages and has been disconnected.
+   */
+  REJECTED("rejected");
+
+  private final String wireName;
+
+  DeliveryStatus(String wireName) {
+    this.wireName = wireName;
+  }
+
+  /**
+   * Get the name of the status as it appears in the {@code status} field.
+   *
+   * @return the wire name.
+   */
+  public String getWireName() {
+    return wireName;
+  }
+
+  /**
+   * Find the status with the given wire name.
+   *
+   * @param wireName the name as it appears on the wire.
+   * @return the matching status, or {@code null} if the name is unknown.
+   */
+  public static DeliveryStatus fromWireName(String wireName) {
+    for (DeliveryStatus status : values()) {
+      if (status.wireName.equals(wireName)) {
+        return status;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,60 @@
+package chat.protocol;
+
+/**
+ * The reason why the server has refused a frame or a connection, reported to the client in an
+ * {@code error} message.
+ */
+public enum ErrorCode {
+
+  /**
+   * The client has sent more messages or bytes per second than it may. The frame has been
+   * dropped, the connection stays open.
+   */
+  RATE_LIMITED("rate limited"),
+
+  /**
+   * The server already serves as many clients as it may. The connection is closed.
+   */
+  TOO_MANY_CONNECTIONS("too many connections"),
+
+  /**
+   * Too many clients are logging in at the moment. The connection is closed, the client may try
+   * again later.
+   */
+  TOO_MANY_LOGINS("too many logins"),
+
+  /**
+   * The client has sent a frame larger than the server accepts. The connection is closed.
+   */
+  FRAME_TOO_LARGE("frame too large");
+
+  private final String wireName;
+
+  ErrorCode(String wireName) {
+    this.wireName = wireName;
+  }
+
+  /**
+   * Get the name of the code as it appears in the {@code error} field.
+   *
+   * @return the wire name.
+   */
+  public String getWireName() {
+    return wireName;
+  }
+
+  /**
+   * Find the code with the given wire name.
+   *
+   * @param wireName the name as it appears on the wire.
+   * @return the matching code, or {@code null} if the name is unknown.
+   */
+  public static ErrorCode fromWireName(String wireName) {
+    for (ErrorCode code : values()) {
+      if (code.wireName.equals(wireName)) {
+        return code;
+      }
+    }
+    return null;
+  }
+}
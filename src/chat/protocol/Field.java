@@ -0,0 +1,103 @@
+package chat.protocol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The fields a message of the chat protocol may carry besides its type. Every field has a name
+ * for the JSON framing and a numeric tag for the binary framing; both codecs handle all fields
+ * generically, so a new field only needs to be declared here.
+ */
+public enum Field {
+
+  NICK("nick", 1, Kind.STRING),
+  CONTENT("content", 2, Kind.STRING),
+  TIME("time", 3, Kind.NUMBER),
+  PROTOCOL("protocol", 4, Kind.STRING),
+  COMPRESSION("compression", 5, Kind.STRING),
+  ROOM("room", 6, Kind.STRING),
+  TO("to", 7, Kind.STRING),
+  STATUS("status", 8, Kind.STRING),
+  SEQUENCE("seq", 9, Kind.NUMBER),
+  LIMIT("limit", 10, Kind.NUMBER),
+  SESSION("session", 11, Kind.STRING),
+  USERS("users", 12, Kind.STRING_LIST),
+  LEFT("left", 13, Kind.STRING_LIST),
+  FEATURES("features", 14, Kind.STRING_LIST),
+  ERROR("error", 15, Kind.STRING),
+  RESUMED("resumed", 16, Kind.NUMBER);
+
+  /**
+   * The kinds of values a field can hold.
+   */
+  public enum Kind {
+    /**
+     * A text, absent if {@code null}.
+     */
+    STRING,
+
+    /**
+     * An integral number, absent if {@code 0}.
+     */
+    NUMBER,
+
+    /**
+     * A list of texts, absent if {@code null} or empty.
+     */
+    STRING_LIST
+  }
+
+  static final Field[] VALUES = values();
+
+  private final String wireName;
+  private final byte[] wireBytes;
+  private final int tag;
+  private final Kind kind;
+
+  Field(String wireName, int tag, Kind kind) {
+    this.wireName = wireName;
+    this.wireBytes = wireName.getBytes(UTF_8);
+    this.tag = tag;
+    this.kind = kind;
+  }
+
+  /**
+   * Get the key of the field in the JSON framing.
+   *
+   * @return the wire name, e.g. {@code nick}.
+   */
+  public String getWireName() {
+    return wireName;
+  }
+
+  byte[] getWireBytes() {
+    return wireBytes;
+  }
+
+  /**
+   * Get the number that identifies the field in the binary framing. Tags must never be reused.
+   *
+   * @return the tag.
+   */
+  int getTag() {
+    return tag;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * Find the field with the given tag.
+   *
+   * @param tag the tag of the binary framing.
+   * @return the matching field, or {@code null} if the tag is unknown.
+   */
+  static Field fromTag(int tag) {
+    for (Field field : VALUES) {
+      if (field.tag == tag) {
+        return field;
+      }
+    }
+    return null;
+  }
+}
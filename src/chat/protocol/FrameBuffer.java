@@ -0,0 +1,131 @@
+package chat.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer that frames are encoded into. A buffer is meant to be reused for many
+ * frames, e.g. one per connection or one per thread, so encoding does not allocate once the
+ * buffer has grown to the size of the largest frame.
+ */
+public final class FrameBuffer {
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private static final ThreadLocal<FrameBuffer> POOL = ThreadLocal.withInitial(FrameBuffer::new);
+
+  private byte[] bytes = new byte[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * Get the buffer that belongs to the calling thread. The buffer is reset before it is returned.
+   *
+   * @return the pooled buffer of the current thread.
+   */
+  public static FrameBuffer pooled() {
+    FrameBuffer buffer = POOL.get();
+    buffer.reset();
+    return buffer;
+  }
+
+  /**
+   * Discard the content of the buffer but keep its capacity.
+   */
+  public void reset() {
+    size = 0;
+  }
+
+  /**
+   * Append a single byte.
+   *
+   * @param value the byte to append.
+   */
+  public void write(int value) {
+    ensureCapacity(size + 1);
+    bytes[size++] = (byte) value;
+  }
+
+  /**
+   * Append a range of bytes.
+   *
+   * @param source the array holding the bytes.
+   * @param offset the index of the first byte to append.
+   * @param length the number of bytes to append.
+   */
+  public void write(byte[] source, int offset, int length) {
+    ensureCapacity(size + length);
+    System.arraycopy(source, offset, bytes, size, length);
+    size += length;
+  }
+
+  /**
+   * Insert a varint at the given position, moving everything behind it to the back. Used to put a
+   * length prefix in front of a frame whose length was unknown while it was encoded.
+   *
+   * @param position the index to insert at.
+   * @param value    the non-negative value to insert.
+   */
+  void insertVarint(int position, int value) {
+    int length = 1;
+    while ((value >>> (7 * length)) != 0) {
+      length++;
+    }
+    ensureCapacity(size + length);
+    System.arraycopy(bytes, position, bytes, position + length, size - position);
+    for (int index = 0; index < length - 1; index++) {
+      bytes[position + index] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    bytes[position + length - 1] = (byte) value;
+    size += length;
+  }
+
+  /**
+   * Set the number of valid bytes, either to drop bytes at the end or to take over bytes that
+   * were written straight into the {@link #array()}.
+   *
+   * @param size the new size, at most the current capacity.
+   */
+  void setSize(int size) {
+    this.size = size;
+  }
+
+  void ensureCapacity(int capacity) {
+    if (capacity > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+    }
+  }
+
+  /**
+   * Get the backing array. Only the first {@link #size()} bytes belong to the content.
+   *
+   * @return the backing array.
+   */
+  public byte[] array() {
+    return bytes;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Copy the content into a new array of exactly the right size.
+   *
+   * @return a copy of the content.
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(bytes, size);
+  }
+
+  /**
+   * Write the content to a stream.
+   *
+   * @param out the stream to write to.
+   * @throws IOException if writing fails.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(bytes, 0, size);
+  }
+}
@@ -0,0 +1,282 @@
+package chat.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+
+/**
+ * Splits a stream of bytes into frames without decoding them into strings. Depending on the
+ * negotiated {@link WireProtocol} a frame is either a line of JSON or a length-prefixed binary
+ * body. The bytes of the current frame stay in the internal buffer, such that a codec can parse
+ * them in place.
+ *
+ * <p>The protocol may be switched between two frames, which is how a connection moves from JSON
+ * to the binary framing once the login has been confirmed.
+ *
+ * <p>Compressed binary frames are only accepted once compression has been negotiated on the
+ * connection.
+ *
+ * <p>The decoder accepts frames up to a maximum length, both as received and once inflated. The
+ * buffer starts small, grows with the frames up to that length and shrinks back once a large
+ * frame has been consumed, so a peer that never ends its frame cannot make the decoder buffer
+ * more than the limit, and many idle connections only hold small buffers.
+ */
+public final class FrameDecoder {
+
+  /**
+   * The largest frame a decoder accepts unless configured otherwise.
+   */
+  public static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+
+  private static final int INITIAL_CAPACITY = 8192;
+  //a length prefix takes at most 5 bytes, a line terminator 2
+  private static final int FRAMING_OVERHEAD = 5;
+
+  private final int maxFrameLength;
+  private WireProtocol protocol = WireProtocol.JSON;
+  private boolean compression;
+  private byte[] buffer = new byte[INITIAL_CAPACITY];
+  private ByteBuffer window = ByteBuffer.wrap(buffer);
+  private int frameStart;
+  private int frameLength;
+  private int consumed;
+  private int scanned;
+  private int filled;
+  private Inflater inflater;
+  private FrameBuffer inflated;
+
+  /**
+   * Construct a decoder that accepts frames up to {@link #DEFAULT_MAX_FRAME_LENGTH}.
+   */
+  public FrameDecoder() {
+    this(DEFAULT_MAX_FRAME_LENGTH);
+  }
+
+  /**
+   * Construct a decoder.
+   *
+   * @param maxFrameLength the largest frame that is accepted, without its line terminator or
+   *                       length prefix.
+   */
+  public FrameDecoder(int maxFrameLength) {
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  public WireProtocol getProtocol() {
+    return protocol;
+  }
+
+  /**
+   * Set the framing of the frames that follow the current one.
+   *
+   * @param protocol the framing to use from now on.
+   */
+  public void setProtocol(WireProtocol protocol) {
+    this.protocol = protocol;
+  }
+
+  /**
+   * Set whether the peer may send compressed binary frames, i.e. whether compression has been
+   * negotiated on the connection.
+   *
+   * @param compression {@code true} to inflate compressed frames, {@code false} to reject them.
+   */
+  public void setCompression(boolean compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Find the next complete frame in the bytes that have been received so far. Never blocks.
+   *
+   * @return {@code true} if a frame is available, {@code false} if more bytes are needed.
+   * @throws ProtocolException if the length prefix of a binary frame is malformed.
+   * @throws FrameTooLargeException if the frame exceeds the maximum length.
+   */
+  public boolean next() throws ProtocolException {
+    //drop the previous frame including its terminator or length prefix
+    frameStart = consumed;
+    frameLength = 0;
+    if (scanned < consumed) {
+      scanned = consumed;
+    }
+    return protocol == WireProtocol.JSON ? nextLine() : nextLengthPrefixed();
+  }
+
+  private boolean nextLine() throws FrameTooLargeException {
+    for (; scanned < filled; scanned++) {
+      if (buffer[scanned] == '\n') {
+        frameLength = scanned - frameStart;
+        //tolerate clients that terminate their lines with "\r\n"
+        if (frameLength > 0 && buffer[scanned - 1] == '\r') {
+          frameLength--;
+        }
+        if (frameLength > maxFrameLength) {
+          throw new FrameTooLargeException(maxFrameLength);
+        }
+        consumed = ++scanned;
+        return true;
+      }
+    }
+    //the line may still be completed by a "\r\n"
+    if (filled - frameStart > maxFrameLength + 1) {
+      throw new FrameTooLargeException(maxFrameLength);
+    }
+    return false;
+  }
+
+  private boolean nextLengthPrefixed() throws ProtocolException {
+    int position = consumed;
+    int length = 0;
+    for (int shift = 0; ; shift += 7) {
+      if (position >= filled) {
+        return false;
+      }
+      if (shift > 28) {
+        throw new ProtocolException("Malformed binary frame: length prefix too long");
+      }
+      byte b = buffer[position++];
+      length |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        break;
+      }
+    }
+    if (length < 0) {
+      throw new ProtocolException("Malformed binary frame: negative length");
+    }
+    if (length > maxFrameLength) {
+      //refused before a single byte of the body is buffered
+      throw new FrameTooLargeException(maxFrameLength);
+    }
+    if (filled - position < length) {
+      //make sure the whole frame fits once it has been moved to the front
+      ensureCapacity(position - consumed + length);
+      return false;
+    }
+    frameStart = position;
+    frameLength = length;
+    consumed = position + length;
+    scanned = consumed;
+    return true;
+  }
+
+  /**
+   * Read the next frame from a blocking stream, waiting until it is complete.
+   *
+   * @param in the stream to read from.
+   * @return {@code false} if the stream has ended.
+   * @throws IOException if reading from the stream fails or a frame is malformed.
+   * @throws FrameTooLargeException if the frame exceeds the maximum length.
+   */
+  public boolean readFrame(InputStream in) throws IOException {
+    while (!next()) {
+      compact();
+      int read = in.read(buffer, filled, buffer.length - filled);
+      if (read < 0) {
+        return false;
+      }
+      filled += read;
+    }
+    return true;
+  }
+
+  /**
+   * Read whatever a non-blocking channel has available. Afterwards {@link #next()} hands out the
+   * frames that have been completed.
+   *
+   * @param channel the channel to read from.
+   * @return the number of bytes read, or {@code -1} if the channel has reached the end of stream.
+   * @throws IOException if reading from the channel fails.
+   */
+  public int read(ReadableByteChannel channel) throws IOException {
+    compact();
+    window.limit(buffer.length).position(filled);
+    int read = channel.read(window);
+    if (read > 0) {
+      filled += read;
+    }
+    return read;
+  }
+
+  /**
+   * Move the bytes of the incomplete frame to the front of the buffer, and grow the buffer if the
+   * frame does not fit. A buffer that has grown for a large frame shrinks back to its initial
+   * capacity as soon as the pending bytes fit into it.
+   */
+  private void compact() {
+    if (consumed > 0) {
+      int pending = filled - consumed;
+      if (buffer.length > INITIAL_CAPACITY && pending <= INITIAL_CAPACITY / 2) {
+        byte[] small = new byte[INITIAL_CAPACITY];
+        System.arraycopy(buffer, consumed, small, 0, pending);
+        buffer = small;
+        window = ByteBuffer.wrap(buffer);
+      } else {
+        System.arraycopy(buffer, consumed, buffer, 0, pending);
+      }
+      scanned -= consumed;
+      frameStart = 0;
+      frameLength = 0;
+      consumed = 0;
+      filled = pending;
+    }
+    if (filled == buffer.length) {
+      ensureCapacity(buffer.length * 2);
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > buffer.length) {
+      int limit = maxFrameLength + FRAMING_OVERHEAD;
+      buffer = Arrays.copyOf(buffer, Math.min(Math.max(capacity, buffer.length * 2), limit));
+      window = ByteBuffer.wrap(buffer);
+    }
+  }
+
+  /**
+   * Decode the current frame with the codec of the current protocol. Compressed binary frames are
+   * inflated into a buffer that is reused for the whole connection.
+   *
+   * @param message the message to fill.
+   * @throws ProtocolException if the frame is malformed, or compressed without compression having
+   *                           been negotiated.
+   */
+  public void decode(WireMessage message) throws ProtocolException {
+    if (protocol == WireProtocol.JSON) {
+      JsonCodec.decode(buffer, frameStart, frameLength, message);
+    } else if (BinaryCodec.isCompressed(buffer, frameStart, frameLength)) {
+      if (!compression) {
+        throw new ProtocolException("Malformed binary frame: compression not negotiated");
+      }
+      if (inflater == null) {
+        inflater = new Inflater(true);
+        inflated = new FrameBuffer();
+      }
+      inflated.reset();
+      BinaryCodec.inflate(buffer, frameStart, frameLength, maxFrameLength, inflater, inflated);
+      BinaryCodec.decode(inflated.array(), 0, inflated.size(), message);
+    } else {
+      BinaryCodec.decode(buffer, frameStart, frameLength, message);
+    }
+  }
+
+  /**
+   * Get the buffer that holds the current frame.
+   *
+   * @return the internal buffer.
+   */
+  public byte[] buffer() {
+    return buffer;
+  }
+
+  public int frameStart() {
+    return frameStart;
+  }
+
+  public int frameLength() {
+    return frameLength;
+  }
+}
@@ -0,0 +1,21 @@
+package chat.protocol;
+
+import java.net.ProtocolException;
+
+/**
+ * Signals that the peer has sent a frame larger than the decoder accepts. The connection cannot
+ * be read any further, because the rest of the frame would be taken for the next one.
+ */
+public class FrameTooLargeException extends ProtocolException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Construct an exception.
+   *
+   * @param maxFrameLength the largest frame the decoder accepts.
+   */
+  public FrameTooLargeException(int maxFrameLength) {
+    super("Frame exceeds the limit of " + maxFrameLength + " bytes");
+  }
+}
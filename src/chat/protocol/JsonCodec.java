@@ -0,0 +1,469 @@
+package chat.protocol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads and writes the messages of the chat protocol as single-line JSON objects. Unlike a general
+ * purpose JSON library it knows the small, fixed set of fields of the protocol: incoming frames
+ * are parsed straight from the received bytes into a reusable {@link WireMessage}, and outgoing
+ * frames are written as UTF-8 straight into a {@link FrameBuffer}.
+ *
+ * <p>Fields that are unknown to the codec are skipped, so newer peers may add fields without
+ * breaking older ones.
+ */
+public final class JsonCodec {
+
+  private static final byte[] TYPE_FIELD = "type".getBytes(UTF_8);
+
+  private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(UTF_8);
+
+  private JsonCodec() {
+  }
+
+  /**
+   * Encode a message as a JSON object terminated by a line feed.
+   *
+   * @param message the message to encode.
+   * @param out     the buffer to append the encoded frame to.
+   */
+  public static void encode(WireMessage message, FrameBuffer out) {
+    out.write('{');
+    writeKey(out, TYPE_FIELD, true);
+    writeString(out, message.getType().getWireName());
+    for (Field field : Field.VALUES) {
+      if (field.getKind() == Field.Kind.STRING && message.getString(field) != null) {
+        writeKey(out, field.getWireBytes(), false);
+        writeString(out, message.getString(field));
+      } else if (field.getKind() == Field.Kind.NUMBER && message.getNumber(field) != 0) {
+        writeKey(out, field.getWireBytes(), false);
+        writeLong(out, message.getNumber(field));
+      } else if (field.getKind() == Field.Kind.STRING_LIST && message.getList(field) != null
+          && !message.getList(field).isEmpty()) {
+        writeKey(out, field.getWireBytes(), false);
+        writeStringArray(out, message.getList(field));
+      }
+    }
+    out.write('}');
+    out.write('\n');
+  }
+
+  private static void writeStringArray(FrameBuffer out, List<String> values) {
+    out.write('[');
+    for (int index = 0; index < values.size(); index++) {
+      if (index > 0) {
+        out.write(',');
+      }
+      writeString(out, values.get(index));
+    }
+    out.write(']');
+  }
+
+  private static void writeKey(FrameBuffer out, byte[] key, boolean first) {
+    if (!first) {
+      out.write(',');
+    }
+    out.write('"');
+    out.write(key, 0, key.length);
+    out.write('"');
+    out.write(':');
+  }
+
+  private static void writeLong(FrameBuffer out, long value) {
+    //work on the negative magnitude, which also holds the one of Long.MIN_VALUE
+    if (value < 0) {
+      out.write('-');
+    } else {
+      value = -value;
+    }
+    long divisor = 1;
+    while (value / divisor <= -10) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      out.write('0' - (int) (value / divisor % 10));
+    }
+  }
+
+  /**
+   * Write a JSON string literal, encoding the characters as UTF-8 on the fly.
+   */
+  private static void writeString(FrameBuffer out, String value) {
+    out.write('"');
+    for (int index = 0; index < value.length(); index++) {
+      char c = value.charAt(index);
+      if (c == '"' || c == '\\') {
+        out.write('\\');
+        out.write(c);
+      } else if (c < 0x20) {
+        writeControlCharacter(out, c);
+      } else {
+        index = Utf8.writeChar(out, value, index) - 1;
+      }
+    }
+    out.write('"');
+  }
+
+  private static void writeControlCharacter(FrameBuffer out, char c) {
+    out.write('\\');
+    switch (c) {
+      case '\n' -> out.write('n');
+      case '\r' -> out.write('r');
+      case '\t' -> out.write('t');
+      case '\b' -> out.write('b');
+      case '\f' -> out.write('f');
+      default -> {
+        out.write('u');
+        out.write('0');
+        out.write('0');
+        out.write(HEX_DIGITS[c >> 4]);
+        out.write(HEX_DIGITS[c & 0xf]);
+      }
+    }
+  }
+
+  /**
+   * Decode a single JSON object into a message. The fields of the message are cleared first.
+   *
+   * @param buffer  the array holding the frame.
+   * @param offset  the index of the first byte of the frame.
+   * @param length  the number of bytes of the frame, without the line terminator.
+   * @param message the message to fill.
+   * @throws ProtocolException if the frame is not a well-formed JSON object, or if it has no
+   *                           type or one that is unknown.
+   */
+  public static void decode(byte[] buffer, int offset, int length, WireMessage message)
+      throws ProtocolException {
+    message.clear();
+    new Parser(buffer, offset, offset + length).parseObject(message);
+    if (message.getType() == null) {
+      throw new ProtocolException("Malformed JSON frame: missing or unknown type");
+    }
+  }
+
+  /**
+   * A cursor over the bytes of a single frame.
+   */
+  private static final class Parser {
+
+    private final byte[] buffer;
+    private final int end;
+    private int position;
+
+    Parser(byte[] buffer, int start, int end) {
+      this.buffer = buffer;
+      this.position = start;
+      this.end = end;
+    }
+
+    void parseObject(WireMessage message) throws ProtocolException {
+      expect('{');
+      if (peek() == '}') {
+        position++;
+        expectEnd();
+        return;
+      }
+      do {
+        skipWhitespace();
+        int keyStart = position + 1;
+        skipString();
+        int keyLength = position - 1 - keyStart;
+        expect(':');
+        skipWhitespace();
+        parseField(message, keyStart, keyLength);
+      } while (nextIsComma());
+      expect('}');
+      expectEnd();
+    }
+
+    private void parseField(WireMessage message, int keyStart, int keyLength)
+        throws ProtocolException {
+      if (keyEquals(TYPE_FIELD, keyStart, keyLength) && peek() == '"') {
+        int valueStart = position + 1;
+        if (skipString()) {
+          //escaped type names are unusual but legal
+          message.setType(MessageType.fromWireName(decodeString(valueStart, position - 1)));
+        } else {
+          message.setType(MessageType.fromWireBytes(buffer, valueStart,
+              position - 1 - valueStart));
+        }
+        return;
+      }
+      Field field = findField(keyStart, keyLength);
+      if (field == null || !matchesKind(field, peek())) {
+        //a value of the wrong kind is treated like an unknown field
+        skipValue();
+      } else if (field.getKind() == Field.Kind.STRING) {
+        message.setString(field, parseNullableString());
+      } else if (field.getKind() == Field.Kind.STRING_LIST) {
+        message.setList(field, parseStringArray());
+      } else {
+        message.setNumber(field, parseLong());
+      }
+    }
+
+    private static boolean matchesKind(Field field, byte valueStart) {
+      return switch (field.getKind()) {
+        case STRING -> valueStart == '"' || valueStart == 'n';
+        case STRING_LIST -> valueStart == '[';
+        case NUMBER -> isNumberStart(valueStart);
+      };
+    }
+
+    private Field findField(int keyStart, int keyLength) {
+      for (Field field : Field.VALUES) {
+        if (keyEquals(field.getWireBytes(), keyStart, keyLength)) {
+          return field;
+        }
+      }
+      return null;
+    }
+
+    private boolean keyEquals(byte[] key, int keyStart, int keyLength) {
+      return Arrays.equals(key, 0, key.length, buffer, keyStart, keyStart + keyLength);
+    }
+
+    private String parseNullableString() throws ProtocolException {
+      if (peek() == 'n') {
+        skipLiteral("null");
+        return null;
+      }
+      int start = position + 1;
+      if (skipString()) {
+        return decodeString(start, position - 1);
+      }
+      return new String(buffer, start, position - 1 - start, UTF_8);
+    }
+
+    /**
+     * Parse an array of strings. Unlike a single string, the elements must not be {@code null}.
+     */
+    private List<String> parseStringArray() throws ProtocolException {
+      expect('[');
+      List<String> values = new ArrayList<>();
+      if (peek() == ']') {
+        position++;
+        return values;
+      }
+      do {
+        if (peek() != '"') {
+          throw error("expected a string in the array");
+        }
+        values.add(parseNullableString());
+      } while (nextIsComma());
+      expect(']');
+      return values;
+    }
+
+    /**
+     * Skip a string literal, leaving the position after its closing quote.
+     *
+     * @return {@code true} if the literal contains escape sequences.
+     */
+    private boolean skipString() throws ProtocolException {
+      expect('"');
+      boolean escaped = false;
+      while (position < end) {
+        byte b = buffer[position++];
+        if (b == '"') {
+          return escaped;
+        }
+        if (b == '\\') {
+          escaped = true;
+          position++;
+        }
+      }
+      throw error("unterminated string");
+    }
+
+    /**
+     * Decode a string literal with escape sequences. The runs of bytes between the escapes are
+     * decoded as UTF-8 in one go.
+     */
+    private String decodeString(int start, int stop) throws ProtocolException {
+      StringBuilder builder = new StringBuilder(stop - start);
+      int runStart = start;
+      int index = start;
+      while (index < stop) {
+        if (buffer[index] != '\\') {
+          index++;
+          continue;
+        }
+        builder.append(new String(buffer, runStart, index - runStart, UTF_8));
+        byte escape = buffer[index + 1];
+        index += 2;
+        switch (escape) {
+          case '"', '\\', '/' -> builder.append((char) escape);
+          case 'n' -> builder.append('\n');
+          case 'r' -> builder.append('\r');
+          case 't' -> builder.append('\t');
+          case 'b' -> builder.append('\b');
+          case 'f' -> builder.append('\f');
+          case 'u' -> {
+            if (index + 4 > stop) {
+              throw error("truncated unicode escape");
+            }
+            builder.append((char) parseHex(index));
+            index += 4;
+          }
+          default -> throw error("invalid escape sequence");
+        }
+        runStart = index;
+      }
+      builder.append(new String(buffer, runStart, stop - runStart, UTF_8));
+      return builder.toString();
+    }
+
+    private int parseHex(int start) throws ProtocolException {
+      int value = 0;
+      for (int index = start; index < start + 4; index++) {
+        int digit = Character.digit(buffer[index], 16);
+        if (digit < 0) {
+          throw error("invalid unicode escape");
+        }
+        value = value * 16 + digit;
+      }
+      return value;
+    }
+
+    private long parseLong() throws ProtocolException {
+      boolean negative = buffer[position] == '-';
+      if (negative) {
+        position++;
+      }
+      //accumulate negatively, which also holds the magnitude of Long.MIN_VALUE
+      long value = 0;
+      int digits = 0;
+      while (position < end && buffer[position] >= '0' && buffer[position] <= '9') {
+        int digit = buffer[position++] - '0';
+        if (value < Long.MIN_VALUE / 10 || value * 10 < Long.MIN_VALUE + digit) {
+          throw error("number out of range");
+        }
+        value = value * 10 - digit;
+        digits++;
+      }
+      if (digits == 0) {
+        throw error("invalid number");
+      }
+      if (!negative && value == Long.MIN_VALUE) {
+        throw error("number out of range");
+      }
+      //tolerate fractions and exponents, but only keep the integral part
+      skipNumberRest();
+      return negative ? value : -value;
+    }
+
+    private void skipNumberRest() {
+      while (position < end && isNumberPart(buffer[position])) {
+        position++;
+      }
+    }
+
+    private void skipValue() throws ProtocolException {
+      byte b = peek();
+      switch (b) {
+        case '"' -> skipString();
+        case '{', '[' -> skipNested();
+        case 't' -> skipLiteral("true");
+        case 'f' -> skipLiteral("false");
+        case 'n' -> skipLiteral("null");
+        default -> {
+          if (!isNumberStart(b)) {
+            throw error("unexpected character");
+          }
+          position++;
+          skipNumberRest();
+        }
+      }
+    }
+
+    /**
+     * Skip an object or array including everything nested in it.
+     */
+    private void skipNested() throws ProtocolException {
+      int depth = 0;
+      do {
+        byte b = buffer[position];
+        if (b == '"') {
+          skipString();
+          continue;
+        }
+        if (b == '{' || b == '[') {
+          depth++;
+        } else if (b == '}' || b == ']') {
+          depth--;
+        }
+        position++;
+      } while (depth > 0 && position < end);
+      if (depth > 0) {
+        throw error("unterminated object or array");
+      }
+    }
+
+    private void skipLiteral(String literal) throws ProtocolException {
+      for (int index = 0; index < literal.length(); index++) {
+        if (position >= end || buffer[position++] != literal.charAt(index)) {
+          throw error("invalid literal");
+        }
+      }
+    }
+
+    private boolean nextIsComma() throws ProtocolException {
+      skipWhitespace();
+      if (peek() == ',') {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char c) throws ProtocolException {
+      skipWhitespace();
+      if (position >= end || buffer[position] != c) {
+        throw error("expected '" + c + "'");
+      }
+      position++;
+    }
+
+    private void expectEnd() throws ProtocolException {
+      skipWhitespace();
+      if (position != end) {
+        throw error("trailing characters");
+      }
+    }
+
+    private byte peek() throws ProtocolException {
+      skipWhitespace();
+      if (position >= end) {
+        throw error("unexpected end of frame");
+      }
+      return buffer[position];
+    }
+
+    private void skipWhitespace() {
+      while (position < end) {
+        byte b = buffer[position];
+        if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+          return;
+        }
+        position++;
+      }
+    }
+
+    private static boolean isNumberStart(byte b) {
+      return b == '-' || (b >= '0' && b <= '9');
+    }
+
+    private static boolean isNumberPart(byte b) {
+      return (b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-';
+    }
+
+    private ProtocolException error(String reason) {
+      return new ProtocolException("Malformed JSON frame: " + reason + " at byte " + position);
+    }
+  }
+}
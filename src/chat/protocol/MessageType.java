@@ -0,0 +1,100 @@
+package chat.protocol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+
+/**
+ * The types of messages that are exchanged between the chat clients and the server. The name of a
+ * type is the value of the {@code type} field of a message in the JSON framing, the code is the
+ * type byte of the binary framing.
+ */
+public enum MessageType {
+
+  LOGIN("login", 1), LOGIN_SUCCESS("login success", 2), LOGIN_FAILED("login failed", 3),
+  POST_MESSAGE("post message", 4), MESSAGE("message", 5), USER_JOINED("user joined", 6),
+  USER_LEFT("user left", 7), CLOSE_CLIENT_SOCKET("close client socket", 8),
+  JOIN_ROOM("join room", 9), LEAVE_ROOM("leave room", 10), POST_TO_ROOM("post to room", 11),
+  DIRECT_MESSAGE("direct message", 12), DELIVERY_STATUS("delivery status", 13),
+  HISTORY_REQUEST("history request", 14), HISTORY_END("history end", 15), ACK("ack", 16),
+  ROSTER("roster", 17), ROSTER_DELTA("roster delta", 18), PING("ping", 19), PONG("pong", 20),
+  SERVER_SHUTDOWN("server shutdown", 21), ERROR("error", 22);
+
+  private static final MessageType[] VALUES = values();
+
+  private final String wireName;
+  private final byte[] wireBytes;
+  private final int code;
+
+  MessageType(String wireName, int code) {
+    this.wireName = wireName;
+    this.wireBytes = wireName.getBytes(UTF_8);
+    this.code = code;
+  }
+
+  /**
+   * Get the type byte of the binary framing. Codes must never be reused.
+   *
+   * @return the code.
+   */
+  int getCode() {
+    return code;
+  }
+
+  /**
+   * Find the type with the given code.
+   *
+   * @param code the type byte of the binary framing.
+   * @return the matching type, or {@code null} if the code is unknown.
+   */
+  static MessageType fromCode(int code) {
+    for (MessageType type : VALUES) {
+      if (type.code == code) {
+        return type;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get the name of the type as it appears on the wire.
+   *
+   * @return the wire name, e.g. {@code post message}.
+   */
+  public String getWireName() {
+    return wireName;
+  }
+
+  /**
+   * Find the type whose wire name equals the given UTF-8 encoded bytes, without creating a string.
+   *
+   * @param buffer the bytes that hold the name.
+   * @param offset the index of the first byte of the name.
+   * @param length the number of bytes of the name.
+   * @return the matching type, or {@code null} if the name is unknown.
+   */
+  static MessageType fromWireBytes(byte[] buffer, int offset, int length) {
+    for (MessageType type : VALUES) {
+      if (Arrays.equals(type.wireBytes, 0, type.wireBytes.length,
+          buffer, offset, offset + length)) {
+        return type;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Find the type with the given wire name.
+   *
+   * @param wireName the name as it appears on the wire.
+   * @return the matching type, or {@code null} if the name is unknown.
+   */
+  public static MessageType fromWireName(String wireName) {
+    for (MessageType type : VALUES) {
+      if (type.wireName.equals(wireName)) {
+        return type;
+      }
+    }
+    return null;
+  }
+}
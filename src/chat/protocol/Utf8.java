@@ -0,0 +1,86 @@
+package chat.protocol;
+
+/**
+ * Encodes strings as UTF-8 straight into a {@link FrameBuffer}, without the intermediate byte
+ * array that {@link String#getBytes} would create.
+ */
+final class Utf8 {
+
+  private Utf8() {
+  }
+
+  /**
+   * Write the character at the given index, together with its low surrogate if it is the high
+   * surrogate of a pair.
+   *
+   * @param out   the buffer to write to.
+   * @param value the string holding the character.
+   * @param index the index of the character.
+   * @return the index of the next character to write.
+   */
+  static int writeChar(FrameBuffer out, String value, int index) {
+    char c = value.charAt(index);
+    if (c < 0x80) {
+      out.write(c);
+    } else if (c < 0x800) {
+      out.write(0xc0 | (c >> 6));
+      out.write(0x80 | (c & 0x3f));
+    } else if (Character.isHighSurrogate(c) && index + 1 < value.length()
+        && Character.isLowSurrogate(value.charAt(index + 1))) {
+      int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+      out.write(0xf0 | (codePoint >> 18));
+      out.write(0x80 | ((codePoint >> 12) & 0x3f));
+      out.write(0x80 | ((codePoint >> 6) & 0x3f));
+      out.write(0x80 | (codePoint & 0x3f));
+      return index + 2;
+    } else if (Character.isSurrogate(c)) {
+      //a lone surrogate cannot be encoded, replace it like String.getBytes does
+      out.write('?');
+    } else {
+      out.write(0xe0 | (c >> 12));
+      out.write(0x80 | ((c >> 6) & 0x3f));
+      out.write(0x80 | (c & 0x3f));
+    }
+    return index + 1;
+  }
+
+  /**
+   * Write a whole string.
+   *
+   * @param out   the buffer to write to.
+   * @param value the string to write.
+   */
+  static void write(FrameBuffer out, String value) {
+    int index = 0;
+    while (index < value.length()) {
+      index = writeChar(out, value, index);
+    }
+  }
+
+  /**
+   * Compute how many bytes the UTF-8 encoding of a string takes.
+   *
+   * @param value the string.
+   * @return the encoded length in bytes.
+   */
+  static int encodedLength(String value) {
+    int length = 0;
+    for (int index = 0; index < value.length(); index++) {
+      char c = value.charAt(index);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && index + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(index + 1))) {
+        length += 4;
+        index++;
+      } else if (Character.isSurrogate(c)) {
+        length++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+}
@@ -0,0 +1,349 @@
+package chat.protocol;
+
+import java.util.List;
+
+/**
+ * A single message of the chat protocol. The object is mutable on purpose: a connection decodes
+ * every incoming frame into the same instance, so reading a message does not allocate anything
+ * besides the strings of its fields.
+ */
+public final class WireMessage {
+
+  /**
+   * The name of the feature in the {@code features} field of a login, with which a client asks
+   * for roster snapshots and deltas instead of single {@code user joined} and {@code user left}
+   * messages for the main chat.
+   */
+  public static final String ROSTER_FEATURE = "roster";
+
+  /**
+   * The name of the feature in the {@code features} field of a login, with which a client
+   * announces that it answers a {@code ping} with a {@code pong}. Only such clients are
+   * disconnected by the server when they stay silent.
+   */
+  public static final String PING_FEATURE = "ping";
+
+  private MessageType type;
+  private final String[] strings = new String[Field.VALUES.length];
+  private final long[] numbers = new long[Field.VALUES.length];
+  @SuppressWarnings("unchecked")
+  private final List<String>[] lists = (List<String>[]) new List<?>[Field.VALUES.length];
+
+  /**
+   * Construct an empty message.
+   */
+  public WireMessage() {
+  }
+
+  /**
+   * Construct a message of the given type without any further fields.
+   *
+   * @param type the type of the message.
+   */
+  public WireMessage(MessageType type) {
+    this.type = type;
+  }
+
+  /**
+   * Reset all fields, such that the instance can be reused for the next message.
+   */
+  public void clear() {
+    type = null;
+    for (int index = 0; index < strings.length; index++) {
+      strings[index] = null;
+      numbers[index] = 0;
+      lists[index] = null;
+    }
+  }
+
+  /**
+   * Create an independent copy of the message, which stays unchanged when this instance is reused.
+   *
+   * @return a new message with the same type and fields.
+   */
+  public WireMessage copy() {
+    WireMessage copy = new WireMessage(type);
+    System.arraycopy(strings, 0, copy.strings, 0, strings.length);
+    System.arraycopy(numbers, 0, copy.numbers, 0, numbers.length);
+    System.arraycopy(lists, 0, copy.lists, 0, lists.length);
+    return copy;
+  }
+
+  /**
+   * Get the type of the message.
+   *
+   * @return the type, or {@code null} if the type on the wire was unknown.
+   */
+  public MessageType getType() {
+    return type;
+  }
+
+  public WireMessage setType(MessageType type) {
+    this.type = type;
+    return this;
+  }
+
+  /**
+   * Get the value of a text field.
+   *
+   * @param field a field of kind {@link Field.Kind#STRING}.
+   * @return the value, or {@code null} if the field is absent.
+   */
+  public String getString(Field field) {
+    return strings[field.ordinal()];
+  }
+
+  public WireMessage setString(Field field, String value) {
+    strings[field.ordinal()] = value;
+    return this;
+  }
+
+  /**
+   * Get the value of a list field. The list is shared with the message, it must not be modified.
+   *
+   * @param field a field of kind {@link Field.Kind#STRING_LIST}.
+   * @return the texts, or {@code null} if the field is absent.
+   */
+  public List<String> getList(Field field) {
+    return lists[field.ordinal()];
+  }
+
+  public WireMessage setList(Field field, List<String> values) {
+    lists[field.ordinal()] = values;
+    return this;
+  }
+
+  /**
+   * Get the value of a numeric field.
+   *
+   * @param field a field of kind {@link Field.Kind#NUMBER}.
+   * @return the value, or {@code 0} if the field is absent.
+   */
+  public long getNumber(Field field) {
+    return numbers[field.ordinal()];
+  }
+
+  public WireMessage setNumber(Field field, long value) {
+    numbers[field.ordinal()] = value;
+    return this;
+  }
+
+  /**
+   * Get the value of the {@code nick} field.
+   *
+   * @return the nickname, or {@code null} if the field is absent.
+   */
+  public String getNickname() {
+    return getString(Field.NICK);
+  }
+
+  public WireMessage setNickname(String nickname) {
+    return setString(Field.NICK, nickname);
+  }
+
+  /**
+   * Get the value of the {@code content} field.
+   *
+   * @return the text of a chat message, or {@code null} if the field is absent.
+   */
+  public String getContent() {
+    return getString(Field.CONTENT);
+  }
+
+  public WireMessage setContent(String content) {
+    return setString(Field.CONTENT, content);
+  }
+
+  /**
+   * Get the value of the {@code room} field.
+   *
+   * @return the name of the room a message belongs to, or {@code null} for the main chat.
+   */
+  public String getRoom() {
+    return getString(Field.ROOM);
+  }
+
+  public WireMessage setRoom(String room) {
+    return setString(Field.ROOM, room);
+  }
+
+  /**
+   * Get the value of the {@code to} field.
+   *
+   * @return the nickname of the recipient of a direct message, or {@code null} if the field is
+   *         absent.
+   */
+  public String getTo() {
+    return getString(Field.TO);
+  }
+
+  public WireMessage setTo(String to) {
+    return setString(Field.TO, to);
+  }
+
+  /**
+   * Get the outcome that a delivery status reports.
+   *
+   * @return the status, or {@code null} if the field is absent or unknown.
+   */
+  public DeliveryStatus getStatus() {
+    String status = getString(Field.STATUS);
+    return status == null ? null : DeliveryStatus.fromWireName(status);
+  }
+
+  public WireMessage setStatus(DeliveryStatus status) {
+    return setString(Field.STATUS, status == null ? null : status.getWireName());
+  }
+
+  /**
+   * Get the reason that an error message reports.
+   *
+   * @return the error code, or {@code null} if the field is absent or unknown.
+   */
+  public ErrorCode getError() {
+    String error = getString(Field.ERROR);
+    return error == null ? null : ErrorCode.fromWireName(error);
+  }
+
+  public WireMessage setError(ErrorCode error) {
+    return setString(Field.ERROR, error == null ? null : error.getWireName());
+  }
+
+  /**
+   * Get the value of the {@code time} field.
+   *
+   * @return the time in milliseconds since the epoch, or {@code 0} if the field is absent.
+   */
+  public long getTime() {
+    return getNumber(Field.TIME);
+  }
+
+  public WireMessage setTime(long time) {
+    return setNumber(Field.TIME, time);
+  }
+
+  /**
+   * Get the sequence number of a chat message within its room. A history request asks for the
+   * messages before this number.
+   *
+   * @return the sequence number, or {@code 0} if the field is absent.
+   */
+  public long getSequence() {
+    return getNumber(Field.SEQUENCE);
+  }
+
+  public WireMessage setSequence(long sequence) {
+    return setNumber(Field.SEQUENCE, sequence);
+  }
+
+  /**
+   * Get the largest number of messages a history request asks for.
+   *
+   * @return the limit, or {@code 0} if the field is absent.
+   */
+  public int getLimit() {
+    return (int) getNumber(Field.LIMIT);
+  }
+
+  public WireMessage setLimit(int limit) {
+    return setNumber(Field.LIMIT, limit);
+  }
+
+  /**
+   * Get the token that a login success hands out, and that a login presents to resume the
+   * session after the connection has been lost.
+   *
+   * @return the session token, or {@code null} if the field is absent.
+   */
+  public String getSession() {
+    return getString(Field.SESSION);
+  }
+
+  public WireMessage setSession(String session) {
+    return setString(Field.SESSION, session);
+  }
+
+  /**
+   * Check whether a login success has resumed the session that the login asked for. A login that
+   * could not be resumed starts a fresh session, e.g. on a restarted server whose sequence numbers
+   * start over.
+   *
+   * @return {@code true} if the field is present.
+   */
+  public boolean isResumed() {
+    return getNumber(Field.RESUMED) != 0;
+  }
+
+  public WireMessage setResumed(boolean resumed) {
+    return setNumber(Field.RESUMED, resumed ? 1 : 0);
+  }
+
+  /**
+   * Get the nicknames of a roster snapshot, or the ones that have come online in a roster delta.
+   *
+   * @return the nicknames, or {@code null} if the field is absent.
+   */
+  public List<String> getUsers() {
+    return getList(Field.USERS);
+  }
+
+  public WireMessage setUsers(List<String> users) {
+    return setList(Field.USERS, users);
+  }
+
+  /**
+   * Get the nicknames that have gone offline in a roster delta.
+   *
+   * @return the nicknames, or {@code null} if the field is absent.
+   */
+  public List<String> getLeft() {
+    return getList(Field.LEFT);
+  }
+
+  public WireMessage setLeft(List<String> left) {
+    return setList(Field.LEFT, left);
+  }
+
+  /**
+   * Check whether a login announces an optional feature of the protocol.
+   *
+   * @param feature the name of the feature, e.g. {@link #ROSTER_FEATURE}.
+   * @return {@code true} if the {@code features} field contains the name.
+   */
+  public boolean hasFeature(String feature) {
+    List<String> features = getList(Field.FEATURES);
+    return features != null && features.contains(feature);
+  }
+
+  public WireMessage setFeatures(List<String> features) {
+    return setList(Field.FEATURES, features);
+  }
+
+  /**
+   * Get the framing that a login asks for, or that a login success confirms.
+   *
+   * @return the protocol, or {@code null} if the field is absent or unknown.
+   */
+  public WireProtocol getProtocol() {
+    String protocol = getString(Field.PROTOCOL);
+    return protocol == null ? null : WireProtocol.fromWireName(protocol);
+  }
+
+  public WireMessage setProtocol(WireProtocol protocol) {
+    return setString(Field.PROTOCOL, protocol == null ? null : protocol.getWireName());
+  }
+
+  /**
+   * Get the compression that a login asks for, or that a login success confirms.
+   *
+   * @return the name of the compression, e.g. {@link BinaryCodec#DEFLATE}, or {@code null} if the
+   *         field is absent.
+   */
+  public String getCompression() {
+    return getString(Field.COMPRESSION);
+  }
+
+  public WireMessage setCompression(String compression) {
+    return setString(Field.COMPRESSION, compression);
+  }
+}
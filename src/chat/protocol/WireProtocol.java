@@ -0,0 +1,50 @@
+package chat.protocol;
+
+/**
+ * The framings in which messages can travel over a connection. Every connection starts with
+ * {@link #JSON}; a client may ask for {@link #BINARY} in its login message, and both sides switch
+ * right after the server has confirmed the login.
+ */
+public enum WireProtocol {
+
+  /**
+   * One JSON object per line. Understood by every client.
+   */
+  JSON("json"),
+
+  /**
+   * A varint length prefix followed by a type byte and varint-tagged fields, see
+   * {@link BinaryCodec}.
+   */
+  BINARY("binary");
+
+  private final String wireName;
+
+  WireProtocol(String wireName) {
+    this.wireName = wireName;
+  }
+
+  /**
+   * Get the name of the protocol as it appears in the {@code protocol} field of a login.
+   *
+   * @return the wire name.
+   */
+  public String getWireName() {
+    return wireName;
+  }
+
+  /**
+   * Find the protocol with the given wire name.
+   *
+   * @param wireName the name as it appears on the wire.
+   * @return the matching protocol, or {@code null} if the name is unknown.
+   */
+  public static WireProtocol fromWireName(String wireName) {
+    for (WireProtocol protocol : values()) {
+      if (protocol.wireName.equals(wireName)) {
+        return protocol;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,248 @@
+package chat.server;
+
+import chat.protocol.FrameDecoder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A session that is served by the {@link SelectorLoop}. Incoming bytes are split into frames on the
+ * event-loop thread, queued frames are written whenever the channel is ready for writing. All
+ * frames that are waiting at that point are handed to the channel with one gathering write.
+ */
+class ChannelSession extends Session {
+
+  private final SocketChannel channel;
+  private final SelectorLoop loop;
+  private final AtomicBoolean writeRequested = new AtomicBoolean();
+  private final CountDownLatch flushed = new CountDownLatch(1);
+  private final QueuedFrame[] batch;
+  private final ByteBuffer[] batchBuffers;
+  private final int batchBytes;
+  private int batchStart;
+  private int batchEnd;
+  private boolean writeDelayed;
+  private long writeDeadline;
+  private SelectionKey key;
+  private boolean endOfStream;
+
+  /**
+   * Construct a session for a non-blocking channel.
+   *
+   * @param id      the unique number of the connection.
+   * @param channel the accepted client channel.
+   * @param loop    the event loop the channel is registered with.
+   * @param config  the server configuration.
+   */
+  ChannelSession(int id, SocketChannel channel, SelectorLoop loop, ServerConfig config) {
+    super(id, config);
+    this.channel = channel;
+    this.loop = loop;
+    batch = new QueuedFrame[config.getWriteBatchFrames()];
+    batchBuffers = new ByteBuffer[batch.length];
+    batchBytes = config.getWriteBatchBytes();
+  }
+
+  SocketChannel getChannel() {
+    return channel;
+  }
+
+  SelectionKey getKey() {
+    return key;
+  }
+
+  void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  /**
+   * Read whatever is available on the channel and hand every complete frame to the handler,
+   * straight out of the buffer of the frame decoder. Bytes of a frame that is not complete yet are
+   * kept until the next read.
+   *
+   * @param handler the handler for the complete frames.
+   * @throws IOException if reading from the channel or handling a frame fails.
+   */
+  void readFrames(FrameHandler handler) throws IOException {
+    FrameDecoder decoder = getDecoder();
+    int read;
+    while ((read = decoder.read(channel)) > 0) {
+      while (decoder.next()) {
+        handler.handleFrame();
+        if (!channel.isOpen()) {
+          return;
+        }
+      }
+    }
+    if (read < 0) {
+      endOfStream = true;
+    }
+  }
+
+  /**
+   * Check whether the client has closed its end of the connection.
+   *
+   * @return {@code true} if the last read reached the end of the stream.
+   */
+  boolean isEndOfStream() {
+    return endOfStream;
+  }
+
+  @Override
+  void framesQueued() {
+    loop.requestWrite(this);
+  }
+
+  /**
+   * Mark that the event loop has been asked to write the queued frames of this session, such that
+   * a broadcast burst wakes up the loop only once.
+   *
+   * @return {@code true} if no write request was pending before.
+   */
+  boolean markWriteRequested() {
+    return writeRequested.compareAndSet(false, true);
+  }
+
+  void clearWriteRequested() {
+    writeRequested.set(false);
+  }
+
+  /**
+   * Write as many queued frames as the channel accepts without blocking. The frames are taken from
+   * the outbound queue in batches and every batch is written with a gathering write, so a burst
+   * of small frames costs one system call instead of one per frame.
+   *
+   * @return {@code true} if all queued frames have been written.
+   * @throws IOException if writing to the channel fails.
+   */
+  boolean flush() throws IOException {
+    while (true) {
+      if (batchStart == batchEnd && !nextBatch()) {
+        if (getOutbound().isClosed()) {
+          //the output has been shut down and nothing can follow anymore
+          flushed.countDown();
+        }
+        return true;
+      }
+      ChatEvents.FrameWrite event = new ChatEvents.FrameWrite();
+      event.begin();
+      long bytes;
+      try {
+        bytes = channel.write(batchBuffers, batchStart, batchEnd - batchStart);
+      } catch (IOException e) {
+        releaseBatch();
+        throw e;
+      }
+      int written = batchStart;
+      while (batchStart < batchEnd && !batchBuffers[batchStart].hasRemaining()) {
+        batchBuffers[batchStart++] = null;
+      }
+      if (event.shouldCommit()) {
+        event.nickname = getNickname();
+        event.frames = batchStart - written;
+        event.bytes = bytes;
+        event.commit();
+      }
+      if (batchStart > written) {
+        framesWritten(batch, written, batchStart);
+        Arrays.fill(batch, written, batchStart, null);
+      }
+      if (batchStart < batchEnd) {
+        return false;
+      }
+    }
+  }
+
+  private boolean nextBatch() {
+    int count = getOutbound().pollBatch(batch, batchBytes);
+    for (int index = 0; index < count; index++) {
+      batchBuffers[index] = batch[index].buffer();
+    }
+    batchStart = 0;
+    batchEnd = count;
+    return count > 0;
+  }
+
+  /**
+   * Give up the frames that have been taken from the queue but not written yet, such that their
+   * deliveries complete. Only used by the event-loop thread, once nothing is written anymore.
+   */
+  void releaseBatch() {
+    for (int index = batchStart; index < batchEnd; index++) {
+      batch[index].dropped();
+      batch[index] = null;
+      batchBuffers[index] = null;
+    }
+    batchStart = 0;
+    batchEnd = 0;
+  }
+
+  boolean hasPendingWrites() {
+    return batchStart < batchEnd || !getOutbound().isEmpty();
+  }
+
+  /**
+   * Check whether the event loop holds back the queued frames for a moment, waiting for the batch
+   * to fill up. Only used by the event-loop thread.
+   *
+   * @return {@code true} while the write is delayed.
+   */
+  boolean isWriteDelayed() {
+    return writeDelayed;
+  }
+
+  long getWriteDeadline() {
+    return writeDeadline;
+  }
+
+  /**
+   * Hold back the queued frames until the given time.
+   *
+   * @param deadline the {@link System#nanoTime()} at which the frames are written at the latest.
+   */
+  void delayWrite(long deadline) {
+    writeDelayed = true;
+    writeDeadline = deadline;
+  }
+
+  void clearWriteDelay() {
+    writeDelayed = false;
+  }
+
+  /**
+   * Receives the frames that were read from a channel.
+   */
+  interface FrameHandler {
+
+    /**
+     * Handle the current frame of the decoder of the session. The bytes are only valid during the
+     * call.
+     *
+     * @throws IOException if the frame cannot be handled.
+     */
+    void handleFrame() throws IOException;
+  }
+
+  @Override
+  boolean awaitFlushed(long timeoutNanos) throws InterruptedException {
+    return flushed.await(timeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  void close() throws IOException {
+    getOutbound().close();
+    //nothing is written anymore, so a shutdown need not wait for this session
+    flushed.countDown();
+    if (key != null) {
+      key.cancel();
+    }
+    channel.close();
+    //the event loop owns the current batch, it releases the batch once it sees the cancelled key
+    loop.requestWrite(this);
+  }
+}
@@ -0,0 +1,138 @@
+package chat.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The Flight Recorder events of the server. They cost next to nothing while no recording is
+ * running: an event is only a small object that escape analysis removes, and its fields are only
+ * filled in once {@link Event#shouldCommit()} has confirmed that the event is recorded.
+ *
+ * <p>The events can be recorded with {@code -XX:StartFlightRecording} or {@code jcmd JFR.start}
+ * and show up in Mission Control under the category {@code Chat Server}. The frequent ones only
+ * record operations that take longer than their threshold by default.
+ */
+final class ChatEvents {
+
+  private static final String CATEGORY = "Chat Server";
+
+  private ChatEvents() {
+  }
+
+  /**
+   * The decoding of a frame that has been received from a client.
+   */
+  @Name("chat.FrameParse")
+  @Label("Frame Parse")
+  @Category(CATEGORY)
+  @Description("Decoding of a frame received from a client")
+  @Threshold("1 ms")
+  @StackTrace(false)
+  static final class FrameParse extends Event {
+
+    @Label("Nickname")
+    String nickname;
+
+    @Label("Frame Type")
+    String frameType;
+
+    @Label("Size")
+    @DataAmount
+    int bytes;
+  }
+
+  /**
+   * The handling of a login, up to the point at which the backfill has been queued.
+   */
+  @Name("chat.Login")
+  @Label("Login")
+  @Category(CATEGORY)
+  @Description("Handling of a login request")
+  @StackTrace(false)
+  static final class Login extends Event {
+
+    @Label("Nickname")
+    String nickname;
+
+    @Label("Succeeded")
+    boolean succeeded;
+  }
+
+  /**
+   * Queuing a chat message for all the recipients of a broadcast.
+   */
+  @Name("chat.Broadcast")
+  @Label("Broadcast Fan-out")
+  @Category(CATEGORY)
+  @Description("Queuing a chat message for all its recipients")
+  @StackTrace(false)
+  static final class Broadcast extends Event {
+
+    @Label("Sender")
+    String nickname;
+
+    @Label("Frame Type")
+    String frameType;
+
+    @Label("Recipients")
+    int recipients;
+
+    @Label("Encoded Size")
+    @Description("Size of the encodings of the message that the recipients share")
+    @DataAmount
+    int bytes;
+  }
+
+  /**
+   * A single write of queued frames to the connection of one client.
+   */
+  @Name("chat.FrameWrite")
+  @Label("Frame Write")
+  @Category(CATEGORY)
+  @Description("Writing a batch of queued frames to one client")
+  @Threshold("1 ms")
+  @StackTrace(false)
+  static final class FrameWrite extends Event {
+
+    @Label("Recipient")
+    String nickname;
+
+    @Label("Frames")
+    int frames;
+
+    @Label("Written")
+    @DataAmount
+    long bytes;
+  }
+
+  /**
+   * The removal of a client from the server and the closing of its connection.
+   */
+  @Name("chat.SessionClose")
+  @Label("Session Close")
+  @Category(CATEGORY)
+  @Description("Disconnecting a client")
+  @StackTrace(false)
+  static final class SessionClose extends Event {
+
+    @Label("Nickname")
+    String nickname;
+
+    @Label("Forced")
+    @Description("Disconnected by the slow-consumer policy")
+    boolean forced;
+
+    @Label("Logged Off")
+    boolean loggedOff;
+
+    @Label("Written")
+    @DataAmount
+    long bytes;
+  }
+}
@@ -10,13 +10,21 @@ public class ChatServer {
 
   /**
    * Launch the chat server.
+   *
+   * @param args command-line arguments of the form {@code --name=value}, see
+   *             {@link ServerConfig#fromArgs(String[])}. For example,
+   *             {@code --mode=platform|virtual|selector} chooses how the connected clients are
+   *             served and {@code --slow-consumer=drop-oldest|coalesce-presence|disconnect}
+   *             what happens to clients that cannot keep up.
    */
   public static void main(String[] args) throws IOException {
-    final ServerNetworkConnection connection = new ServerNetworkConnection();
+    final ServerNetworkConnection connection =
+        new ServerNetworkConnection(ServerConfig.fromArgs(args));
     connection.start();
 
 
-    Runtime.getRuntime().addShutdownHook(new Thread() {
+    //drain the clients and flush the journal when the process is terminated, e.g. by SIGTERM
+    Runtime.getRuntime().addShutdownHook(new Thread("chat-shutdown") {
       @Override
       public void run() {
         try {
@@ -0,0 +1,58 @@
+package chat.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks a broadcast until the last recipient has been written to, and records the time from the
+ * receipt of the original message until then. A recipient that drops the frame, e.g. because it
+ * is too slow or disconnects, is done at the moment it drops it and the drop is counted; leaving
+ * it out would hide exactly the slowest consumers from the latency.
+ */
+final class Delivery {
+
+  private final long receivedNanos;
+  private final LatencyHistogram latency;
+  private final LongAdder drops;
+  //the broadcasting thread holds one share until it has queued the frame for all recipients
+  private final AtomicInteger pending = new AtomicInteger(1);
+
+  /**
+   * Start tracking a broadcast.
+   *
+   * @param receivedNanos the {@link System#nanoTime()} at which the message has been received.
+   * @param latency       the histogram that records the delivery time.
+   * @param drops         counts the recipients that have dropped the frame.
+   */
+  Delivery(long receivedNanos, LatencyHistogram latency, LongAdder drops) {
+    this.receivedNanos = receivedNanos;
+    this.latency = latency;
+    this.drops = drops;
+  }
+
+  /**
+   * Announce another recipient, before the frame is queued for it.
+   */
+  void expect() {
+    pending.incrementAndGet();
+  }
+
+  /**
+   * Record that a recipient has been written to, or that the broadcasting thread has queued the
+   * frame for all recipients. The last call records the delivery time.
+   */
+  void done() {
+    if (pending.decrementAndGet() == 0) {
+      latency.record(System.nanoTime() - receivedNanos);
+    }
+  }
+
+  /**
+   * Record that a recipient has dropped the frame instead of getting it written, e.g. because the
+   * frame was refused, evicted from its queue or discarded when the session was closed.
+   */
+  void dropped() {
+    drops.increment();
+    done();
+  }
+}
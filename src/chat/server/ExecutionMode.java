@@ -0,0 +1,56 @@
+package chat.server;
+
+import java.util.Arrays;
+
+/**
+ * The different ways in which the server can serve its connected clients.
+ */
+public enum ExecutionMode {
+
+  /**
+   * Every client gets its own platform threads that block while reading from and writing to the
+   * socket.
+   */
+  PLATFORM_THREADS("platform"),
+
+  /**
+   * Every client gets its own virtual threads that block while reading from and writing to the
+   * socket. Blocked virtual threads release their carrier thread, so idle clients only cost a
+   * small heap object.
+   */
+  VIRTUAL_THREADS("virtual"),
+
+  /**
+   * A single event-loop thread multiplexes accepting, reading and writing of all clients over a
+   * {@link java.nio.channels.Selector}.
+   */
+  SELECTOR("selector");
+
+  private final String optionName;
+
+  ExecutionMode(String optionName) {
+    this.optionName = optionName;
+  }
+
+  /**
+   * Get the name that selects this mode on the command line.
+   *
+   * @return the option name.
+   */
+  public String getOptionName() {
+    return optionName;
+  }
+
+  /**
+   * Find the mode that belongs to a command-line option name.
+   *
+   * @param optionName the name given on the command line, e.g. {@code virtual}.
+   * @return the corresponding execution mode.
+   * @throws IllegalArgumentException if no mode has the given name.
+   */
+  public static ExecutionMode fromOptionName(String optionName) {
+    return Arrays.stream(values()).filter(x -> x.optionName.equals(optionName)).findFirst()
+        .orElseThrow(() -> new IllegalArgumentException(
+            String.format("Unknown execution mode '%s'", optionName)));
+  }
+}
@@ -0,0 +1,156 @@
+package chat.server;
+
+import chat.protocol.BinaryCodec;
+import chat.protocol.FrameBuffer;
+import chat.protocol.JsonCodec;
+import chat.protocol.MessageType;
+import chat.protocol.WireMessage;
+import chat.protocol.WireProtocol;
+
+/**
+ * A message that is about to be sent to one or more clients. A broadcast is serialized and
+ * encoded at most once per {@link WireProtocol}, afterwards the very same bytes are written to
+ * every recipient that speaks this protocol.
+ */
+final class Frame {
+
+  private final WireMessage message;
+  private final byte[][] encodings = new byte[WireProtocol.values().length][];
+  private byte[] compressed;
+
+  private Frame(WireMessage message) {
+    this.message = message;
+  }
+
+  /**
+   * Wrap a message that is no longer modified. The message is encoded lazily, the first time a
+   * recipient that speaks a particular protocol needs it.
+   *
+   * @param message the message to send.
+   * @return the frame.
+   */
+  static Frame of(WireMessage message) {
+    return new Frame(message);
+  }
+
+  /**
+   * Wrap a message that consists of nothing but its type.
+   *
+   * @param type the type of the message.
+   * @return the frame.
+   */
+  static Frame of(MessageType type) {
+    return of(new WireMessage(type));
+  }
+
+  /**
+   * Get the encoding of the message in a protocol. The message is written into the pooled buffer
+   * of the calling thread and copied once into an array of the exact size, which is cached.
+   *
+   * @param protocol the protocol of the recipient.
+   * @return the encoded bytes, which must not be modified.
+   */
+  synchronized byte[] bytes(WireProtocol protocol) {
+    byte[] bytes = encodings[protocol.ordinal()];
+    if (bytes == null) {
+      FrameBuffer buffer = FrameBuffer.pooled();
+      if (protocol == WireProtocol.JSON) {
+        JsonCodec.encode(message, buffer);
+      } else {
+        BinaryCodec.encode(message, buffer);
+      }
+      bytes = buffer.toByteArray();
+      encodings[protocol.ordinal()] = bytes;
+    }
+    return bytes;
+  }
+
+  /**
+   * Get the compressed encoding of the message in the binary protocol. The frame is compressed
+   * once and shared by all recipients that negotiated compression.
+   *
+   * @return the compressed bytes, or the plain binary encoding if compression does not make the
+   *         frame smaller.
+   */
+  synchronized byte[] compressedBytes() {
+    if (compressed == null) {
+      byte[] plain = bytes(WireProtocol.BINARY);
+      FrameBuffer buffer = FrameBuffer.pooled();
+      compressed = BinaryCodec.compress(plain, 0, plain.length, buffer)
+          ? buffer.toByteArray() : plain;
+    }
+    return compressed;
+  }
+
+  /**
+   * Get the size of the encodings that have been produced so far, i.e. of the bytes that the
+   * recipients of a broadcast share.
+   *
+   * @return the summed size of the encodings in bytes, {@code 0} if nothing has been encoded.
+   */
+  synchronized int encodedBytes() {
+    int bytes = 0;
+    for (byte[] encoding : encodings) {
+      bytes += encoding == null ? 0 : encoding.length;
+    }
+    if (compressed != null && compressed != encodings[WireProtocol.BINARY.ordinal()]) {
+      bytes += compressed.length;
+    }
+    return bytes;
+  }
+
+  /**
+   * Get the type of the message.
+   *
+   * @return the message type.
+   */
+  MessageType getType() {
+    return message.getType();
+  }
+
+  /**
+   * Get the nickname the message is about, i.e. the author of a chat message or the user that has
+   * joined or left.
+   *
+   * @return the nickname, or {@code null} if the message does not carry one.
+   */
+  String getNickname() {
+    return message.getNickname();
+  }
+
+  /**
+   * Get the room the message belongs to.
+   *
+   * @return the name of the room, or {@code null} for the main chat.
+   */
+  String getRoom() {
+    return message.getRoom();
+  }
+
+  /**
+   * Get the sequence number of a chat message within its room.
+   *
+   * @return the sequence number, or {@code 0} if the message does not carry one.
+   */
+  long getSequence() {
+    return message.getSequence();
+  }
+
+  /**
+   * Check whether the frame is a chat message that may be dropped for a slow client.
+   *
+   * @return {@code true} for chat messages.
+   */
+  boolean isChatMessage() {
+    return getType() == MessageType.MESSAGE;
+  }
+
+  /**
+   * Check whether the frame announces that a user has joined or left.
+   *
+   * @return {@code true} for presence events.
+   */
+  boolean isPresence() {
+    return getType() == MessageType.USER_JOINED || getType() == MessageType.USER_LEFT;
+  }
+}
@@ -0,0 +1,158 @@
+package chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Detects clients that have gone silent. A client that has not sent a frame for the ping interval
+ * gets a {@code ping}, which every live client answers; a client that stays silent until the idle
+ * timeout is considered dead and its session is closed. Only clients that have announced the
+ * {@link chat.protocol.WireMessage#PING_FEATURE} at login are watched, since older clients never
+ * answer a ping.
+ *
+ * <p>The sessions are kept in a hashed timer wheel instead of having a timer each: a single thread
+ * advances the wheel by one slot per tick and only looks at the sessions in that slot. Receiving a
+ * frame merely updates the read time of the session, the wheel is not touched; when the slot of a
+ * session comes up, the session is checked and put into the slot of its next check. A session
+ * that has been closed in the meantime simply drops out of the wheel.
+ */
+final class HeartbeatMonitor {
+
+  private static final int TICKS_PER_INTERVAL = 16;
+
+  private final long pingIntervalNanos;
+  private final long idleTimeoutNanos;
+  private final long tickNanos;
+  private final Predicate<Session> connected;
+  private final Consumer<Session> ping;
+  private final Consumer<Session> expire;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final List<List<Session>> slots = new ArrayList<>();
+  private int currentSlot;
+  private ScheduledExecutorService ticker;
+
+  /**
+   * Construct a monitor.
+   *
+   * @param pingIntervalMillis the time without frames after which a client is pinged.
+   * @param idleTimeoutMillis  the time without frames after which a client is considered dead.
+   * @param connected          whether a session is still open.
+   * @param ping               sends a ping to a client.
+   * @param expire             closes the session of a dead client.
+   */
+  HeartbeatMonitor(long pingIntervalMillis, long idleTimeoutMillis, Predicate<Session> connected,
+      Consumer<Session> ping, Consumer<Session> expire) {
+    pingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(pingIntervalMillis);
+    idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+    tickNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1),
+        Math.min(pingIntervalNanos, idleTimeoutNanos) / TICKS_PER_INTERVAL);
+    this.connected = connected;
+    this.ping = ping;
+    this.expire = expire;
+    //the wheel spans the longest delay until the next check of a session
+    int slotCount = (int) (Math.max(pingIntervalNanos, idleTimeoutNanos) / tickNanos) + 2;
+    for (int index = 0; index < slotCount; index++) {
+      slots.add(new ArrayList<>());
+    }
+  }
+
+  /**
+   * Start advancing the wheel.
+   */
+  void start() {
+    ticker = Executors.newSingleThreadScheduledExecutor(
+        task -> new Thread(task, "chat-heartbeat"));
+    ticker.scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Start watching a client that has logged in and answers pings.
+   *
+   * @param session the session of the client.
+   */
+  void add(Session session) {
+    lock.lock();
+    try {
+      schedule(session, Math.min(pingIntervalNanos, idleTimeoutNanos));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Put a session into the slot that comes up after the given delay. The caller holds the lock.
+   */
+  private void schedule(Session session, long delayNanos) {
+    long ticks = Math.max(1, (delayNanos + tickNanos - 1) / tickNanos);
+    ticks = Math.min(ticks, slots.size() - 1);
+    slots.get((int) ((currentSlot + ticks) % slots.size())).add(session);
+  }
+
+  /**
+   * Advance the wheel by one slot and check the sessions in it.
+   */
+  void tick() {
+    List<Session> due;
+    lock.lock();
+    try {
+      currentSlot = (currentSlot + 1) % slots.size();
+      due = slots.set(currentSlot, new ArrayList<>());
+    } finally {
+      lock.unlock();
+    }
+    long now = System.nanoTime();
+    List<Session> alive = new ArrayList<>(due.size());
+    List<Long> delays = new ArrayList<>(due.size());
+    for (Session session : due) {
+      try {
+        if (!connected.test(session)) {
+          continue;
+        }
+        long lastRead = session.getLastReadNanos();
+        long silent = now - lastRead;
+        if (silent >= idleTimeoutNanos) {
+          expire.accept(session);
+          continue;
+        }
+        boolean pinged = session.isPingOutstanding();
+        if (silent >= pingIntervalNanos && !pinged) {
+          session.setPingOutstanding();
+          ping.accept(session);
+          pinged = true;
+        }
+        long next = pinged ? lastRead + idleTimeoutNanos : lastRead + pingIntervalNanos;
+        alive.add(session);
+        delays.add(next - now);
+      } catch (RuntimeException e) {
+        //an exception would cancel the ticker for good and leave every client unwatched, so
+        //only this session is checked again one ping interval later
+        e.printStackTrace();
+        alive.add(session);
+        delays.add(pingIntervalNanos);
+      }
+    }
+    lock.lock();
+    try {
+      for (int index = 0; index < alive.size(); index++) {
+        schedule(alive.get(index), delays.get(index));
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stop advancing the wheel.
+   */
+  void close() {
+    if (ticker != null) {
+      ticker.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * A single file of the {@link MessageJournal}. The file is preallocated and memory-mapped, so an
+ * append is a copy into the page cache without a system call.
+ *
+ * <p>Every record is stored as {@code [int length][int CRC32C of the payload][payload]}. The end of
+ * the valid records is the first position that does not hold a complete record with a matching
+ * checksum; that is how a segment recovers from a crash in the middle of an append.
+ */
+final class JournalSegment {
+
+  static final String SUFFIX = ".journal";
+  static final String SPARE_NAME = "next.spare";
+  static final int HEADER_BYTES = 8;
+
+  private static final byte[] ZEROS = new byte[64 * 1024];
+
+  private final Path path;
+  private final long baseIndex;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final CRC32C checksum = new CRC32C();
+  private int[] offsets = new int[64];
+  private int position;
+  private int recordCount;
+
+  private JournalSegment(Path path, long baseIndex, FileChannel channel, MappedByteBuffer buffer) {
+    this.path = path;
+    this.baseIndex = baseIndex;
+    this.channel = channel;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Create and map a new, empty segment file.
+   *
+   * @param directory the directory of the journal.
+   * @param baseIndex the index of the first record that will be appended to the segment.
+   * @param capacity  the size of the file in bytes.
+   * @return the segment.
+   * @throws IOException if the file cannot be created or mapped.
+   */
+  static JournalSegment create(Path directory, long baseIndex, int capacity) throws IOException {
+    return map(pathOf(directory, baseIndex), baseIndex, capacity);
+  }
+
+  /**
+   * Create and map the file of the next segment before its base index is known. The spare does
+   * not count as a segment until it is {@link #activate(long) activated}.
+   *
+   * @param directory the directory of the journal.
+   * @param capacity  the size of the file in bytes.
+   * @return the spare segment.
+   * @throws IOException if the file cannot be created or mapped.
+   */
+  static JournalSegment createSpare(Path directory, int capacity) throws IOException {
+    return map(directory.resolve(SPARE_NAME), -1, capacity);
+  }
+
+  private static JournalSegment map(Path path, long baseIndex, int capacity) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    return new JournalSegment(path, baseIndex, channel, buffer);
+  }
+
+  private static Path pathOf(Path directory, long baseIndex) {
+    return directory.resolve(String.format("%020d%s", baseIndex, SUFFIX));
+  }
+
+  /**
+   * Turn a spare into the segment that starts at the given index. Only the file is renamed, the
+   * mapping stays valid, so this costs no allocation and no write-back.
+   *
+   * @param baseIndex the index of the first record that will be appended to the segment.
+   * @return the segment.
+   * @throws IOException if the file cannot be renamed, in which case the spare is deleted.
+   */
+  JournalSegment activate(long baseIndex) throws IOException {
+    Path target = pathOf(path.getParent(), baseIndex);
+    try {
+      Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      delete();
+      throw e;
+    }
+    return new JournalSegment(target, baseIndex, channel, buffer);
+  }
+
+  /**
+   * Map an existing segment file and scan it for the end of its valid records.
+   *
+   * @param path the segment file.
+   * @return the segment, positioned behind its last valid record.
+   * @throws IOException if the file cannot be mapped.
+   */
+  static JournalSegment open(Path path) throws IOException {
+    String name = path.getFileName().toString();
+    long baseIndex = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+    JournalSegment segment = new JournalSegment(path, baseIndex, channel, buffer);
+    int offset = 0;
+    int length;
+    while ((length = segment.recordLength(offset)) >= 0) {
+      segment.addOffset(offset);
+      offset += HEADER_BYTES + length;
+    }
+    segment.position = offset;
+    return segment;
+  }
+
+  static boolean isSegmentFile(Path path) {
+    return path.getFileName().toString().endsWith(SUFFIX);
+  }
+
+  /**
+   * Zero everything behind the last valid record. A torn append could otherwise leave bytes that
+   * look like a valid record once new records have been appended in front of them.
+   */
+  void truncateTornTail() {
+    for (int index = position; index < buffer.capacity(); index += ZEROS.length) {
+      int length = Math.min(ZEROS.length, buffer.capacity() - index);
+      //the tail is usually zero already, and reading it does not dirty the pages of the file
+      if (buffer.slice(index, length).mismatch(ByteBuffer.wrap(ZEROS, 0, length)) >= 0) {
+        buffer.put(index, ZEROS, 0, length);
+      }
+    }
+  }
+
+  /**
+   * Get the length of the record at the given offset.
+   *
+   * @param offset the offset of the record header.
+   * @return the length of the payload, or {@code -1} if there is no valid record.
+   */
+  int recordLength(int offset) {
+    if (offset > buffer.capacity() - HEADER_BYTES) {
+      return -1;
+    }
+    int length = buffer.getInt(offset);
+    if (length <= 0 || length > buffer.capacity() - offset - HEADER_BYTES) {
+      return -1;
+    }
+    checksum.reset();
+    checksum.update(buffer.slice(offset + HEADER_BYTES, length));
+    return (int) checksum.getValue() == buffer.getInt(offset + 4) ? length : -1;
+  }
+
+  /**
+   * Copy a record into the mapped file.
+   *
+   * @param record the payload of the record.
+   * @return {@code false} if the record does not fit into the rest of the segment.
+   */
+  boolean append(byte[] record) {
+    if (record.length > buffer.capacity() - position - HEADER_BYTES) {
+      return false;
+    }
+    checksum.reset();
+    checksum.update(record, 0, record.length);
+    buffer.putInt(position + 4, (int) checksum.getValue());
+    buffer.put(position + HEADER_BYTES, record);
+    buffer.putInt(position, record.length);
+    addOffset(position);
+    position += HEADER_BYTES + record.length;
+    return true;
+  }
+
+  /**
+   * Remember where a record starts, such that records can be read by their index.
+   */
+  private void addOffset(int offset) {
+    if (recordCount == offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    offsets[recordCount++] = offset;
+  }
+
+  /**
+   * Get the offset of a record of this segment.
+   *
+   * @param recordNumber the position of the record within the segment, starting at {@code 0}.
+   * @return the offset of the record header.
+   */
+  int offsetOf(int recordNumber) {
+    return offsets[recordNumber];
+  }
+
+  /**
+   * Copy the payload of a record out of the mapped file.
+   *
+   * @param offset the offset of the record header.
+   * @return the payload.
+   */
+  byte[] read(int offset) {
+    byte[] record = new byte[buffer.getInt(offset)];
+    buffer.get(offset + HEADER_BYTES, record);
+    return record;
+  }
+
+  /**
+   * Write a range of the mapped file back to the storage device.
+   *
+   * @param from the offset of the first byte.
+   * @param to   the offset behind the last byte.
+   */
+  void force(int from, int to) {
+    if (to > from) {
+      buffer.force(from, to - from);
+    }
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  long getBaseIndex() {
+    return baseIndex;
+  }
+
+  /**
+   * Get the index that the next appended record will get.
+   *
+   * @return the index behind the last record.
+   */
+  long getNextIndex() {
+    return baseIndex + recordCount;
+  }
+
+  int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Get the offset behind the last record, where the next record is appended.
+   *
+   * @return the write position.
+   */
+  int getPosition() {
+    return position;
+  }
+
+  void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Close the segment and delete its file.
+   *
+   * @throws IOException if the file cannot be deleted.
+   */
+  void delete() throws IOException {
+    close();
+    Files.deleteIfExists(path);
+  }
+}
@@ -0,0 +1,56 @@
+package chat.server;
+
+import java.util.Arrays;
+
+/**
+ * When the server forces the messages appended to its {@link MessageJournal} from the page cache
+ * to the storage device. The later a message is forced, the more messages a crash of the machine
+ * may lose, but the cheaper an append is.
+ */
+public enum JournalSyncPolicy {
+
+  /**
+   * Never force the journal, leave it to the operating system to write it back. A crash of the
+   * server process loses nothing, a crash of the machine may lose recent messages.
+   */
+  NEVER("never"),
+
+  /**
+   * Force everything appended since the last sync once per sync interval, so a single write-back
+   * covers all messages of a burst.
+   */
+  GROUP_COMMIT("group-commit"),
+
+  /**
+   * Force every message before the append returns.
+   */
+  ALWAYS("always");
+
+  private final String optionName;
+
+  JournalSyncPolicy(String optionName) {
+    this.optionName = optionName;
+  }
+
+  /**
+   * Get the name that selects this policy on the command line.
+   *
+   * @return the option name.
+   */
+  public String getOptionName() {
+    return optionName;
+  }
+
+  /**
+   * Find the policy that belongs to a command-line option name.
+   *
+   * @param optionName the name given on the command line, e.g. {@code group-commit}.
+   * @return the corresponding policy.
+   * @throws IllegalArgumentException if no policy has the given name.
+   */
+  public static JournalSyncPolicy fromOptionName(String optionName) {
+    return Arrays.stream(values()).filter(x -> x.optionName.equals(optionName)).findFirst()
+        .orElseThrow(() -> new IllegalArgumentException(
+            String.format("Unknown journal sync policy '%s'", optionName)));
+  }
+}
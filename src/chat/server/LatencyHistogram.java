@@ -0,0 +1,121 @@
+package chat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in the style of HdrHistogram: the buckets grow exponentially, and every
+ * power of two is split into {@value #SUB_BUCKETS} linear sub-buckets, so every recorded value is
+ * off by at most about 6 % while the whole range up to {@link Long#MAX_VALUE} nanoseconds needs
+ * less than a thousand counters.
+ *
+ * <p>Recording never locks: it increments one counter of an atomic array and two striped
+ * counters, so it can stay on in production. Reading the percentiles walks all buckets and is
+ * only weakly consistent with concurrent recording.
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder totalCount = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Record a duration.
+   *
+   * @param nanos the duration in nanoseconds; negative values count as {@code 0}.
+   */
+  void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(indexOf(value));
+    totalCount.increment();
+    totalNanos.add(value);
+    maxNanos.accumulate(value);
+  }
+
+  /**
+   * Find the bucket of a value. Values below {@code 2 * SUB_BUCKETS} have a bucket of their own,
+   * every larger power of two is split into {@code SUB_BUCKETS} buckets.
+   */
+  static int indexOf(long value) {
+    int bits = Long.SIZE - Long.numberOfLeadingZeros(value);
+    if (bits <= SUB_BUCKET_BITS + 1) {
+      return (int) value;
+    }
+    int shift = bits - SUB_BUCKET_BITS - 1;
+    return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  /**
+   * Get the largest value that falls into a bucket.
+   */
+  static long highestValueOf(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  long getCount() {
+    return totalCount.sum();
+  }
+
+  /**
+   * Get the sum of the recorded durations.
+   *
+   * @return the total in nanoseconds.
+   */
+  long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /**
+   * Get the duration below which the given share of the recorded durations lies.
+   *
+   * @param percentile the share in percent, e.g. {@code 99.9}.
+   * @return the upper end of the bucket that contains the percentile in nanoseconds, at most the
+   *         largest recorded duration, or {@code 0} if nothing has been recorded.
+   */
+  long getPercentileNanos(double percentile) {
+    long[] snapshot = new long[BUCKET_COUNT];
+    long count = 0;
+    for (int index = 0; index < BUCKET_COUNT; index++) {
+      snapshot[index] = counts.get(index);
+      count += snapshot[index];
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int index = 0; index < BUCKET_COUNT; index++) {
+      seen += snapshot[index];
+      if (seen >= rank) {
+        return Math.min(highestValueOf(index), getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  /**
+   * Get a percentile in microseconds, which is the unit of the exported metrics.
+   *
+   * @param percentile the share in percent.
+   * @return the duration in microseconds.
+   */
+  long getPercentileMicros(double percentile) {
+    return TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(percentile));
+  }
+}
@@ -0,0 +1,333 @@
+package chat.server;
+
+import chat.protocol.BinaryCodec;
+import chat.protocol.MessageType;
+import chat.protocol.WireMessage;
+import chat.protocol.WireProtocol;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The chat messages of the main chat and of every room. Every message gets a sequence number that
+ * increases by one within its chat, which is how clients ask for the messages before the oldest
+ * one they know.
+ *
+ * <p>The most recent messages of every chat are kept in a ring buffer that is allocated once with
+ * room for the configured number of messages. It holds the very frames that have been broadcast,
+ * so the backfill for a client that logs in or joins a room reuses their cached encodings instead
+ * of serializing the messages again. Besides the number of messages, the ring is bounded by the
+ * length of their text, which is known without encoding them; the oldest messages are evicted
+ * first.
+ *
+ * <p>Older messages are read from the {@link MessageJournal}, if the server keeps one. Every chat
+ * maps its sequence numbers to the indexes of the journal records, so a page of history is read
+ * with one copy per message out of the mapped journal files.
+ */
+final class MessageHistory {
+
+  private static final int RECOVERY_BATCH = 1024;
+
+  private final int maxMessages;
+  private final int maxBytes;
+  private final Chat mainChat;
+  private final ConcurrentHashMap<String, Chat> rooms = new ConcurrentHashMap<>();
+  private MessageJournal journal;
+
+  /**
+   * Construct an empty history without a journal.
+   *
+   * @param maxMessages the number of recent messages kept in memory per chat, or {@code 0} to
+   *                    keep none.
+   * @param maxBytes    the size of the recent messages kept in memory per chat.
+   */
+  MessageHistory(int maxMessages, int maxBytes) {
+    this.maxMessages = maxMessages;
+    this.maxBytes = maxBytes;
+    mainChat = new Chat();
+  }
+
+  /**
+   * Attach an opened journal and restore the sequence numbers and the recent messages of all
+   * chats from it, such that they survive a restart of the server.
+   *
+   * @param journal the journal of the server.
+   */
+  void recover(MessageJournal journal) {
+    this.journal = journal;
+    long next = journal.getFirstIndex();
+    List<byte[]> records;
+    while (!(records = journal.read(next, RECOVERY_BATCH)).isEmpty()) {
+      for (byte[] record : records) {
+        WireMessage message = decode(record);
+        if (message != null && message.getType() == MessageType.MESSAGE) {
+          chat(message.getRoom()).restore(message, next);
+        }
+        next++;
+      }
+    }
+  }
+
+  /**
+   * Give a chat message the next sequence number of its chat and remember it. Must be called
+   * before the message is broadcast, such that a client that logs in meanwhile gets it either
+   * live or with the backfill.
+   *
+   * @param message the chat message, which is no longer modified afterwards.
+   * @return the frame to broadcast.
+   */
+  Frame add(WireMessage message) {
+    //measured before the lock of the chat is taken, so concurrent posters do not wait for it
+    return chat(message.getRoom()).add(message, sizeOf(message));
+  }
+
+  /**
+   * Append a broadcast chat message to the journal, if there is one. The binary encoding is shared
+   * with the recipients that use the binary framing, so it is usually encoded already.
+   *
+   * @param frame a frame returned by {@link #add(WireMessage)}.
+   * @throws IOException if the journal cannot grow.
+   */
+  void journal(Frame frame) throws IOException {
+    if (journal == null) {
+      return;
+    }
+    long index = journal.append(frame.bytes(WireProtocol.BINARY));
+    chat(frame.getRoom()).journaled(frame.getSequence(), index);
+  }
+
+  /**
+   * Get the recent messages of a chat that are kept in memory.
+   *
+   * @param room the name of the room, or {@code null} for the main chat.
+   * @return the messages, oldest first.
+   */
+  List<Frame> recent(String room) {
+    Chat chat = room == null ? mainChat : rooms.get(room);
+    return chat == null ? List.of() : chat.recent();
+  }
+
+  /**
+   * Get a page of the messages of a chat. The messages that are still in the ring buffer are
+   * served from memory, older ones from the journal.
+   *
+   * @param room           the name of the room, or {@code null} for the main chat.
+   * @param beforeSequence the sequence number behind the page, or {@code 0} for the newest
+   *                       messages.
+   * @param limit          the largest number of messages of the page.
+   * @return the messages, oldest first. Messages that are no longer retained are missing.
+   */
+  List<Frame> page(String room, long beforeSequence, int limit) {
+    Chat chat = room == null ? mainChat : rooms.get(room);
+    if (chat == null) {
+      return List.of();
+    }
+    return range(chat, 0, beforeSequence, limit);
+  }
+
+  /**
+   * Get the messages of a chat that follow a sequence number, e.g. the ones a client has missed
+   * while its connection was lost.
+   *
+   * @param room          the name of the room, or {@code null} for the main chat.
+   * @param afterSequence the sequence number of the last message the client has received.
+   * @param limit         the largest number of messages.
+   * @return the messages, oldest first. Messages that are no longer retained are missing.
+   */
+  List<Frame> after(String room, long afterSequence, int limit) {
+    Chat chat = room == null ? mainChat : rooms.get(room);
+    if (chat == null) {
+      return List.of();
+    }
+    return range(chat, afterSequence, 0, limit);
+  }
+
+  private List<Frame> range(Chat chat, long afterSequence, long beforeSequence, int limit) {
+    List<Frame> recent = new ArrayList<>();
+    long[] indexes = chat.range(afterSequence, beforeSequence, limit, recent);
+    //the journal is read outside the lock of the chat, so posts into the chat go on meanwhile
+    List<Frame> page = new ArrayList<>(indexes.length + recent.size());
+    for (long index : indexes) {
+      byte[] record = index < 0 ? null : journal.read(index);
+      WireMessage message = record == null ? null : decode(record);
+      if (message != null) {
+        page.add(Frame.of(message));
+      }
+    }
+    page.addAll(recent);
+    return page;
+  }
+
+  private Chat chat(String room) {
+    return room == null ? mainChat : rooms.computeIfAbsent(room, x -> new Chat());
+  }
+
+  /**
+   * Get the size a message takes up in the ring: the characters of its nickname and content,
+   * which is their size in bytes for ASCII text.
+   */
+  private static int sizeOf(WireMessage message) {
+    String nickname = message.getNickname();
+    String content = message.getContent();
+    return (nickname == null ? 0 : nickname.length()) + (content == null ? 0 : content.length());
+  }
+
+  private static WireMessage decode(byte[] record) {
+    WireMessage message = new WireMessage();
+    try {
+      BinaryCodec.decodeFrame(record, 0, record.length, message);
+      return message;
+    } catch (ProtocolException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * The state of a single chat: its next sequence number, the ring of its recent messages and the
+   * journal indexes of its messages.
+   */
+  private final class Chat {
+
+    private final Frame[] frames = new Frame[maxMessages];
+    private final int[] sizes = new int[maxMessages];
+    private int head;
+    private int count;
+    private int bytes;
+    private long nextSequence = 1;
+    private long firstIndexedSequence;
+    private long[] journalIndexes = new long[0];
+    private int indexedCount;
+
+    synchronized Frame add(WireMessage message, int size) {
+      message.setSequence(nextSequence++);
+      Frame frame = Frame.of(message);
+      remember(frame, size);
+      return frame;
+    }
+
+    synchronized void restore(WireMessage message, long journalIndex) {
+      nextSequence = Math.max(nextSequence, message.getSequence() + 1);
+      remember(Frame.of(message), sizeOf(message));
+      journaled(message.getSequence(), journalIndex);
+    }
+
+    private void remember(Frame frame, int size) {
+      if (maxMessages == 0) {
+        return;
+      }
+      if (size > maxBytes) {
+        return;
+      }
+      while (count == frames.length || bytes + size > maxBytes) {
+        evictOldest();
+      }
+      int tail = (head + count) % frames.length;
+      frames[tail] = frame;
+      sizes[tail] = size;
+      count++;
+      bytes += size;
+    }
+
+    private void evictOldest() {
+      frames[head] = null;
+      bytes -= sizes[head];
+      head = (head + 1) % frames.length;
+      count--;
+    }
+
+    synchronized List<Frame> recent() {
+      List<Frame> recent = new ArrayList<>(count);
+      for (int index = 0; index < count; index++) {
+        recent.add(frames[(head + index) % frames.length]);
+      }
+      return recent;
+    }
+
+    /**
+     * Record the journal index of a message. Messages of the same chat may be journaled slightly
+     * out of order by concurrent posters, so the slot is derived from the sequence number.
+     */
+    synchronized void journaled(long sequence, long journalIndex) {
+      if (indexedCount == 0) {
+        firstIndexedSequence = sequence;
+      }
+      if (sequence < firstIndexedSequence) {
+        return;
+      }
+      int slot = (int) (sequence - firstIndexedSequence);
+      if (slot >= journalIndexes.length) {
+        dropDeletedIndexes();
+        slot = (int) (sequence - firstIndexedSequence);
+        if (slot >= journalIndexes.length) {
+          int length = journalIndexes.length;
+          journalIndexes = Arrays.copyOf(journalIndexes, Math.max(slot + 1, length * 2));
+          Arrays.fill(journalIndexes, length, journalIndexes.length, -1);
+        }
+      }
+      journalIndexes[slot] = journalIndex;
+      indexedCount = Math.max(indexedCount, slot + 1);
+    }
+
+    /**
+     * Forget the journal indexes of messages whose segment has been deleted by the retention.
+     */
+    private void dropDeletedIndexes() {
+      long firstRetained = journal.getFirstIndex();
+      int dropped = 0;
+      while (dropped < indexedCount && journalIndexes[dropped] >= 0
+          && journalIndexes[dropped] < firstRetained) {
+        dropped++;
+      }
+      if (dropped > 0) {
+        System.arraycopy(journalIndexes, dropped, journalIndexes, 0, indexedCount - dropped);
+        Arrays.fill(journalIndexes, indexedCount - dropped, indexedCount, -1);
+        indexedCount -= dropped;
+        firstIndexedSequence += dropped;
+      }
+    }
+
+    /**
+     * Split a range of messages into the ones that are still in the ring and the older ones that
+     * have to be read from the journal. The range either starts behind a sequence number, or ends
+     * before one.
+     *
+     * @param recent the list to add the messages of the range to that are in the ring.
+     * @return the journal indexes of the older messages of the range, {@code -1} where a message
+     *         is unknown.
+     */
+    synchronized long[] range(long afterSequence, long beforeSequence, int limit,
+        List<Frame> recent) {
+      long from;
+      long before;
+      if (afterSequence > 0) {
+        from = afterSequence + 1;
+        before = Math.min(nextSequence, from + limit);
+      } else {
+        before = beforeSequence <= 0 || beforeSequence > nextSequence
+            ? nextSequence : beforeSequence;
+        from = Math.max(1, before - limit);
+      }
+      long oldestInRing = count == 0 ? nextSequence : frames[head].getSequence();
+      for (int index = 0; index < count; index++) {
+        Frame frame = frames[(head + index) % frames.length];
+        if (frame.getSequence() >= from && frame.getSequence() < before) {
+          recent.add(frame);
+        }
+      }
+      if (journal == null) {
+        return new long[0];
+      }
+      long journalFrom = Math.max(from, firstIndexedSequence);
+      long[] indexes = new long[(int) Math.max(0, Math.min(before, oldestInRing) - journalFrom)];
+      for (int index = 0; index < indexes.length; index++) {
+        int slot = (int) (journalFrom + index - firstIndexedSequence);
+        indexes[index] = slot < indexedCount ? journalIndexes[slot] : -1;
+      }
+      return indexes;
+    }
+  }
+}
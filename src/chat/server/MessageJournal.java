@@ -0,0 +1,338 @@
+package chat.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * An append-only journal of the chat messages the server has broadcast. The frames are appended
+ * in their binary encoding to memory-mapped {@link JournalSegment} files, so an append is a copy
+ * into the page cache and costs no system call on the broadcast path.
+ *
+ * <p>A segment that has no room for the next record is closed and a new one is started. Only the
+ * newest segments are kept, older ones are deleted. Every record has a consecutive index that
+ * survives restarts: on startup all segments are scanned and the newest one is recovered up to its
+ * last complete record.
+ *
+ * <p>Appends may run on the selector thread, so a roll must not wait for the device. A background
+ * thread creates and maps the next segment in advance as a spare, which a roll merely renames, and
+ * it writes back and closes the full segment afterwards. Only a record that is larger than a
+ * segment, or a roll that comes before the spare is ready, creates a segment on the calling thread.
+ */
+final class MessageJournal {
+
+  private final Path directory;
+  private final int segmentBytes;
+  private final int retentionSegments;
+  private final JournalSyncPolicy syncPolicy;
+  private final int syncIntervalMillis;
+  private final ArrayDeque<JournalSegment> segments = new ArrayDeque<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private JournalSegment active;
+  private int syncedPosition;
+  private Future<JournalSegment> spare;
+  private ScheduledExecutorService worker;
+
+  /**
+   * Construct a journal that is not opened yet.
+   *
+   * @param directory          the directory that holds the segment files.
+   * @param segmentBytes       the size of a segment file.
+   * @param retentionSegments  the number of segments to keep, including the one being written.
+   * @param syncPolicy         when appended records are forced to the storage device.
+   * @param syncIntervalMillis the interval of the group commit.
+   */
+  MessageJournal(Path directory, int segmentBytes, int retentionSegments,
+      JournalSyncPolicy syncPolicy, int syncIntervalMillis) {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.retentionSegments = Math.max(1, retentionSegments);
+    this.syncPolicy = syncPolicy;
+    this.syncIntervalMillis = syncIntervalMillis;
+  }
+
+  /**
+   * Construct a journal from the settings of the server.
+   *
+   * @param config the server configuration; its journal directory must be set.
+   */
+  MessageJournal(ServerConfig config) {
+    this(config.getJournalDirectory(), config.getJournalSegmentBytes(),
+        config.getJournalRetentionSegments(), config.getJournalSyncPolicy(),
+        config.getJournalSyncIntervalMillis());
+  }
+
+  /**
+   * Map the existing segments, recover the newest one after a crash and start the group commit.
+   *
+   * @throws IOException if the directory or a segment cannot be opened.
+   */
+  void open() throws IOException {
+    Files.createDirectories(directory);
+    List<Path> files;
+    try (Stream<Path> listing = Files.list(directory)) {
+      //the file names are zero-padded base indexes, so they sort in the order of the records
+      files = listing.filter(JournalSegment::isSegmentFile)
+          .sorted(Comparator.comparing(Path::getFileName)).toList();
+    }
+    //a spare that was left behind by a crash holds no records
+    Files.deleteIfExists(directory.resolve(JournalSegment.SPARE_NAME));
+    worker = Executors.newSingleThreadScheduledExecutor(task -> new Thread(task, "chat-journal"));
+    lock.lock();
+    try {
+      for (Path file : files) {
+        segments.addLast(JournalSegment.open(file));
+      }
+      if (segments.isEmpty()) {
+        segments.addLast(JournalSegment.create(directory, 0, segmentBytes));
+      }
+      active = segments.peekLast();
+      //anything behind the last complete record is the remainder of an interrupted append
+      active.truncateTornTail();
+      syncedPosition = active.getPosition();
+      enforceRetention();
+      prepareSpare();
+    } finally {
+      lock.unlock();
+    }
+    if (syncPolicy == JournalSyncPolicy.GROUP_COMMIT) {
+      worker.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Append a record to the newest segment, starting a new segment if it is full.
+   *
+   * @param record the encoded frame.
+   * @return the index of the record.
+   * @throws IOException if a new segment cannot be created.
+   */
+  long append(byte[] record) throws IOException {
+    lock.lock();
+    try {
+      if (!active.append(record)) {
+        roll(record.length);
+        active.append(record);
+      }
+      if (syncPolicy == JournalSyncPolicy.ALWAYS) {
+        active.force(syncedPosition, active.getPosition());
+        syncedPosition = active.getPosition();
+      }
+      return active.getNextIndex() - 1;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Continue with a new segment and leave writing back and closing the full one to the background
+   * thread. The caller holds the lock.
+   */
+  private void roll(int recordLength) throws IOException {
+    JournalSegment full = active;
+    int from = syncedPosition;
+    int to = full.getPosition();
+    worker.execute(() -> retire(full, from, to));
+    active = nextSegment(full.getNextIndex(), recordLength);
+    segments.addLast(active);
+    syncedPosition = 0;
+    enforceRetention();
+  }
+
+  /**
+   * Take the spare as the next segment if it is ready, or create the segment right here. A record
+   * that is larger than a segment gets a segment of its own size.
+   */
+  private JournalSegment nextSegment(long baseIndex, int recordLength) throws IOException {
+    int capacity = Math.max(segmentBytes, JournalSegment.HEADER_BYTES + recordLength);
+    if (capacity == segmentBytes && spare.isDone()) {
+      Future<JournalSegment> ready = spare;
+      prepareSpare();
+      try {
+        return ready.get().activate(baseIndex);
+      } catch (ExecutionException | IOException e) {
+        //the spare is lost, the segment is created on this thread instead
+        e.printStackTrace();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return JournalSegment.create(directory, baseIndex, capacity);
+  }
+
+  /**
+   * Create the spare for the next roll on the background thread. The caller holds the lock.
+   */
+  private void prepareSpare() {
+    spare = worker.submit(() -> JournalSegment.createSpare(directory, segmentBytes));
+  }
+
+  /**
+   * Write back the rest of a full segment and close its file. Runs on the background thread; the
+   * mapping stays readable after the file has been closed.
+   */
+  private static void retire(JournalSegment segment, int from, int to) {
+    segment.force(from, to);
+    try {
+      segment.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void enforceRetention() throws IOException {
+    while (segments.size() > retentionSegments) {
+      segments.removeFirst().delete();
+    }
+  }
+
+  /**
+   * Force everything appended since the last sync to the storage device. The page cache is
+   * written back outside the lock, so appends are not held up by the device.
+   */
+  void sync() {
+    JournalSegment segment;
+    int from;
+    int to;
+    lock.lock();
+    try {
+      segment = active;
+      from = syncedPosition;
+      to = segment.getPosition();
+      syncedPosition = to;
+    } finally {
+      lock.unlock();
+    }
+    segment.force(from, to);
+  }
+
+  /**
+   * Read consecutive records, e.g. to replay them to a client.
+   *
+   * @param fromIndex  the index of the first record.
+   * @param maxRecords the largest number of records to return.
+   * @return the records from the given index on, fewer if the journal ends or the first records
+   *         have already been deleted.
+   */
+  List<byte[]> read(long fromIndex, int maxRecords) {
+    List<byte[]> records = new ArrayList<>();
+    lock.lock();
+    try {
+      for (JournalSegment segment : segments) {
+        long index = Math.max(fromIndex, segment.getBaseIndex());
+        for (; index < segment.getNextIndex() && records.size() < maxRecords; index++) {
+          records.add(segment.read(segment.offsetOf((int) (index - segment.getBaseIndex()))));
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    return records;
+  }
+
+  /**
+   * Read a single record. Every segment knows the offsets of its records, so this is a copy out
+   * of the mapped file without a scan.
+   *
+   * @param index the index of the record.
+   * @return the record, or {@code null} if it has been deleted or has not been appended yet.
+   */
+  byte[] read(long index) {
+    lock.lock();
+    try {
+      for (JournalSegment segment : segments) {
+        if (index >= segment.getBaseIndex() && index < segment.getNextIndex()) {
+          return segment.read(segment.offsetOf((int) (index - segment.getBaseIndex())));
+        }
+      }
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the index of the oldest record that is still retained.
+   *
+   * @return the first index.
+   */
+  long getFirstIndex() {
+    lock.lock();
+    try {
+      return segments.peekFirst().getBaseIndex();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the index that the next appended record will get.
+   *
+   * @return the number of records that have ever been appended.
+   */
+  long getNextIndex() {
+    lock.lock();
+    try {
+      return active.getNextIndex();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int getSegmentCount() {
+    lock.lock();
+    try {
+      return segments.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stop the background thread, force the remaining records, close all segments and delete the
+   * spare.
+   *
+   * @throws IOException if a segment cannot be closed.
+   */
+  void close() throws IOException {
+    if (worker != null) {
+      //lets the pending write-backs of full segments finish
+      worker.shutdown();
+      try {
+        worker.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    lock.lock();
+    try {
+      if (syncPolicy != JournalSyncPolicy.NEVER) {
+        active.force(syncedPosition, active.getPosition());
+      }
+      for (JournalSegment segment : segments) {
+        segment.close();
+      }
+      if (spare != null && spare.isDone()) {
+        try {
+          spare.get().delete();
+        } catch (ExecutionException | InterruptedException e) {
+          //there is no spare file to delete
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+}
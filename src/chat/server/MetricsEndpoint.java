@@ -0,0 +1,67 @@
+package chat.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the metrics of the server as plain text under {@code /metrics}, such that a monitoring
+ * system can scrape them. A single thread answers the requests, apart from the chat.
+ */
+final class MetricsEndpoint {
+
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final ServerMetrics metrics;
+  private HttpServer httpServer;
+  private ExecutorService executor;
+
+  MetricsEndpoint(ServerMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Start listening.
+   *
+   * @param port the port to listen on.
+   * @throws IOException if the port cannot be bound.
+   */
+  void start(int port) throws IOException {
+    httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+    httpServer.createContext("/metrics", this::handle);
+    executor = Executors.newSingleThreadExecutor(task -> new Thread(task, "chat-metrics"));
+    httpServer.setExecutor(executor);
+    httpServer.start();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      byte[] body = metrics.toText().getBytes(UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+
+  /**
+   * Stop listening. Requests in progress are aborted.
+   */
+  void stop() {
+    if (httpServer != null) {
+      httpServer.stop(0);
+      executor.shutdownNow();
+    }
+  }
+}
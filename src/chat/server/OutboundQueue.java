@@ -0,0 +1,508 @@
+package chat.server;
+
+import chat.protocol.WireProtocol;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bounded queue of frames that still have to be written to a single client. Senders only
+ * enqueue, the frames are written by the writer that belongs to the session of the recipient.
+ *
+ * <p>The queue has a high-water mark for both the number of frames and the number of bytes. When
+ * an enqueued frame would push the queue beyond one of them, the {@link SlowConsumerPolicy}
+ * decides whether old frames are dropped, presence events are merged or the frame is refused such
+ * that the client gets disconnected. A frame that does not fit even after merging and dropping is
+ * refused as well, whatever the policy, so the marks hold for every kind of frame. The queue
+ * counts how often this happens.
+ *
+ * <p>Frames that are merged or dropped stay in the queue as evicted entries until they reach its
+ * head, where the writer skips them. The queue keeps its chat messages in order and the newest
+ * presence event per user and room, so making room for a frame never scans the queue.
+ *
+ * <p>The queue also knows the {@link WireProtocol} of its client and whether the client accepts
+ * compressed frames. A frame is resolved to its encoding when it is enqueued, so the encoding can
+ * be switched atomically behind the frame that confirms the switch.
+ */
+final class OutboundQueue {
+
+  private final int maxMessages;
+  private final int maxBytes;
+  private final SlowConsumerPolicy policy;
+  private final ArrayDeque<QueuedFrame> frames = new ArrayDeque<>();
+  private final ArrayDeque<QueuedFrame> chatMessages = new ArrayDeque<>();
+  private final Map<List<String>, QueuedFrame> latestPresence = new HashMap<>();
+  private final Set<QueuedFrame> evicted = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private WireProtocol protocol = WireProtocol.JSON;
+  private int compressionThreshold;
+  private boolean closed;
+  private int depth;
+  private long queuedBytes;
+  private int highestDepth;
+  private long droppedFrames;
+  private long coalescedFrames;
+  private long compressionSavedBytes;
+
+  /**
+   * Construct an empty queue.
+   *
+   * @param maxMessages the high-water mark for the number of queued frames.
+   * @param maxBytes    the high-water mark for the number of queued bytes.
+   * @param policy      what happens when a high-water mark is exceeded.
+   */
+  OutboundQueue(int maxMessages, int maxBytes, SlowConsumerPolicy policy) {
+    this.maxMessages = maxMessages;
+    this.maxBytes = maxBytes;
+    this.policy = policy;
+  }
+
+  /**
+   * Add a frame to the end of the queue without blocking.
+   *
+   * @param frame the frame to add.
+   * @return {@code false} if the queue has been closed, or if it is full and the policy demands
+   *         that the client gets disconnected.
+   */
+  boolean offer(Frame frame) {
+    return offer(frame, null);
+  }
+
+  /**
+   * Add a frame of a tracked broadcast to the end of the queue without blocking.
+   *
+   * @param frame    the frame to add.
+   * @param delivery the broadcast, which is told once the frame has been written.
+   * @return {@code false} if the queue has been closed, or if it is full and the policy demands
+   *         that the client gets disconnected.
+   */
+  boolean offer(Frame frame, Delivery delivery) {
+    lock.lock();
+    try {
+      return enqueue(frame, delivery);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Add several frames to the end of the queue without blocking, taking the lock only once.
+   *
+   * @param frames the frames to add, in order.
+   * @return {@code false} if the queue has been closed, or if it is full and the policy demands
+   *         that the client gets disconnected. Frames before the refused one stay queued.
+   */
+  boolean offerAll(List<Frame> frames) {
+    lock.lock();
+    try {
+      for (Frame frame : frames) {
+        if (!enqueue(frame, null)) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Add a frame in the current encoding and switch the encoding for all frames that follow it.
+   *
+   * @param frame                the last frame in the current encoding.
+   * @param protocol             the protocol of the frames that are offered afterwards.
+   * @param compressionThreshold the size from which later binary frames are compressed, or
+   *                             {@code 0} to never compress them.
+   * @return {@code false} if the frame was refused, in which case the encoding is unchanged.
+   */
+  boolean offerAndSwitchProtocol(Frame frame, WireProtocol protocol, int compressionThreshold) {
+    lock.lock();
+    try {
+      if (!enqueue(frame, null)) {
+        return false;
+      }
+      this.protocol = protocol;
+      this.compressionThreshold = compressionThreshold;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean enqueue(Frame frame, Delivery delivery) {
+    if (closed) {
+      return false;
+    }
+    QueuedFrame queued = new QueuedFrame(frame, encode(frame), delivery);
+    if (wouldOverflow(queued)) {
+      if (policy == SlowConsumerPolicy.DISCONNECT) {
+        return false;
+      }
+      if (policy == SlowConsumerPolicy.COALESCE_PRESENCE && cancelPresence(queued)) {
+        return true;
+      }
+      dropOldestChatMessages(queued);
+      if (wouldOverflow(queued)) {
+        if (!frame.isChatMessage()) {
+          //nothing is left to make room, the client has to be disconnected
+          return false;
+        }
+        //the new message is the oldest one that can be dropped
+        droppedFrames++;
+        queued.dropped();
+        return true;
+      }
+    }
+    frames.addLast(queued);
+    depth++;
+    queuedBytes += queued.size();
+    if (frame.isChatMessage()) {
+      chatMessages.addLast(queued);
+    } else if (frame.isPresence()) {
+      latestPresence.put(presenceKey(frame), queued);
+    }
+    highestDepth = Math.max(highestDepth, depth);
+    notEmpty.signal();
+    return true;
+  }
+
+  private byte[] encode(Frame frame) {
+    byte[] bytes = frame.bytes(protocol);
+    if (compressionThreshold > 0 && protocol == WireProtocol.BINARY
+        && bytes.length >= compressionThreshold) {
+      byte[] compressed = frame.compressedBytes();
+      compressionSavedBytes += bytes.length - compressed.length;
+      return compressed;
+    }
+    return bytes;
+  }
+
+  private boolean wouldOverflow(QueuedFrame frame) {
+    return depth + 1 > maxMessages || queuedBytes + frame.size() > maxBytes;
+  }
+
+  /**
+   * Remove the oldest chat messages until the frame fits below the high-water marks. Other frames
+   * stay in the queue.
+   */
+  private void dropOldestChatMessages(QueuedFrame frame) {
+    while (wouldOverflow(frame) && !chatMessages.isEmpty()) {
+      evict(chatMessages.removeFirst());
+      droppedFrames++;
+    }
+  }
+
+  /**
+   * Cancel a presence event against the newest queued event of the same user in the same room.
+   * Two consecutive events of the same user in the same room always alternate between joining and
+   * leaving, so the pair leaves the user in the state it had before.
+   *
+   * @param frame the presence event that is about to be queued.
+   * @return {@code true} if the event has cancelled a queued one and must not be queued itself.
+   */
+  private boolean cancelPresence(QueuedFrame frame) {
+    if (!frame.frame().isPresence()) {
+      return false;
+    }
+    QueuedFrame previous = latestPresence.remove(presenceKey(frame.frame()));
+    if (previous == null) {
+      return false;
+    }
+    evict(previous);
+    coalescedFrames += 2;
+    return true;
+  }
+
+  private static List<String> presenceKey(Frame frame) {
+    return Arrays.asList(frame.getNickname(), frame.getRoom());
+  }
+
+  /**
+   * Take a queued frame out of the count without searching for it in the queue; the writer skips
+   * it once it reaches the head.
+   */
+  private void evict(QueuedFrame frame) {
+    frame.dropped();
+    evicted.add(frame);
+    depth--;
+    queuedBytes -= frame.size();
+    if (evicted.size() > depth) {
+      //a stalled client would otherwise pile up evicted entries; rebuilding the queue only once
+      //they outnumber the live frames costs a constant amount per eviction
+      frames.removeIf(evicted::remove);
+    }
+  }
+
+  /**
+   * Remove the first frame of the queue without blocking.
+   *
+   * @return the first frame, or {@code null} if the queue is empty.
+   */
+  QueuedFrame poll() {
+    lock.lock();
+    try {
+      return removeFirst();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Remove the first frame of the queue, waiting until one is available.
+   *
+   * @return the first frame, or {@code null} if the queue has been closed.
+   * @throws InterruptedException if the waiting thread is interrupted.
+   */
+  QueuedFrame take() throws InterruptedException {
+    lock.lock();
+    try {
+      while (depth == 0) {
+        if (closed) {
+          return null;
+        }
+        notEmpty.await();
+      }
+      return removeFirst();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Remove frames from the head of the queue without blocking, such that they can be written with
+   * a single gathering write.
+   *
+   * @param batch    the array to fill from index 0; its length limits the number of frames.
+   * @param maxBytes the size from which no further frame is added. The first frame is always
+   *                 added, however large it is.
+   * @return the number of frames that were removed.
+   */
+  int pollBatch(QueuedFrame[] batch, int maxBytes) {
+    lock.lock();
+    try {
+      return fillBatch(batch, 0, 0, maxBytes);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Remove a batch of frames, waiting until at least one is available. If the batch is not full,
+   * the call waits up to the given delay for further frames.
+   *
+   * @param batch      the array to fill from index 0; its length limits the number of frames.
+   * @param maxBytes   the size from which no further frame is added.
+   * @param delayNanos how long to wait for a batch to fill up, or {@code 0} to not wait.
+   * @return the number of frames that were removed, or {@code 0} if the queue has been closed.
+   * @throws InterruptedException if the waiting thread is interrupted.
+   */
+  int takeBatch(QueuedFrame[] batch, int maxBytes, long delayNanos) throws InterruptedException {
+    lock.lock();
+    try {
+      while (depth == 0) {
+        if (closed) {
+          return 0;
+        }
+        notEmpty.await();
+      }
+      int bytes = 0;
+      int count = 0;
+      long deadline = System.nanoTime() + delayNanos;
+      while (true) {
+        int previous = count;
+        count = fillBatch(batch, count, bytes, maxBytes);
+        for (int index = previous; index < count; index++) {
+          bytes += batch[index].size();
+        }
+        long remaining = deadline - System.nanoTime();
+        if (count == batch.length || bytes >= maxBytes || remaining <= 0 || closed) {
+          return count;
+        }
+        notEmpty.awaitNanos(remaining);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private int fillBatch(QueuedFrame[] batch, int count, int bytes, int maxBytes) {
+    while (count < batch.length && (count == 0 || bytes < maxBytes) && depth > 0) {
+      QueuedFrame frame = removeFirst();
+      batch[count++] = frame;
+      bytes += frame.size();
+    }
+    return count;
+  }
+
+  private QueuedFrame removeFirst() {
+    QueuedFrame frame;
+    while ((frame = frames.pollFirst()) != null) {
+      if (evicted.remove(frame)) {
+        continue;
+      }
+      depth--;
+      queuedBytes -= frame.size();
+      if (frame.frame().isChatMessage()) {
+        //the chat messages are written in order, so this one is the oldest that is left
+        chatMessages.removeFirst();
+      } else if (frame.frame().isPresence()) {
+        latestPresence.remove(presenceKey(frame.frame()), frame);
+      }
+      return frame;
+    }
+    return null;
+  }
+
+  boolean isEmpty() {
+    lock.lock();
+    try {
+      return depth == 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of frames that are currently waiting.
+   *
+   * @return the queue depth.
+   */
+  int getDepth() {
+    lock.lock();
+    try {
+      return depth;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of bytes that are currently waiting.
+   *
+   * @return the size of all queued frames.
+   */
+  long getQueuedBytes() {
+    lock.lock();
+    try {
+      return queuedBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the largest number of frames that have been waiting at the same time.
+   *
+   * @return the highest queue depth.
+   */
+  int getHighestDepth() {
+    lock.lock();
+    try {
+      return highestDepth;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of chat messages that were dropped because the client was too slow.
+   *
+   * @return the number of dropped frames.
+   */
+  long getDroppedFrames() {
+    lock.lock();
+    try {
+      return droppedFrames;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of presence events that were merged away because the client was too slow.
+   *
+   * @return the number of coalesced frames.
+   */
+  long getCoalescedFrames() {
+    lock.lock();
+    try {
+      return coalescedFrames;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of bytes that compression has saved for this client so far.
+   *
+   * @return the difference between the plain and the compressed size of all queued frames.
+   */
+  long getCompressionSavedBytes() {
+    lock.lock();
+    try {
+      return compressionSavedBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Reject any further frames, but let the writer take the frames that are still queued. Once
+   * they are gone, the queue behaves as if it had been closed.
+   */
+  void shutdown() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Check whether the queue rejects further frames.
+   *
+   * @return {@code true} if the queue has been shut down or closed.
+   */
+  boolean isClosed() {
+    lock.lock();
+    try {
+      return closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Reject any further frames, discard the queued ones and wake up a writer that waits for frames.
+   */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      for (QueuedFrame frame : frames) {
+        if (!evicted.contains(frame)) {
+          frame.dropped();
+        }
+      }
+      frames.clear();
+      chatMessages.clear();
+      latestPresence.clear();
+      evicted.clear();
+      depth = 0;
+      queuedBytes = 0;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package chat.server;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects the users that come online or go offline in the main chat, together with the clients
+ * that wait for a roster snapshot, and publishes them once per batch window. During a login storm
+ * every client then gets one delta per window instead of one frame per login, and all clients
+ * that logged in during a window share a single snapshot.
+ *
+ * <p>The events of a user within a window are coalesced into its final state, and a login and a
+ * logout within the same window cancel each other out. Clients that get single {@code user joined}
+ * and {@code user left} messages thus never hear of a user leaving that they have not seen join.
+ * Applying a delta is idempotent, which is why it does not matter whether a client has received
+ * its roster snapshot before or after the events of a window.
+ *
+ * <p>The window adapts to the rate of the changes: a window that collects many changes doubles
+ * the next one, up to a maximum, and a quiet window halves it again, down to the minimum. After a
+ * pause longer than the maximum window the batcher starts over with the minimum. A single login
+ * on an idle server is thus reported after the minimum window, while a restart in which thousands
+ * of clients log in at once is reported in a few large batches.
+ */
+final class PresenceBatcher {
+
+  /**
+   * The number of changes from which a window counts as busy.
+   */
+  static final int BUSY_CHANGES = 64;
+
+  /**
+   * Publishes a batch to the clients.
+   */
+  interface Publisher {
+
+    /**
+     * Send the changes of a window to all clients, and a roster snapshot to the clients that
+     * have logged in during the window.
+     *
+     * @param changes             the nicknames that changed, mapped to {@code true} if the user
+     *                            is online now; in the order of their last change.
+     * @param snapshotRecipients  the sessions that still need a roster snapshot.
+     */
+    void publish(Map<String, Boolean> changes, Set<Session> snapshotRecipients);
+  }
+
+  private final long minWindowMillis;
+  private final long maxWindowMillis;
+  private final Publisher publisher;
+  private final ReentrantLock lock = new ReentrantLock();
+  private Map<String, Boolean> pending = new LinkedHashMap<>();
+  private Set<Session> pendingSnapshots = new HashSet<>();
+  private long windowMillis;
+  private long lastFlushNanos = System.nanoTime();
+  private boolean scheduled;
+  private boolean closed;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Construct a batcher.
+   *
+   * @param minWindowMillis the window while the server is quiet, or {@code 0} to publish every
+   *                        event right away.
+   * @param maxWindowMillis the largest window during a login storm.
+   * @param publisher       sends the batches to the clients.
+   */
+  PresenceBatcher(long minWindowMillis, long maxWindowMillis, Publisher publisher) {
+    this.minWindowMillis = minWindowMillis;
+    this.maxWindowMillis = Math.max(minWindowMillis, maxWindowMillis);
+    this.publisher = publisher;
+    windowMillis = minWindowMillis;
+  }
+
+  /**
+   * Record that a user has logged in.
+   *
+   * @param nickname the nickname of the user.
+   */
+  void joined(String nickname) {
+    if (!enqueue(() -> change(nickname, true))) {
+      publisher.publish(Map.of(nickname, true), Set.of());
+    }
+  }
+
+  /**
+   * Record that a user has left the chat.
+   *
+   * @param nickname the nickname of the user.
+   */
+  void left(String nickname) {
+    if (!enqueue(() -> change(nickname, false))) {
+      publisher.publish(Map.of(nickname, false), Set.of());
+    }
+  }
+
+  /**
+   * Record that a client that keeps a roster has logged in and needs a snapshot.
+   *
+   * @param session the session of the client.
+   */
+  void snapshotRequested(Session session) {
+    if (!enqueue(() -> pendingSnapshots.add(session))) {
+      publisher.publish(Map.of(), Set.of(session));
+    }
+  }
+
+  /**
+   * Record the new state of a user in the current window. A change that reverts the pending one
+   * of the same user cancels it, since the clients still know the state from before the window.
+   * Called with the lock held.
+   */
+  private void change(String nickname, boolean online) {
+    Boolean previous = pending.remove(nickname);
+    if (previous == null || previous == online) {
+      pending.put(nickname, online);
+    }
+  }
+
+  /**
+   * Add an event to the current window and make sure that the window gets published.
+   *
+   * @param event adds the event to the pending ones; called with the lock held.
+   * @return {@code false} if the event has to be published right away.
+   */
+  private boolean enqueue(Runnable event) {
+    lock.lock();
+    try {
+      if (minWindowMillis <= 0 || closed) {
+        return false;
+      }
+      event.run();
+      if (!scheduled) {
+        scheduled = true;
+        if (System.nanoTime() - lastFlushNanos > TimeUnit.MILLISECONDS.toNanos(maxWindowMillis)) {
+          windowMillis = minWindowMillis;
+        }
+        if (scheduler == null) {
+          scheduler = Executors.newSingleThreadScheduledExecutor(
+              task -> new Thread(task, "chat-presence"));
+        }
+        scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Publish the events of the current window and adapt the next window to the number of changes.
+   * The batch is sent outside of the lock, so new events are already collected for the next
+   * window in the meantime.
+   */
+  void flush() {
+    Map<String, Boolean> changes;
+    Set<Session> snapshots;
+    lock.lock();
+    try {
+      changes = pending;
+      snapshots = pendingSnapshots;
+      pending = new LinkedHashMap<>();
+      pendingSnapshots = new HashSet<>();
+      scheduled = false;
+      lastFlushNanos = System.nanoTime();
+      int events = changes.size() + snapshots.size();
+      if (events >= BUSY_CHANGES) {
+        windowMillis = Math.min(maxWindowMillis, windowMillis * 2);
+      } else if (events < BUSY_CHANGES / 4) {
+        windowMillis = Math.max(minWindowMillis, windowMillis / 2);
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (!changes.isEmpty() || !snapshots.isEmpty()) {
+      publisher.publish(changes, snapshots);
+    }
+  }
+
+  /**
+   * Get the length of the next window.
+   *
+   * @return the window in milliseconds.
+   */
+  long getWindowMillis() {
+    lock.lock();
+    try {
+      return windowMillis;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Publish the pending events and stop the timer. Later events are published right away.
+   */
+  void close() {
+    ScheduledExecutorService executor;
+    lock.lock();
+    try {
+      closed = true;
+      executor = scheduler;
+      scheduler = null;
+    } finally {
+      lock.unlock();
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    flush();
+  }
+}
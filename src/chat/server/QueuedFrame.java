@@ -0,0 +1,58 @@
+package chat.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A frame in the outbound queue of a session, together with its encoding in the protocol that
+ * the session spoke when the frame was enqueued.
+ *
+ * @param frame    the queued frame.
+ * @param bytes    the encoded bytes, shared with every other recipient of the same protocol.
+ * @param delivery the broadcast the frame belongs to, or {@code null} if it is not tracked.
+ */
+record QueuedFrame(Frame frame, byte[] bytes, Delivery delivery) {
+
+  /**
+   * Get a read-only view on the encoded bytes. Every call returns an independent buffer, such that
+   * each recipient can keep track of how much of the frame has been written to it.
+   *
+   * @return a buffer positioned at the start of the frame.
+   */
+  ByteBuffer buffer() {
+    return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
+  /**
+   * Write the encoded bytes to a stream.
+   *
+   * @param out the stream to write to.
+   * @throws IOException if writing fails.
+   */
+  void writeTo(OutputStream out) throws IOException {
+    out.write(bytes);
+  }
+
+  int size() {
+    return bytes.length;
+  }
+
+  /**
+   * Record that the frame has been written to the recipient completely.
+   */
+  void written() {
+    if (delivery != null) {
+      delivery.done();
+    }
+  }
+
+  /**
+   * Record that the frame will never be written to the recipient.
+   */
+  void dropped() {
+    if (delivery != null) {
+      delivery.dropped();
+    }
+  }
+}
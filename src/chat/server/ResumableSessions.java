@@ -0,0 +1,119 @@
+package chat.server;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The sessions of clients whose connection has been lost, kept for a while such that the client
+ * can resume them. A parked session remembers the rooms of the client and the sequence numbers
+ * up to which the client has acknowledged the messages, so a resuming client only gets the
+ * messages it has missed.
+ *
+ * <p>Every login hands out a new random token, which the client presents to resume. A token can
+ * be used only once.
+ *
+ * <p>All sessions are kept for the same window, so the order in which they are parked is also the
+ * order in which they expire. Parking a session only drops the expired ones from the head of that
+ * order, which keeps a mass disconnect linear in the number of clients.
+ */
+final class ResumableSessions {
+
+  private final long windowNanos;
+  private final ConcurrentHashMap<String, ParkedSession> parked = new ConcurrentHashMap<>();
+  //the tokens in the order of their expiry, including the ones that have been claimed already
+  private final ArrayDeque<String> expiryOrder = new ArrayDeque<>();
+  private final ReentrantLock expiryLock = new ReentrantLock();
+  private final SecureRandom random = new SecureRandom();
+
+  /**
+   * The state of a session that can be resumed.
+   *
+   * @param nickname     the nickname of the client.
+   * @param rooms        the rooms the client had joined.
+   * @param mainChatAck  the last acknowledged sequence number of the main chat.
+   * @param roomAcks     the last acknowledged sequence numbers of the rooms.
+   * @param expiresNanos the {@link System#nanoTime()} after which the session cannot be resumed.
+   */
+  record ParkedSession(String nickname, Set<String> rooms, long mainChatAck,
+      Map<String, Long> roomAcks, long expiresNanos) {
+  }
+
+  /**
+   * Construct an empty set of parked sessions.
+   *
+   * @param windowMillis how long a lost session can be resumed, or {@code 0} to not keep them.
+   */
+  ResumableSessions(int windowMillis) {
+    windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+  }
+
+  /**
+   * Create the token that a client presents to resume its session.
+   *
+   * @return a new random token.
+   */
+  String newToken() {
+    byte[] bytes = new byte[16];
+    random.nextBytes(bytes);
+    return HexFormat.of().formatHex(bytes);
+  }
+
+  /**
+   * Keep the state of a session whose connection has been lost.
+   *
+   * @param session the session of the client, which has a nickname and a token.
+   * @param rooms   the rooms the client was a member of.
+   */
+  void park(Session session, Set<String> rooms) {
+    if (windowNanos == 0 || session.getResumeToken() == null) {
+      return;
+    }
+    long now = System.nanoTime();
+    expiryLock.lock();
+    try {
+      String token;
+      while ((token = expiryOrder.peekFirst()) != null) {
+        ParkedSession head = parked.get(token);
+        if (head != null && now - head.expiresNanos() <= 0) {
+          break;
+        }
+        expiryOrder.removeFirst();
+        if (head != null) {
+          parked.remove(token, head);
+        }
+      }
+      parked.put(session.getResumeToken(), new ParkedSession(session.getNickname(),
+          Set.copyOf(rooms), session.getMainChatAck(), Map.copyOf(session.getRoomAcks()),
+          now + windowNanos));
+      expiryOrder.addLast(session.getResumeToken());
+    } finally {
+      expiryLock.unlock();
+    }
+  }
+
+  /**
+   * Take the parked session that belongs to a token.
+   *
+   * @param token    the token the client presents.
+   * @param nickname the nickname the client logs in with, which must be the one of the session.
+   * @return the parked session, or {@code null} if there is none or it has expired.
+   */
+  ParkedSession claim(String token, String nickname) {
+    ParkedSession session = parked.remove(token);
+    if (session == null || System.nanoTime() - session.expiresNanos() > 0
+        || !session.nickname().equals(nickname)) {
+      return null;
+    }
+    return session;
+  }
+
+  int size() {
+    return parked.size();
+  }
+}
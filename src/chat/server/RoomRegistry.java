@@ -0,0 +1,86 @@
+package chat.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The named chat rooms and their members. A post into a room only touches the members of that
+ * room instead of every connected client.
+ *
+ * <p>Rooms are created by their first member and removed with their last one. Changing the
+ * members of a room only locks the bin of that room in the index, so joins and leaves never block
+ * broadcasts into other rooms, and a broadcast iterates over the members without locking at all.
+ */
+final class RoomRegistry {
+
+  private final ConcurrentHashMap<String, Set<Session>> membersByRoom = new ConcurrentHashMap<>();
+
+  /**
+   * Add a client to a room, creating the room if it does not exist yet.
+   *
+   * @param room    the name of the room.
+   * @param session the session of the client.
+   * @return {@code false} if the client already was a member.
+   */
+  boolean join(String room, Session session) {
+    boolean[] added = new boolean[1];
+    membersByRoom.compute(room, (name, members) -> {
+      Set<Session> result = members == null ? ConcurrentHashMap.newKeySet() : members;
+      added[0] = result.add(session);
+      return result;
+    });
+    if (added[0]) {
+      session.getRooms().add(room);
+    }
+    return added[0];
+  }
+
+  /**
+   * Remove a client from a room. The room is removed once it has no members left.
+   *
+   * @param room    the name of the room.
+   * @param session the session of the client.
+   * @return {@code false} if the client was not a member.
+   */
+  boolean leave(String room, Session session) {
+    boolean[] removed = new boolean[1];
+    membersByRoom.computeIfPresent(room, (name, members) -> {
+      removed[0] = members.remove(session);
+      return members.isEmpty() ? null : members;
+    });
+    session.getRooms().remove(room);
+    return removed[0];
+  }
+
+  /**
+   * Remove a client from all rooms it has joined.
+   *
+   * @param session the session of the client.
+   */
+  void leaveAll(Session session) {
+    for (String room : session.getRooms()) {
+      leave(room, session);
+    }
+  }
+
+  /**
+   * Get a live view on the members of a room, that can be iterated without locking.
+   *
+   * @param room the name of the room.
+   * @return the sessions of the members, empty if the room does not exist.
+   */
+  Collection<Session> members(String room) {
+    Set<Session> members = membersByRoom.get(room);
+    return members == null ? Collections.emptySet() : members;
+  }
+
+  boolean isMember(String room, Session session) {
+    return members(room).contains(session);
+  }
+
+  int size() {
+    return membersByRoom.size();
+  }
+}
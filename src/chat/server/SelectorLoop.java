@@ -0,0 +1,269 @@
+package chat.server;
+
+import chat.protocol.FrameTooLargeException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The non-blocking event loop of the server. One thread accepts new clients, splits the incoming
+ * bytes of every client into frames and writes queued messages whenever a channel is writable.
+ *
+ * <p>If a write batch delay is configured, a session that gets new frames is only marked for
+ * writing once the delay has passed or enough bytes are queued to fill a batch.
+ */
+class SelectorLoop {
+
+  private final ServerNetworkConnection server;
+  private final int port;
+  private final Queue<ChannelSession> writeRequests = new ConcurrentLinkedQueue<>();
+  private final ArrayDeque<ChannelSession> delayedWrites = new ArrayDeque<>();
+  private final long writeDelayNanos;
+  private final int writeBatchBytes;
+  private Selector selector;
+  private ServerSocketChannel serverChannel;
+  private Thread thread;
+  private volatile boolean running;
+
+  /**
+   * Construct an event loop.
+   *
+   * @param server the server whose messages are handled by this loop.
+   * @param port   the port to listen on.
+   */
+  SelectorLoop(ServerNetworkConnection server, int port) {
+    this.server = server;
+    this.port = port;
+    ServerConfig config = server.getConfig();
+    writeDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getWriteBatchDelayMillis());
+    writeBatchBytes = config.getWriteBatchBytes();
+  }
+
+  /**
+   * Open the listening channel and start the event-loop thread.
+   *
+   * @throws IOException if the port cannot be bound.
+   */
+  void start() throws IOException {
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    //allow a restarted server to bind the port while old connections are still in TIME_WAIT
+    serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    serverChannel.bind(new InetSocketAddress(port));
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+    running = true;
+    thread = new Thread(this::run, "chat-selector");
+    thread.start();
+  }
+
+  /**
+   * Ask the loop to write the pending messages of a session. May be called from any thread.
+   *
+   * @param session the session that has new messages to write.
+   */
+  void requestWrite(ChannelSession session) {
+    if (Thread.currentThread() == thread) {
+      enableWrite(session);
+    } else if (session.markWriteRequested()) {
+      writeRequests.add(session);
+      selector.wakeup();
+    }
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        selectUntilNextDeadline();
+        ChannelSession requested;
+        while ((requested = writeRequests.poll()) != null) {
+          requested.clearWriteRequested();
+          enableWrite(requested);
+        }
+        enableExpiredWrites();
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            if (key.isAcceptable()) {
+              accept();
+            } else {
+              ChannelSession session = (ChannelSession) key.attachment();
+              if (key.isReadable()) {
+                read(session);
+              }
+              if (key.isValid() && key.isWritable()) {
+                write(session);
+              }
+            }
+          } catch (CancelledKeyException e) {
+            //the session was closed while its events were being processed
+          }
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel;
+    while ((channel = serverChannel.accept()) != null) {
+      channel.configureBlocking(false);
+      ChannelSession session = new ChannelSession(server.nextSessionId(), channel, this,
+          server.getConfig());
+      session.setKey(channel.register(selector, SelectionKey.OP_READ, session));
+      server.register(session);
+    }
+  }
+
+  private void read(ChannelSession session) {
+    try {
+      session.readFrames(() -> server.handleFrame(session));
+      if (session.isEndOfStream()) {
+        //the client closed its end of the connection
+        server.handleDisconnect(session);
+      }
+    } catch (FrameTooLargeException e) {
+      server.frameTooLarge(session);
+      //stop reading, the channel is closed once the error has been written
+      session.getKey().interestOps(SelectionKey.OP_WRITE);
+    } catch (IOException e) {
+      if (session.getChannel().isOpen()) {
+        e.printStackTrace();
+        server.handleDisconnect(session);
+      }
+    } catch (RuntimeException e) {
+      //a bug triggered by one client must not stop the loop that serves all the others
+      e.printStackTrace();
+      server.handleDisconnect(session);
+    }
+  }
+
+  private void write(ChannelSession session) {
+    try {
+      if (session.flush()) {
+        session.getKey().interestOps(SelectionKey.OP_READ);
+        if (session.getOutbound().isClosed()) {
+          server.outputFlushed(session);
+        }
+      }
+    } catch (IOException e) {
+      server.handleDisconnect(session);
+    }
+  }
+
+  /**
+   * Wait for events, but no longer than until the first delayed write is due.
+   */
+  private void selectUntilNextDeadline() throws IOException {
+    ChannelSession first = delayedWrites.peek();
+    if (first == null) {
+      selector.select();
+      return;
+    }
+    long remaining = first.getWriteDeadline() - System.nanoTime();
+    if (remaining <= 0) {
+      selector.selectNow();
+    } else {
+      selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+    }
+  }
+
+  private void enableWrite(ChannelSession session) {
+    SelectionKey key = session.getKey();
+    if (key == null || !key.isValid()) {
+      //the session has been closed, so the frames of its current batch are never written
+      session.releaseBatch();
+      return;
+    }
+    if (session.getOutbound().isClosed()) {
+      //the output has been shut down, write the rest right away such that the session reports
+      //when it is flushed, even if nothing is queued
+      key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      return;
+    }
+    if (!session.hasPendingWrites() || (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+      return;
+    }
+    if (writeDelayNanos > 0 && session.getOutbound().getQueuedBytes() < writeBatchBytes) {
+      //give the batch a moment to fill up, unless it is already large enough
+      if (!session.isWriteDelayed()) {
+        session.delayWrite(System.nanoTime() + writeDelayNanos);
+        delayedWrites.add(session);
+      }
+      return;
+    }
+    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+  }
+
+  /**
+   * Enable writing for the sessions whose write delay has passed. All sessions are delayed by the
+   * same amount, so the queue is ordered by deadline.
+   */
+  private void enableExpiredWrites() {
+    long now = System.nanoTime();
+    ChannelSession session;
+    while ((session = delayedWrites.peek()) != null && session.getWriteDeadline() - now <= 0) {
+      delayedWrites.poll();
+      session.clearWriteDelay();
+      SelectionKey key = session.getKey();
+      if (key != null && key.isValid() && session.hasPendingWrites()) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+    }
+  }
+
+  /**
+   * Close the listening channel, such that no further clients are accepted. The connected clients
+   * are still served.
+   *
+   * @throws IOException if the channel cannot be closed.
+   */
+  void stopAccepting() throws IOException {
+    serverChannel.close();
+    selector.wakeup();
+  }
+
+  /**
+   * Stop the event loop and close the listening channel as well as all client channels.
+   *
+   * @throws IOException if a channel cannot be closed.
+   */
+  void stop() throws IOException {
+    running = false;
+    selector.wakeup();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    //nothing is written anymore, neither for the sessions that have been closed after the last
+    //iteration of the loop nor for the ones that are still open
+    ChannelSession requested;
+    while ((requested = writeRequests.poll()) != null) {
+      requested.releaseBatch();
+    }
+    for (SelectionKey key : selector.keys()) {
+      if (key.attachment() instanceof ChannelSession session) {
+        session.releaseBatch();
+      }
+      key.channel().close();
+    }
+    serverChannel.close();
+    selector.close();
+  }
+}
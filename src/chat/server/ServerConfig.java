@@ -0,0 +1,472 @@
+package chat.server;
+
+import chat.protocol.FrameDecoder;
+import java.nio.file.Path;
+
+/**
+ * The tunable settings of the chat server. Every setting has a default, so a new configuration
+ * can be used right away and only the interesting values need to be changed.
+ */
+public class ServerConfig {
+
+  private ExecutionMode mode = ExecutionMode.PLATFORM_THREADS;
+  private int outboundMaxMessages = 1024;
+  private int outboundMaxBytes = 1024 * 1024;
+  private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP_OLDEST;
+  private int compressionThreshold = 1024;
+  private int writeBatchFrames = 64;
+  private int writeBatchBytes = 64 * 1024;
+  private int writeBatchDelayMillis;
+  private int historyMessages = 50;
+  private int historyBytes = 64 * 1024;
+  private int resumeWindowMillis = 30_000;
+  private int presenceBatchMillis = 50;
+  private int presenceBatchMaxMillis = 1000;
+  private int pingIntervalMillis = 15_000;
+  private int idleTimeoutMillis = 45_000;
+  private int shutdownDrainMillis = 5000;
+  private int maxMessagesPerSecond = 20;
+  private int maxBytesPerSecond = 64 * 1024;
+  private int maxConnections = 10_000;
+  private int maxLoginsPerSecond = 200;
+  private int maxFrameBytes = FrameDecoder.DEFAULT_MAX_FRAME_LENGTH;
+  private int metricsPort;
+  private boolean jmxEnabled = true;
+  private Path journalDirectory;
+  private int journalSegmentBytes = 16 * 1024 * 1024;
+  private int journalRetentionSegments = 16;
+  private JournalSyncPolicy journalSyncPolicy = JournalSyncPolicy.GROUP_COMMIT;
+  private int journalSyncIntervalMillis = 100;
+
+  /**
+   * Create a configuration from command-line arguments of the form {@code --name=value}.
+   * Arguments that are not given keep their default value.
+   *
+   * @param args the command-line arguments.
+   * @return the configuration.
+   * @throws IllegalArgumentException if an argument is unknown or its value is invalid.
+   */
+  public static ServerConfig fromArgs(String[] args) {
+    ServerConfig config = new ServerConfig();
+    for (String arg : args) {
+      int separator = arg.indexOf('=');
+      if (!arg.startsWith("--") || separator < 0) {
+        throw new IllegalArgumentException(String.format("Malformed option '%s'", arg));
+      }
+      String value = arg.substring(separator + 1);
+      switch (arg.substring(2, separator)) {
+        case "mode" -> config.setMode(ExecutionMode.fromOptionName(value));
+        case "queue-max-messages" -> config.setOutboundMaxMessages(Integer.parseInt(value));
+        case "queue-max-bytes" -> config.setOutboundMaxBytes(Integer.parseInt(value));
+        case "slow-consumer" ->
+            config.setSlowConsumerPolicy(SlowConsumerPolicy.fromOptionName(value));
+        case "compression-threshold" -> config.setCompressionThreshold(Integer.parseInt(value));
+        case "write-batch-frames" -> config.setWriteBatchFrames(Integer.parseInt(value));
+        case "write-batch-bytes" -> config.setWriteBatchBytes(Integer.parseInt(value));
+        case "write-batch-delay-ms" -> config.setWriteBatchDelayMillis(Integer.parseInt(value));
+        case "history-messages" -> config.setHistoryMessages(Integer.parseInt(value));
+        case "history-bytes" -> config.setHistoryBytes(Integer.parseInt(value));
+        case "resume-window-ms" -> config.setResumeWindowMillis(Integer.parseInt(value));
+        case "presence-batch-ms" -> config.setPresenceBatchMillis(Integer.parseInt(value));
+        case "presence-batch-max-ms" ->
+            config.setPresenceBatchMaxMillis(Integer.parseInt(value));
+        case "ping-interval-ms" -> config.setPingIntervalMillis(Integer.parseInt(value));
+        case "idle-timeout-ms" -> config.setIdleTimeoutMillis(Integer.parseInt(value));
+        case "shutdown-drain-ms" -> config.setShutdownDrainMillis(Integer.parseInt(value));
+        case "max-messages-per-second" ->
+            config.setMaxMessagesPerSecond(Integer.parseInt(value));
+        case "max-bytes-per-second" -> config.setMaxBytesPerSecond(Integer.parseInt(value));
+        case "max-connections" -> config.setMaxConnections(Integer.parseInt(value));
+        case "max-logins-per-second" -> config.setMaxLoginsPerSecond(Integer.parseInt(value));
+        case "max-frame-bytes" -> config.setMaxFrameBytes(Integer.parseInt(value));
+        case "metrics-port" -> config.setMetricsPort(Integer.parseInt(value));
+        case "jmx" -> config.setJmxEnabled(Boolean.parseBoolean(value));
+        case "journal-dir" -> config.setJournalDirectory(Path.of(value));
+        case "journal-segment-bytes" -> config.setJournalSegmentBytes(Integer.parseInt(value));
+        case "journal-retention-segments" ->
+            config.setJournalRetentionSegments(Integer.parseInt(value));
+        case "journal-sync" -> config.setJournalSyncPolicy(JournalSyncPolicy.fromOptionName(value));
+        case "journal-sync-interval-ms" ->
+            config.setJournalSyncIntervalMillis(Integer.parseInt(value));
+        default -> throw new IllegalArgumentException(String.format("Unknown option '%s'", arg));
+      }
+    }
+    return config;
+  }
+
+  public ExecutionMode getMode() {
+    return mode;
+  }
+
+  public void setMode(ExecutionMode mode) {
+    this.mode = mode;
+  }
+
+  /**
+   * Get the high-water mark for the number of frames waiting to be written to a single client.
+   *
+   * @return the maximum number of queued frames.
+   */
+  public int getOutboundMaxMessages() {
+    return outboundMaxMessages;
+  }
+
+  public void setOutboundMaxMessages(int outboundMaxMessages) {
+    this.outboundMaxMessages = outboundMaxMessages;
+  }
+
+  /**
+   * Get the high-water mark for the number of bytes waiting to be written to a single client.
+   *
+   * @return the maximum number of queued bytes.
+   */
+  public int getOutboundMaxBytes() {
+    return outboundMaxBytes;
+  }
+
+  public void setOutboundMaxBytes(int outboundMaxBytes) {
+    this.outboundMaxBytes = outboundMaxBytes;
+  }
+
+  /**
+   * Get what happens when the outbound queue of a client exceeds one of its high-water marks.
+   *
+   * @return the policy for slow clients.
+   */
+  public SlowConsumerPolicy getSlowConsumerPolicy() {
+    return slowConsumerPolicy;
+  }
+
+  public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+    this.slowConsumerPolicy = slowConsumerPolicy;
+  }
+
+  /**
+   * Get the size from which frames are compressed for clients that negotiated compression.
+   *
+   * @return the threshold in bytes, or {@code 0} if the server does not offer compression.
+   */
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  public void setCompressionThreshold(int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  /**
+   * Get the largest number of queued frames that are written to a client with a single write.
+   *
+   * @return the maximum number of frames per write.
+   */
+  public int getWriteBatchFrames() {
+    return writeBatchFrames;
+  }
+
+  public void setWriteBatchFrames(int writeBatchFrames) {
+    this.writeBatchFrames = writeBatchFrames;
+  }
+
+  /**
+   * Get the number of bytes from which a batch of frames is written right away. A batch contains
+   * at least one frame, so a single larger frame still gets written.
+   *
+   * @return the maximum number of bytes per write.
+   */
+  public int getWriteBatchBytes() {
+    return writeBatchBytes;
+  }
+
+  public void setWriteBatchBytes(int writeBatchBytes) {
+    this.writeBatchBytes = writeBatchBytes;
+  }
+
+  /**
+   * Get how long the writer of a client waits for further frames before it writes a batch that is
+   * not full yet. Waiting trades latency for fewer, larger writes during bursts.
+   *
+   * @return the delay in milliseconds, or {@code 0} to write whatever is queued right away.
+   */
+  public int getWriteBatchDelayMillis() {
+    return writeBatchDelayMillis;
+  }
+
+  public void setWriteBatchDelayMillis(int writeBatchDelayMillis) {
+    this.writeBatchDelayMillis = writeBatchDelayMillis;
+  }
+
+  /**
+   * Get the number of recent chat messages per room that a client receives when it logs in or
+   * joins the room.
+   *
+   * @return the number of messages in the backfill, or {@code 0} to send no backfill.
+   */
+  public int getHistoryMessages() {
+    return historyMessages;
+  }
+
+  public void setHistoryMessages(int historyMessages) {
+    this.historyMessages = historyMessages;
+  }
+
+  /**
+   * Get the largest size of the recent chat messages that are kept per room for the backfill.
+   *
+   * @return the size of the backfill in characters of the nicknames and contents of the messages.
+   */
+  public int getHistoryBytes() {
+    return historyBytes;
+  }
+
+  public void setHistoryBytes(int historyBytes) {
+    this.historyBytes = historyBytes;
+  }
+
+  /**
+   * Get how long the server keeps the session of a client whose connection has been lost, such
+   * that the client can resume it and only gets the messages it has missed.
+   *
+   * @return the resume window in milliseconds, or {@code 0} if sessions cannot be resumed.
+   */
+  public int getResumeWindowMillis() {
+    return resumeWindowMillis;
+  }
+
+  public void setResumeWindowMillis(int resumeWindowMillis) {
+    this.resumeWindowMillis = resumeWindowMillis;
+  }
+
+  /**
+   * Get how long the users that come online or go offline are collected before the clients get
+   * them, while the server is quiet. Clients that keep a roster get them as a single delta.
+   *
+   * @return the smallest batch window in milliseconds, or {@code 0} to send every change right
+   *         away.
+   */
+  public int getPresenceBatchMillis() {
+    return presenceBatchMillis;
+  }
+
+  public void setPresenceBatchMillis(int presenceBatchMillis) {
+    this.presenceBatchMillis = presenceBatchMillis;
+  }
+
+  /**
+   * Get the largest batch window for presence changes, which is used when many clients log in or
+   * leave at the same time, e.g. after a restart of the server.
+   *
+   * @return the largest batch window in milliseconds.
+   */
+  public int getPresenceBatchMaxMillis() {
+    return presenceBatchMaxMillis;
+  }
+
+  public void setPresenceBatchMaxMillis(int presenceBatchMaxMillis) {
+    this.presenceBatchMaxMillis = presenceBatchMaxMillis;
+  }
+
+  /**
+   * Get how long a client may stay silent before the server sends it a ping. Only clients that
+   * announce the ping feature at login are pinged.
+   *
+   * @return the ping interval in milliseconds, or {@code 0} to disable the heartbeat.
+   */
+  public int getPingIntervalMillis() {
+    return pingIntervalMillis;
+  }
+
+  public void setPingIntervalMillis(int pingIntervalMillis) {
+    this.pingIntervalMillis = pingIntervalMillis;
+  }
+
+  /**
+   * Get how long a client may stay silent, despite being pinged, before the server considers the
+   * connection dead and closes it. Clients that do not announce the ping feature at login are
+   * never closed for being silent.
+   *
+   * @return the idle timeout in milliseconds, or {@code 0} to disable the heartbeat.
+   */
+  public int getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  public void setIdleTimeoutMillis(int idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+  }
+
+  /**
+   * Get how long a stopping server waits for the queued messages to be written to the clients
+   * before it closes their connections.
+   *
+   * @return the drain deadline in milliseconds.
+   */
+  public int getShutdownDrainMillis() {
+    return shutdownDrainMillis;
+  }
+
+  public void setShutdownDrainMillis(int shutdownDrainMillis) {
+    this.shutdownDrainMillis = shutdownDrainMillis;
+  }
+
+  /**
+   * Get how many messages a client may send per second. A client may exceed the rate for a short
+   * burst of up to one second worth of messages. Acknowledgements, pongs, logins and logoffs do
+   * not count.
+   *
+   * @return the message rate, or {@code 0} for no limit.
+   */
+  public int getMaxMessagesPerSecond() {
+    return maxMessagesPerSecond;
+  }
+
+  public void setMaxMessagesPerSecond(int maxMessagesPerSecond) {
+    this.maxMessagesPerSecond = maxMessagesPerSecond;
+  }
+
+  /**
+   * Get how many bytes of the messages that count towards the message rate a client may send per
+   * second.
+   *
+   * @return the byte rate, or {@code 0} for no limit.
+   */
+  public int getMaxBytesPerSecond() {
+    return maxBytesPerSecond;
+  }
+
+  public void setMaxBytesPerSecond(int maxBytesPerSecond) {
+    this.maxBytesPerSecond = maxBytesPerSecond;
+  }
+
+  /**
+   * Get how many clients may be connected at the same time. Further clients are refused.
+   *
+   * @return the connection limit, or {@code 0} for no limit.
+   */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * Get how many logins all clients together may attempt per second, e.g. while all clients
+   * reconnect after a restart. A client whose login is refused is disconnected and tries again.
+   *
+   * @return the login rate, or {@code 0} for no limit.
+   */
+  public int getMaxLoginsPerSecond() {
+    return maxLoginsPerSecond;
+  }
+
+  public void setMaxLoginsPerSecond(int maxLoginsPerSecond) {
+    this.maxLoginsPerSecond = maxLoginsPerSecond;
+  }
+
+  /**
+   * Get the largest frame a client may send, which also bounds the read buffer of every
+   * connection. A client that sends a larger frame is disconnected.
+   *
+   * @return the frame limit in bytes, before and after decompression.
+   */
+  public int getMaxFrameBytes() {
+    return maxFrameBytes;
+  }
+
+  public void setMaxFrameBytes(int maxFrameBytes) {
+    this.maxFrameBytes = maxFrameBytes;
+  }
+
+  /**
+   * Get the port on which the server serves its metrics as plain text under {@code /metrics}.
+   *
+   * @return the port, or {@code 0} to not serve the metrics over HTTP.
+   */
+  public int getMetricsPort() {
+    return metricsPort;
+  }
+
+  public void setMetricsPort(int metricsPort) {
+    this.metricsPort = metricsPort;
+  }
+
+  /**
+   * Check whether the server publishes its metrics as an MBean.
+   *
+   * @return {@code true} if the metrics are available via JMX.
+   */
+  public boolean isJmxEnabled() {
+    return jmxEnabled;
+  }
+
+  public void setJmxEnabled(boolean jmxEnabled) {
+    this.jmxEnabled = jmxEnabled;
+  }
+
+  /**
+   * Get the directory of the journal that records the broadcast chat messages.
+   *
+   * @return the journal directory, or {@code null} if the server keeps no journal.
+   */
+  public Path getJournalDirectory() {
+    return journalDirectory;
+  }
+
+  public void setJournalDirectory(Path journalDirectory) {
+    this.journalDirectory = journalDirectory;
+  }
+
+  /**
+   * Get the size of a single journal file. A new file is started when the current one is full.
+   *
+   * @return the segment size in bytes.
+   */
+  public int getJournalSegmentBytes() {
+    return journalSegmentBytes;
+  }
+
+  public void setJournalSegmentBytes(int journalSegmentBytes) {
+    this.journalSegmentBytes = journalSegmentBytes;
+  }
+
+  /**
+   * Get the number of journal files that are kept. The oldest file is deleted when a new one is
+   * started beyond this limit.
+   *
+   * @return the number of retained segments.
+   */
+  public int getJournalRetentionSegments() {
+    return journalRetentionSegments;
+  }
+
+  public void setJournalRetentionSegments(int journalRetentionSegments) {
+    this.journalRetentionSegments = journalRetentionSegments;
+  }
+
+  /**
+   * Get when the appended messages are forced from the page cache to the storage device.
+   *
+   * @return the sync policy of the journal.
+   */
+  public JournalSyncPolicy getJournalSyncPolicy() {
+    return journalSyncPolicy;
+  }
+
+  public void setJournalSyncPolicy(JournalSyncPolicy journalSyncPolicy) {
+    this.journalSyncPolicy = journalSyncPolicy;
+  }
+
+  /**
+   * Get the interval in which the group commit forces the journal.
+   *
+   * @return the sync interval in milliseconds.
+   */
+  public int getJournalSyncIntervalMillis() {
+    return journalSyncIntervalMillis;
+  }
+
+  public void setJournalSyncIntervalMillis(int journalSyncIntervalMillis) {
+    this.journalSyncIntervalMillis = journalSyncIntervalMillis;
+  }
+}
@@ -0,0 +1,219 @@
+package chat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The instrumentation of the server. Counters are striped and histograms are lock-free, so the
+ * message handling records its metrics without ever waiting for another thread. Gauges such as
+ * the number of sessions or the queue depths are only computed when the metrics are read.
+ *
+ * <p>The metrics are published as an MBean and, if a metrics port is configured, as plain text
+ * in the exposition format of Prometheus; see {@link #toText()}.
+ */
+public final class ServerMetrics implements ServerMetricsMBean {
+
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+
+  private final ServerNetworkConnection server;
+  private final LongAdder inboundFrames = new LongAdder();
+  private final LongAdder inboundBytes = new LongAdder();
+  private final LongAdder broadcasts = new LongAdder();
+  private final LongAdder droppedDeliveries = new LongAdder();
+  private final LongAdder forcedDisconnects = new LongAdder();
+  private final LongAdder rateLimitedFrames = new LongAdder();
+  private final LongAdder refusedConnections = new LongAdder();
+  private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+  private final LatencyHistogram fanoutTime = new LatencyHistogram();
+
+  /**
+   * Construct the metrics of a server.
+   *
+   * @param server the server whose sessions are inspected for the gauges.
+   */
+  ServerMetrics(ServerNetworkConnection server) {
+    this.server = server;
+  }
+
+  /**
+   * Record a frame that has been received from a client.
+   *
+   * @param bytes the size of the frame.
+   */
+  void frameReceived(int bytes) {
+    inboundFrames.increment();
+    inboundBytes.add(bytes);
+  }
+
+  /**
+   * Start tracking a chat message that is broadcast, such that the time until the last recipient
+   * has been written to is recorded.
+   *
+   * @param receivedNanos the {@link System#nanoTime()} at which the message has been received.
+   * @return the tracker to queue the frames with.
+   */
+  Delivery newDelivery(long receivedNanos) {
+    return new Delivery(receivedNanos, deliveryLatency, droppedDeliveries);
+  }
+
+  /**
+   * Record that a chat message has been queued for all its recipients.
+   *
+   * @param fanoutNanos how long queuing the message took.
+   */
+  void broadcastQueued(long fanoutNanos) {
+    broadcasts.increment();
+    fanoutTime.record(fanoutNanos);
+  }
+
+  void forcedDisconnect() {
+    forcedDisconnects.increment();
+  }
+
+  void rateLimited() {
+    rateLimitedFrames.increment();
+  }
+
+  void connectionRefused() {
+    refusedConnections.increment();
+  }
+
+  @Override
+  public long getInboundFrames() {
+    return inboundFrames.sum();
+  }
+
+  @Override
+  public long getInboundBytes() {
+    return inboundBytes.sum();
+  }
+
+  @Override
+  public long getOutboundBytes() {
+    return server.getOutboundBytes();
+  }
+
+  @Override
+  public int getActiveSessions() {
+    return server.getActiveSessions();
+  }
+
+  @Override
+  public long getQueuedFrames() {
+    return server.getQueuedFrames();
+  }
+
+  @Override
+  public int getMaxQueueDepth() {
+    return server.getMaxQueueDepth();
+  }
+
+  @Override
+  public long getBroadcasts() {
+    return broadcasts.sum();
+  }
+
+  @Override
+  public long getDeliveryLatencyP50Micros() {
+    return deliveryLatency.getPercentileMicros(50);
+  }
+
+  @Override
+  public long getDeliveryLatencyP99Micros() {
+    return deliveryLatency.getPercentileMicros(99);
+  }
+
+  @Override
+  public long getDeliveryLatencyP999Micros() {
+    return deliveryLatency.getPercentileMicros(99.9);
+  }
+
+  @Override
+  public long getDeliveryLatencyMaxMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(deliveryLatency.getMaxNanos());
+  }
+
+  @Override
+  public long getDroppedDeliveries() {
+    return droppedDeliveries.sum();
+  }
+
+  @Override
+  public long getFanoutP50Micros() {
+    return fanoutTime.getPercentileMicros(50);
+  }
+
+  @Override
+  public long getFanoutP99Micros() {
+    return fanoutTime.getPercentileMicros(99);
+  }
+
+  @Override
+  public long getFanoutMaxMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(fanoutTime.getMaxNanos());
+  }
+
+  @Override
+  public long getForcedDisconnects() {
+    return forcedDisconnects.sum();
+  }
+
+  @Override
+  public long getRateLimitedFrames() {
+    return rateLimitedFrames.sum();
+  }
+
+  @Override
+  public long getRefusedConnections() {
+    return refusedConnections.sum();
+  }
+
+  /**
+   * Render all metrics in the text exposition format of Prometheus. Durations are given in
+   * seconds, as the format demands.
+   *
+   * @return one line per sample, preceded by the type of the metric.
+   */
+  public String toText() {
+    StringBuilder text = new StringBuilder();
+    counter(text, "chat_inbound_frames_total", getInboundFrames());
+    counter(text, "chat_inbound_bytes_total", getInboundBytes());
+    counter(text, "chat_outbound_bytes_total", getOutboundBytes());
+    counter(text, "chat_broadcasts_total", getBroadcasts());
+    counter(text, "chat_dropped_deliveries_total", getDroppedDeliveries());
+    counter(text, "chat_forced_disconnects_total", getForcedDisconnects());
+    counter(text, "chat_rate_limited_frames_total", getRateLimitedFrames());
+    counter(text, "chat_refused_connections_total", getRefusedConnections());
+    gauge(text, "chat_active_sessions", getActiveSessions());
+    gauge(text, "chat_queued_frames", getQueuedFrames());
+    gauge(text, "chat_max_queue_depth", getMaxQueueDepth());
+    summary(text, "chat_delivery_latency_seconds", deliveryLatency);
+    summary(text, "chat_fanout_seconds", fanoutTime);
+    return text.toString();
+  }
+
+  private static void counter(StringBuilder text, String name, long value) {
+    text.append("# TYPE ").append(name).append(" counter\n");
+    text.append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void gauge(StringBuilder text, String name, long value) {
+    text.append("# TYPE ").append(name).append(" gauge\n");
+    text.append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void summary(StringBuilder text, String name, LatencyHistogram histogram) {
+    text.append("# TYPE ").append(name).append(" summary\n");
+    for (int index = 0; index < PERCENTILES.length; index++) {
+      text.append(name).append("{quantile=\"").append(QUANTILES[index]).append("\"} ")
+          .append(seconds(histogram.getPercentileNanos(PERCENTILES[index]))).append('\n');
+    }
+    text.append(name).append("_sum ").append(seconds(histogram.getTotalNanos())).append('\n');
+    text.append(name).append("_count ").append(histogram.getCount()).append('\n');
+  }
+
+  private static double seconds(long nanos) {
+    return nanos / 1e9;
+  }
+}
@@ -0,0 +1,45 @@
+package chat.server;
+
+/**
+ * The management interface of the {@link ServerMetrics}, under which the server publishes its
+ * metrics via JMX. Counters grow from the start of the server on; durations are given in
+ * microseconds.
+ */
+public interface ServerMetricsMBean {
+
+  long getInboundFrames();
+
+  long getInboundBytes();
+
+  long getOutboundBytes();
+
+  int getActiveSessions();
+
+  long getQueuedFrames();
+
+  int getMaxQueueDepth();
+
+  long getBroadcasts();
+
+  long getDeliveryLatencyP50Micros();
+
+  long getDeliveryLatencyP99Micros();
+
+  long getDeliveryLatencyP999Micros();
+
+  long getDeliveryLatencyMaxMicros();
+
+  long getDroppedDeliveries();
+
+  long getFanoutP50Micros();
+
+  long getFanoutP99Micros();
+
+  long getFanoutMaxMicros();
+
+  long getForcedDisconnects();
+
+  long getRateLimitedFrames();
+
+  long getRefusedConnections();
+}
@@ -1,19 +1,33 @@
 package chat.server;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
-import java.io.BufferedReader;
+import chat.protocol.BinaryCodec;
+import chat.protocol.DeliveryStatus;
+import chat.protocol.ErrorCode;
+import chat.protocol.FrameDecoder;
+import chat.protocol.FrameTooLargeException;
+import chat.protocol.MessageType;
+import chat.protocol.WireMessage;
+import chat.protocol.WireProtocol;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.net.ProtocolException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Objects;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * The network layer of the chat server. Takes care of processing both the connection requests and
@@ -21,167 +35,1039 @@ import org.json.JSONObject;
  */
 public class ServerNetworkConnection {
   private static final int PORT = 8080;
+  private static final int MAX_HISTORY_PAGE = 100;
+  private static final int MAX_REPLAY = 1000;
+  private static final Frame PING = Frame.of(MessageType.PING);
+  private static final Frame PONG = Frame.of(MessageType.PONG);
+  private static final Frame RATE_LIMITED =
+      Frame.of(new WireMessage(MessageType.ERROR).setError(ErrorCode.RATE_LIMITED));
+  private static final Frame FRAME_TOO_LARGE =
+      Frame.of(new WireMessage(MessageType.ERROR).setError(ErrorCode.FRAME_TOO_LARGE));
+  private final ServerConfig config;
+  private final AtomicInteger sessionCounter = new AtomicInteger();
+  private final AtomicLong closedSessionsCompressionSavedBytes = new AtomicLong();
+  private final AtomicLong closedSessionsWrittenBytes = new AtomicLong();
+  private final ServerMetrics metrics = new ServerMetrics(this);
+  private MetricsEndpoint metricsEndpoint;
+  private ObjectName metricsName;
   private ServerSocket serverSocket;
-  private HashMap<Integer, Socket> socketHashMap;
-  private JSONObject jsonObject;
-  private HashSet<String> usedNickname;
-  private String officialUsername;
-  private Object lock = new Object();
+  private Thread acceptThread;
+  private ExecutorService clientExecutor;
+  private SelectorLoop selectorLoop;
+  private final SessionRegistry registry = new SessionRegistry();
+  private final RoomRegistry rooms = new RoomRegistry();
+  private final MessageHistory history;
+  private final ResumableSessions resumable;
+  private final PresenceBatcher presence;
+  private final TokenBucket logins;
+  private HeartbeatMonitor heartbeat;
+  private MessageJournal journal;
+  private volatile boolean stopping;
 
 
   /**
-   * Construct a ServerNetworkConnect.
+   * Construct a ServerNetworkConnect that serves every client with its own thread.
    */
   public ServerNetworkConnection() {
-    usedNickname = new HashSet<>();
-    socketHashMap = new HashMap<>();
+    this(ExecutionMode.PLATFORM_THREADS);
+  }
+
+  /**
+   * Construct a ServerNetworkConnect.
+   *
+   * @param mode the way in which the connected clients are served.
+   */
+  public ServerNetworkConnection(ExecutionMode mode) {
+    this(configWithMode(mode));
+  }
+
+  /**
+   * Construct a ServerNetworkConnect.
+   *
+   * @param config the settings of the server.
+   */
+  public ServerNetworkConnection(ServerConfig config) {
+    this.config = config;
+    history = new MessageHistory(config.getHistoryMessages(), config.getHistoryBytes());
+    resumable = new ResumableSessions(config.getResumeWindowMillis());
+    presence = new PresenceBatcher(config.getPresenceBatchMillis(),
+        config.getPresenceBatchMaxMillis(), this::publishPresence);
+    logins = config.getMaxLoginsPerSecond() > 0
+        ? new TokenBucket(config.getMaxLoginsPerSecond()) : null;
   }
 
   /**
    * Start the network-connection such that clients can establish a connection to this server.
    */
   public void start() throws IOException {
+    if (config.getJournalDirectory() != null) {
+      journal = new MessageJournal(config);
+      journal.open();
+      history.recover(journal);
+    }
+    if (config.getPingIntervalMillis() > 0 && config.getIdleTimeoutMillis() > 0) {
+      heartbeat = new HeartbeatMonitor(config.getPingIntervalMillis(),
+          config.getIdleTimeoutMillis(), registry::contains,
+          session -> session.send(PING), this::expireIdleSession);
+      heartbeat.start();
+    }
+    publishMetrics();
+    ExecutionMode mode = config.getMode();
+    if (mode == ExecutionMode.SELECTOR) {
+      selectorLoop = new SelectorLoop(this, PORT);
+      selectorLoop.start();
+      return;
+    }
+
     serverSocket = new ServerSocket(PORT);
+    clientExecutor = mode == ExecutionMode.VIRTUAL_THREADS
+        ? newVirtualThreadExecutor() : Executors.newCachedThreadPool();
 
-    Thread thread = new Thread() {
+    acceptThread = new Thread() {
       public void run() {
-        int counter = 0;
-        while (true) {
+        while (!serverSocket.isClosed()) {
           try {
             Socket clientSocket = serverSocket.accept();
-            int socketCounter = counter++;
-
-            //only allow one thread to access the hashmap of client sockets
-            //prevent consistency problems.
-            synchronized (lock) {
-              socketHashMap.put(socketCounter, clientSocket);
-            }
-            Thread clientThread = new Thread() {
-              public void run() {
-                try {
-                  BufferedReader reader = new BufferedReader(new InputStreamReader(
-                      clientSocket.getInputStream(), UTF_8));
-                  OutputStreamWriter writer = new OutputStreamWriter(
-                      clientSocket.getOutputStream(), UTF_8);
-
-                  while (!clientSocket.isClosed()) {
-                    String readLine = reader.readLine();
-
-                    jsonObject = new JSONObject(readLine);
-                    String getType = (String) jsonObject.get("type");
-                    //client might send different kinds of messages to serve
-                    //make sure that the message is a login message
-                    if (Objects.equals(getType, "login")) {
-                      String loginNickname = (String) jsonObject.get("nick");
-
-                      //only allow one thread to access the set of used nickname
-                      //and the hashmap of client sockets
-                      //prevent consistency problems
-                      synchronized (lock) {
-                        if (!usedNickname.contains(loginNickname)) {
-                          //login is successful, add new nickname to the list of used nickname
-                          //assign the login nickname to the official username
-                          usedNickname.add(loginNickname);
-                          officialUsername = loginNickname;
-                          jsonObject = new JSONObject();
-                          jsonObject.put("type", "login success");
-                          writer.write(jsonObject + System.lineSeparator());
-                          writer.flush();
-
-                          //the server sends to all other clients messages to inform that
-                          //a new participant has joined.
-                          for (HashMap.Entry<Integer, Socket> socketSet :
-                              socketHashMap.entrySet()) {
-                            if (socketSet.getKey() != socketCounter) {
-                              Socket remainClientSocket = socketSet.getValue();
-                              writer = new OutputStreamWriter(
-                                  remainClientSocket.getOutputStream(), UTF_8);
-                              jsonObject = new JSONObject();
-                              jsonObject.put("type", "user joined");
-                              jsonObject.put("nick", officialUsername);
-                              writer.write(jsonObject + System.lineSeparator());
-                              writer.flush();
-                            }
-
-                          }
-
-                        } else {
-                          //if the login nickname is used, login in failed
-                          jsonObject = new JSONObject();
-                          jsonObject.put("type", "login failed");
-                          writer.write(jsonObject + System.lineSeparator());
-                          writer.flush();
-                        }
-                      }
-                    }
-
-                    //this client's message is posted to other clients
-                    if (Objects.equals(getType, "post message")) {
-                      String content = (String) jsonObject.get("content");
-                      for (HashMap.Entry<Integer, Socket> socketSet : socketHashMap.entrySet()) {
-                        if (socketSet.getKey() != socketCounter) {
-                          Socket remainClientSocket = socketSet.getValue();
-                          writer = new OutputStreamWriter(
-                              remainClientSocket.getOutputStream(), UTF_8);
-                          jsonObject = new JSONObject();
-                          jsonObject.put("type", "message");
-                          jsonObject.put("time", new Date());
-                          jsonObject.put("nick", officialUsername);
-                          jsonObject.put("content", content);
-                          writer.write(jsonObject + System.lineSeparator());
-                          writer.flush();
-                        }
-                      }
-                    }
-
-                    synchronized (lock) {
-                      //the client ask the server to close the corresponding client socket
-                      //close the client socket
-                      //remove the socket from the hashmap of client sockets
-                      //remove the client's username from the set of used nickname
-                      if (Objects.equals(getType, "close client socket")) {
-                        String leftUser = (String) jsonObject.get("nick");
-
-                        for (HashMap.Entry<Integer, Socket> socketSet : socketHashMap.entrySet()) {
-                          if (socketSet.getKey() != socketCounter) {
-                            System.out.print("Attention!" + socketSet + "\n");
-                            jsonObject = new JSONObject();
-                            jsonObject.put("type", "user left");
-                            jsonObject.put("nick", leftUser);
-                            Socket remainClientSocket = socketSet.getValue();
-                            writer = new OutputStreamWriter(
-                                remainClientSocket.getOutputStream(), UTF_8);
-                            writer.write(jsonObject + System.lineSeparator());
-                            writer.flush();
-                          }
-                        }
-                        usedNickname.remove(leftUser);
-                        clientSocket.close();
-                        socketHashMap.remove(socketCounter);
-                      }
-                    }
-                  }
-                } catch (IOException | JSONException e) {
-                  e.printStackTrace();
-                }
-              }
-
-            };
-
-            clientThread.start();
+            SocketSession session = new SocketSession(nextSessionId(), clientSocket, config);
+            register(session);
+            clientExecutor.execute(() -> serve(session));
+            clientExecutor.execute(() -> drain(session));
           } catch (IOException e) {
-            e.printStackTrace();
+            if (!serverSocket.isClosed()) {
+              e.printStackTrace();
+            }
           }
         }
       }
     };
-    thread.start();
+    acceptThread.start();
+  }
+
+  /**
+   * Publish the metrics as an MBean and on the metrics port, as configured. A server whose MBean
+   * cannot be registered, e.g. because another server in the same JVM has registered it, still
+   * serves its clients.
+   *
+   * @throws IOException if the metrics port cannot be bound.
+   */
+  private void publishMetrics() throws IOException {
+    if (config.isJmxEnabled()) {
+      try {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("chat.server:type=ServerMetrics");
+        mbeanServer.registerMBean(metrics, name);
+        metricsName = name;
+      } catch (JMException e) {
+        System.err.println("The metrics cannot be published via JMX: " + e);
+      }
+    }
+    if (config.getMetricsPort() > 0) {
+      metricsEndpoint = new MetricsEndpoint(metrics);
+      metricsEndpoint.start(config.getMetricsPort());
+    }
   }
 
   /**
-   * Stop the network-connection.
+   * Create an executor that starts a new virtual thread for every task. Virtual threads are only
+   * available from Java 21 on, so the factory is looked up at runtime and the server falls back to
+   * a pool of platform threads on older JVMs.
+   *
+   * @return the executor for the client handlers.
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      System.err.println("Virtual threads are not supported by this JVM, "
+          + "falling back to platform threads.");
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  /**
+   * Read the messages of a blocking client until its socket is closed.
+   *
+   * @param session the session of the client.
+   */
+  private void serve(SocketSession session) {
+    Socket clientSocket = session.getSocket();
+    try {
+      InputStream in = clientSocket.getInputStream();
+      FrameDecoder decoder = session.getDecoder();
+
+      while (!clientSocket.isClosed()) {
+        if (!decoder.readFrame(in)) {
+          //the client closed its end of the connection without logging off
+          handleDisconnect(session);
+          return;
+        }
+        handleFrame(session);
+      }
+    } catch (FrameTooLargeException e) {
+      frameTooLarge(session);
+    } catch (IOException e) {
+      if (!clientSocket.isClosed()) {
+        e.printStackTrace();
+        handleDisconnect(session);
+      }
+    } catch (RuntimeException e) {
+      //a bug triggered by one client only costs that client its connection
+      e.printStackTrace();
+      handleDisconnect(session);
+    }
+  }
+
+  /**
+   * Write the outbound queue of a blocking client to its socket until the session is closed.
+   *
+   * @param session the session of the client.
+   */
+  private void drain(SocketSession session) {
+    try {
+      session.writeQueuedFrames();
+      if (session.getOutbound().isClosed() && !session.getSocket().isClosed()) {
+        outputFlushed(session);
+      }
+    } catch (IOException e) {
+      if (!session.getSocket().isClosed()) {
+        e.printStackTrace();
+        handleDisconnect(session);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ServerConfig configWithMode(ExecutionMode mode) {
+    ServerConfig config = new ServerConfig();
+    config.setMode(mode);
+    return config;
+  }
+
+  ServerConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * Get the number of clients that were disconnected because they could not keep up with the
+   * messages that were sent to them.
+   *
+   * @return the number of forced disconnects since the server was started.
+   */
+  public long getForcedDisconnects() {
+    return metrics.getForcedDisconnects();
+  }
+
+  /**
+   * Get the number of frames that were dropped because their senders exceeded their rates.
+   *
+   * @return the number of rate-limited frames since the server was started.
+   */
+  public long getRateLimitedFrames() {
+    return metrics.getRateLimitedFrames();
+  }
+
+  /**
+   * Get the number of connections and logins that were refused because the server was at its
+   * connection limit or too many clients were logging in.
+   *
+   * @return the number of refused clients since the server was started.
+   */
+  public long getRefusedConnections() {
+    return metrics.getRefusedConnections();
+  }
+
+  /**
+   * Get the number of bytes that per-message compression has saved on the wire, summed over all
+   * recipients of all frames.
+   *
+   * @return the saved bytes since the server was started.
+   */
+  public long getCompressionSavedBytes() {
+    long saved = closedSessionsCompressionSavedBytes.get();
+    for (Session session : registry.sessions()) {
+      saved += session.getOutbound().getCompressionSavedBytes();
+    }
+    return saved;
+  }
+
+  /**
+   * Get the instrumentation of the server.
+   *
+   * @return the metrics, which are also published via JMX and the metrics port.
+   */
+  public ServerMetrics getMetrics() {
+    return metrics;
+  }
+
+  int getActiveSessions() {
+    return registry.size();
+  }
+
+  /**
+   * Get the number of frames that wait in the outbound queues of all clients.
+   *
+   * @return the sum of the queue depths.
+   */
+  long getQueuedFrames() {
+    long queued = 0;
+    for (Session session : registry.sessions()) {
+      queued += session.getOutbound().getDepth();
+    }
+    return queued;
+  }
+
+  /**
+   * Get the depth of the fullest outbound queue, which points at the slowest client.
+   *
+   * @return the largest queue depth.
+   */
+  int getMaxQueueDepth() {
+    int max = 0;
+    for (Session session : registry.sessions()) {
+      max = Math.max(max, session.getOutbound().getDepth());
+    }
+    return max;
+  }
+
+  /**
+   * Get the number of bytes that have been written to all clients.
+   *
+   * @return the written bytes since the server was started.
+   */
+  long getOutboundBytes() {
+    long written = closedSessionsWrittenBytes.get();
+    for (Session session : registry.sessions()) {
+      written += session.getWrittenBytes();
+    }
+    return written;
+  }
+
+  int nextSessionId() {
+    return sessionCounter.getAndIncrement();
+  }
+
+  /**
+   * Add a newly connected client to the clients that receive broadcasts.
+   *
+   * @param session the session of the new client.
+   */
+  void register(Session session) {
+    int maxConnections = config.getMaxConnections();
+    if (maxConnections > 0 && registry.size() >= maxConnections) {
+      //the client is not registered at all, so it gets no broadcasts while the error is written
+      refuse(session, ErrorCode.TOO_MANY_CONNECTIONS);
+      return;
+    }
+    registry.add(session);
+  }
+
+  /**
+   * Process the current frame of the decoder of a session. The frame is decoded in place into the
+   * reusable inbound message of the session.
+   *
+   * @param session the session of the client that has sent the message.
+   * @throws ProtocolException if the frame is not a well-formed message.
+   */
+  void handleFrame(Session session) throws ProtocolException {
+    long receivedNanos = System.nanoTime();
+    WireMessage message = session.getInbound();
+    ChatEvents.FrameParse parse = new ChatEvents.FrameParse();
+    parse.begin();
+    session.getDecoder().decode(message);
+    if (parse.shouldCommit()) {
+      parse.nickname = session.getNickname();
+      parse.frameType = String.valueOf(message.getType());
+      parse.bytes = session.getDecoder().frameLength();
+      parse.commit();
+    }
+    metrics.frameReceived(session.getDecoder().frameLength());
+    //any frame shows that the client is alive, including the pong to a ping
+    session.frameReceived();
+    if (session.getOutbound().isClosed()) {
+      //the client has been refused or the server goes down, only the last frames are written
+      return;
+    }
+    MessageType type = message.getType();
+    if (isRateLimited(type) && !session.admitMessage(session.getDecoder().frameLength())) {
+      metrics.rateLimited();
+      session.send(RATE_LIMITED);
+      return;
+    }
+    //client might send different kinds of messages to serve
+    //make sure that the message is a login message
+    if (type == MessageType.LOGIN) {
+      ChatEvents.Login login = new ChatEvents.Login();
+      login.begin();
+      boolean succeeded = handleLogin(session, message);
+      if (login.shouldCommit()) {
+        login.nickname = message.getNickname();
+        login.succeeded = succeeded;
+        login.commit();
+      }
+    }
+
+    //this client's message is posted to other clients
+    if (type == MessageType.POST_MESSAGE) {
+      WireMessage broadcastMessage = new WireMessage(MessageType.MESSAGE)
+          .setTime(System.currentTimeMillis())
+          .setNickname(session.getNickname())
+          .setContent(message.getContent());
+      Frame frame = history.add(broadcastMessage);
+      broadcastMessage(session, registry.sessions(), frame, receivedNanos);
+      journal(frame);
+    }
+
+    if (type == MessageType.JOIN_ROOM) {
+      handleJoinRoom(session, message.getRoom());
+    }
+    if (type == MessageType.LEAVE_ROOM) {
+      handleLeaveRoom(session, message.getRoom());
+    }
+
+    //the message is only posted to the members of the room
+    if (type == MessageType.POST_TO_ROOM) {
+      String room = message.getRoom();
+      if (room != null && rooms.isMember(room, session)) {
+        WireMessage roomMessage = new WireMessage(MessageType.MESSAGE)
+            .setTime(System.currentTimeMillis())
+            .setNickname(session.getNickname())
+            .setContent(message.getContent())
+            .setRoom(room);
+        Frame frame = history.add(roomMessage);
+        broadcastMessage(session, rooms.members(room), frame, receivedNanos);
+        journal(frame);
+      }
+    }
+
+    if (type == MessageType.DIRECT_MESSAGE) {
+      handleDirectMessage(session, message);
+    }
+
+    if (type == MessageType.HISTORY_REQUEST) {
+      handleHistoryRequest(session, message);
+    }
+
+    //a client may check the connection as well
+    if (type == MessageType.PING) {
+      session.send(PONG);
+    }
+
+    //the client has received the messages of a chat up to the given sequence number
+    if (type == MessageType.ACK) {
+      session.acknowledge(message.getRoom(), message.getSequence());
+    }
+
+    //the client ask the server to close the corresponding client socket
+    if (type == MessageType.CLOSE_CLIENT_SOCKET) {
+      session.setLoggedOff();
+      handleDisconnect(session);
+    }
+  }
+
+  /**
+   * Check whether a message counts towards the rates of its sender. Messages that keep the
+   * connection alive or that the client has to send anyway are never refused.
+   *
+   * @param type the type of the message.
+   * @return {@code true} if the message may be refused because of its rate.
+   */
+  private static boolean isRateLimited(MessageType type) {
+    return switch (type) {
+      case LOGIN, ACK, PING, PONG, CLOSE_CLIENT_SOCKET -> false;
+      default -> true;
+    };
+  }
+
+  /**
+   * Tell a client why it is refused and close its connection once the error has been written.
+   * The session is removed from the registry right away, so it does not get any further
+   * messages.
+   *
+   * @param session the session of the refused client.
+   * @param error   the reason of the refusal.
+   */
+  private void refuse(Session session, ErrorCode error) {
+    metrics.connectionRefused();
+    registry.remove(session);
+    session.send(Frame.of(new WireMessage(MessageType.ERROR).setError(error)));
+    session.shutdownOutput();
+  }
+
+  /**
+   * Disconnect a client that has sent a frame larger than the limit, once it has been told why.
+   * Nothing is read from the client anymore, since the rest of the frame cannot be told apart
+   * from the next one.
+   *
+   * @param session the session of the client.
+   */
+  void frameTooLarge(Session session) {
+    System.err.println("Disconnecting client " + session.getId() + " ("
+        + session.getNickname() + "): frame exceeds " + config.getMaxFrameBytes() + " bytes.");
+    session.send(FRAME_TOO_LARGE);
+    session.shutdownOutput();
+  }
+
+  /**
+   * Close the connection of a client whose output has been shut down, after its last frame has
+   * been written. Called by the writer of the session.
+   *
+   * @param session the session of the client.
+   */
+  void outputFlushed(Session session) {
+    if (stopping) {
+      //the server closes all connections itself once every client has been drained
+      return;
+    }
+    if (registry.contains(session)) {
+      //the other clients learn that the user has left
+      handleDisconnect(session);
+      return;
+    }
+    try {
+      session.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Append a broadcast chat message to the journal, if the server keeps one. Called after the
+   * fan-out, so the recipients do not wait for the journal.
+   *
+   * @param frame the broadcast message.
+   */
+  private void journal(Frame frame) {
+    try {
+      history.journal(frame);
+    } catch (IOException e) {
+      //a journal that cannot grow must not stop the chat
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Log a client in. A client that asks for the binary framing gets the confirmation still in
+   * JSON, every frame after it is binary in both directions. Compression is only offered on top
+   * of the binary framing.
+   *
+   * <p>A client that presents the token of a lost session resumes it: it is put back into its
+   * rooms and gets the messages it has missed instead of the usual backfill.
+   *
+   * <p>A client that announces the roster feature gets a snapshot of the users that are online
+   * with the next batch of presence changes.
+   *
+   * @param session the session of the client.
+   * @param login   the login message.
+   * @return {@code true} if the client is logged in; {@code false} if the login has been refused
+   *         or has failed, or if the client has disconnected during the login.
+   */
+  private boolean handleLogin(Session session, WireMessage login) {
+    if (session.getNickname() == null && logins != null && !logins.tryAcquire(1)) {
+      //the client backs off and tries again, which spreads a reconnect storm over time
+      refuse(session, ErrorCode.TOO_MANY_LOGINS);
+      return false;
+    }
+    String loginNickname = login.getNickname();
+    ResumableSessions.ParkedSession parked = null;
+    if (loginNickname != null && login.getSession() != null) {
+      //after a network blip the server may not have noticed yet that the old connection is dead
+      Session stale = registry.findByNickname(loginNickname);
+      if (stale != null && login.getSession().equals(stale.getResumeToken())) {
+        handleDisconnect(stale);
+      }
+      parked = resumable.claim(login.getSession(), loginNickname);
+    }
+    //the registry claims the nickname atomically, so two clients can never get the same one
+    if (loginNickname != null && registry.claimNickname(session, loginNickname)) {
+      session.setResumeToken(resumable.newToken());
+      session.setRosterClient(login.hasFeature(WireMessage.ROSTER_FEATURE));
+      if (heartbeat != null && login.hasFeature(WireMessage.PING_FEATURE)) {
+        //older clients never answer a ping, so only the ones that announce it are reaped
+        heartbeat.add(session);
+      }
+      WireMessage success = new WireMessage(MessageType.LOGIN_SUCCESS)
+          .setSession(session.getResumeToken())
+          .setResumed(parked != null);
+      if (login.getProtocol() == WireProtocol.BINARY) {
+        //this runs on the reading thread, so the next frame is already decoded as binary
+        session.getDecoder().setProtocol(WireProtocol.BINARY);
+        success.setProtocol(WireProtocol.BINARY);
+        int threshold = config.getCompressionThreshold();
+        if (threshold > 0 && BinaryCodec.DEFLATE.equals(login.getCompression())) {
+          success.setCompression(BinaryCodec.DEFLATE);
+        } else {
+          threshold = 0;
+        }
+        session.getDecoder().setCompression(threshold > 0);
+        session.sendAndSwitchProtocol(Frame.of(success), WireProtocol.BINARY, threshold);
+      } else {
+        session.send(Frame.of(success));
+      }
+      if (parked == null) {
+        sendBackfill(session, null);
+      } else {
+        long lastSeen = login.getSequence() != 0 ? login.getSequence() : parked.mainChatAck();
+        sendMissed(session, null, lastSeen);
+      }
+
+      //the server sends to all other clients messages to inform that
+      //a new participant has joined.
+      if (session.isRosterClient()) {
+        presence.snapshotRequested(session);
+      }
+      presence.joined(loginNickname);
+      if (!registry.contains(session)) {
+        //the client has disconnected during its login, after its leave has been reported
+        presence.left(loginNickname);
+        return false;
+      }
+      if (parked != null) {
+        for (String room : parked.rooms()) {
+          rejoinRoom(session, room, parked.roomAcks().getOrDefault(room, 0L));
+        }
+      }
+      return true;
+    } else {
+      //if the login nickname is used, login in failed
+      session.send(Frame.of(MessageType.LOGIN_FAILED));
+      return false;
+    }
+  }
+
+  /**
+   * Route a direct message to the single client that uses the nickname of the recipient, and tell
+   * the sender whether the message could be delivered. The recipient is found with one lookup, no
+   * other client is touched.
+   *
+   * @param session the session of the sender.
+   * @param message the direct message.
+   */
+  private void handleDirectMessage(Session session, WireMessage message) {
+    String to = message.getTo();
+    if (session.getNickname() == null || to == null) {
+      return;
+    }
+    long time = System.currentTimeMillis();
+    DeliveryStatus status;
+    Session recipient = registry.findByNickname(to);
+    if (recipient == null) {
+      status = DeliveryStatus.UNKNOWN_USER;
+    } else if (recipient.send(Frame.of(new WireMessage(MessageType.DIRECT_MESSAGE)
+        .setTime(time)
+        .setNickname(session.getNickname())
+        .setTo(to)
+        .setContent(message.getContent())))) {
+      status = DeliveryStatus.DELIVERED;
+    } else {
+      disconnectSlowConsumer(recipient);
+      status = DeliveryStatus.REJECTED;
+    }
+    session.send(Frame.of(new WireMessage(MessageType.DELIVERY_STATUS)
+        .setTime(time)
+        .setTo(to)
+        .setStatus(status)));
+  }
+
+  /**
+   * Send a page of older chat messages to a client. The messages are the ordinary chat messages
+   * with their sequence numbers, the page is terminated by a {@code history end} frame. Pages
+   * reuse the frames of the in-memory history where possible and are otherwise read from the
+   * memory-mapped journal, without holding up posts into the chat.
+   *
+   * @param session the session of the client.
+   * @param request the history request with the room, the sequence number before which the page
+   *                ends and the largest number of messages.
+   */
+  private void handleHistoryRequest(Session session, WireMessage request) {
+    if (session.getNickname() == null) {
+      return;
+    }
+    String room = request.getRoom();
+    long before = Math.max(0, request.getSequence());
+    if (room == null || rooms.isMember(room, session)) {
+      int limit = request.getLimit() <= 0 ? MAX_HISTORY_PAGE
+          : Math.min(request.getLimit(), MAX_HISTORY_PAGE);
+      for (Frame frame : history.page(room, before, limit)) {
+        if (!session.send(frame)) {
+          disconnectSlowConsumer(session);
+          return;
+        }
+      }
+    }
+    session.send(Frame.of(new WireMessage(MessageType.HISTORY_END).setRoom(room)
+        .setSequence(before)));
+  }
+
+  /**
+   * Add a logged-in client to a room and inform the other members.
+   *
+   * @param session the session of the client.
+   * @param room    the name of the room.
+   */
+  private void handleJoinRoom(Session session, String room) {
+    String nickname = session.getNickname();
+    if (nickname == null || room == null || !rooms.join(room, session)) {
+      return;
+    }
+    //a concurrent disconnect may have missed the new membership, see SessionRegistry
+    if (!registry.contains(session)) {
+      rooms.leave(room, session);
+      return;
+    }
+    sendBackfill(session, room);
+    broadcast(session, rooms.members(room), Frame.of(
+        new WireMessage(MessageType.USER_JOINED).setNickname(nickname).setRoom(room)));
+  }
+
+  /**
+   * Send the recent messages of a chat to a client that has just entered it. The frames are the
+   * ones that have been broadcast, so their encodings are reused.
+   *
+   * @param session the session of the client.
+   * @param room    the name of the room, or {@code null} for the main chat.
+   */
+  private void sendBackfill(Session session, String room) {
+    for (Frame frame : history.recent(room)) {
+      if (!session.send(frame)) {
+        disconnectSlowConsumer(session);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Put a resuming client back into a room it was a member of and send it the messages of the
+   * room that it has missed.
+   *
+   * @param session  the session of the client.
+   * @param room     the name of the room.
+   * @param lastSeen the sequence number of the last message of the room the client acknowledged.
+   */
+  private void rejoinRoom(Session session, String room, long lastSeen) {
+    if (!rooms.join(room, session)) {
+      return;
+    }
+    if (!registry.contains(session)) {
+      rooms.leave(room, session);
+      return;
+    }
+    session.acknowledge(room, lastSeen);
+    sendMissed(session, room, lastSeen);
+    broadcast(session, rooms.members(room), Frame.of(
+        new WireMessage(MessageType.USER_JOINED).setNickname(session.getNickname()).setRoom(room)));
+  }
+
+  /**
+   * Replay the messages of a chat that a resuming client has missed. Without a known position the
+   * client gets the usual backfill.
+   *
+   * @param session  the session of the client.
+   * @param room     the name of the room, or {@code null} for the main chat.
+   * @param lastSeen the sequence number of the last message the client has received.
+   */
+  private void sendMissed(Session session, String room, long lastSeen) {
+    if (lastSeen == 0) {
+      sendBackfill(session, room);
+      return;
+    }
+    session.acknowledge(room, lastSeen);
+    for (Frame frame : history.after(room, lastSeen, MAX_REPLAY)) {
+      if (!session.send(frame)) {
+        disconnectSlowConsumer(session);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Remove a client from a room and inform the remaining members.
+   *
+   * @param session the session of the client.
+   * @param room    the name of the room.
+   */
+  private void handleLeaveRoom(Session session, String room) {
+    if (room == null || !rooms.leave(room, session)) {
+      return;
+    }
+    broadcast(session, rooms.members(room), Frame.of(
+        new WireMessage(MessageType.USER_LEFT).setNickname(session.getNickname()).setRoom(room)));
+  }
+
+  /**
+   * Close the connection of a client, remove it from the registry and release its nickname. The
+   * remaining clients are informed that the user has left.
+   *
+   * @param session the session of the client that is leaving.
+   */
+  void handleDisconnect(Session session) {
+    if (!registry.remove(session)) {
+      //the client has already been removed
+      return;
+    }
+    ChatEvents.SessionClose event = new ChatEvents.SessionClose();
+    event.begin();
+    closedSessionsCompressionSavedBytes.addAndGet(
+        session.getOutbound().getCompressionSavedBytes());
+    closedSessionsWrittenBytes.addAndGet(session.getWrittenBytes());
+    //a client that logs off on purpose cannot resume, any other one may come back
+    if (!session.isLoggedOff() && session.getNickname() != null) {
+      resumable.park(session, Set.copyOf(session.getRooms()));
+    }
+    //the global "user left" below also tells the members of the rooms
+    rooms.leaveAll(session);
+
+    if (session.getNickname() != null) {
+      presence.left(session.getNickname());
+    }
+    try {
+      session.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    if (event.shouldCommit()) {
+      event.nickname = session.getNickname();
+      event.forced = session.isForcedDisconnect();
+      event.loggedOff = session.isLoggedOff();
+      event.bytes = session.getWrittenBytes();
+      event.commit();
+    }
+  }
+
+  /**
+   * Send a message to a group of clients except the sender, e.g. to the members of a room. The
+   * frame is encoded once per protocol and the same bytes are queued for every recipient of that
+   * protocol, so the sender never waits for the sockets of the recipients.
+   *
+   * @param sender     the session of the client that caused the message.
+   * @param recipients the sessions of the clients that receive the message.
+   * @param frame      the encoded message to send.
+   */
+  private void broadcast(Session sender, Collection<Session> recipients, Frame frame) {
+    for (Session recipient : recipients) {
+      if (recipient != sender && !recipient.send(frame)) {
+        disconnectSlowConsumer(recipient);
+      }
+    }
+  }
+
+  /**
+   * Send a chat message to a group of clients except the sender, and record how long queuing it
+   * took and, once the last recipient has been written to, how long the delivery took.
+   *
+   * @param sender        the session of the client that has posted the message.
+   * @param recipients    the sessions of the clients that receive the message.
+   * @param frame         the encoded message to send.
+   * @param receivedNanos the {@link System#nanoTime()} at which the post has been received.
+   */
+  private void broadcastMessage(Session sender, Collection<Session> recipients, Frame frame,
+      long receivedNanos) {
+    ChatEvents.Broadcast event = new ChatEvents.Broadcast();
+    event.begin();
+    long start = System.nanoTime();
+    Delivery delivery = metrics.newDelivery(receivedNanos);
+    int count = 0;
+    for (Session recipient : recipients) {
+      if (recipient == sender) {
+        continue;
+      }
+      count++;
+      delivery.expect();
+      if (!recipient.send(frame, delivery)) {
+        delivery.dropped();
+        disconnectSlowConsumer(recipient);
+      }
+    }
+    delivery.done();
+    metrics.broadcastQueued(System.nanoTime() - start);
+    if (event.shouldCommit()) {
+      event.nickname = sender.getNickname();
+      event.frameType = String.valueOf(frame.getType());
+      event.bytes = frame.encodedBytes();
+      event.recipients = count;
+      event.commit();
+    }
+  }
+
+  /**
+   * Send a batch of presence changes to all clients. Runs on the timer of the presence batcher,
+   * so logins never fan out to the other clients themselves.
+   *
+   * <p>Clients that keep a roster get a single delta with all changes, or a snapshot if they have
+   * logged in during the window; the snapshot already reflects the changes. All other clients get
+   * a {@code user joined} or {@code user left} message per change, except for their own ones,
+   * which are queued with a single call. Every frame is encoded once for all recipients.
+   *
+   * @param changes            the nicknames that changed, mapped to {@code true} if the user is
+   *                           online now.
+   * @param snapshotRecipients the sessions that still need a roster snapshot.
+   */
+  private void publishPresence(Map<String, Boolean> changes, Set<Session> snapshotRecipients) {
+    Frame snapshot = snapshotRecipients.isEmpty() ? null : Frame.of(
+        new WireMessage(MessageType.ROSTER).setUsers(List.copyOf(registry.nicknames())));
+    List<String> joined = new ArrayList<>();
+    List<String> left = new ArrayList<>();
+    List<Frame> legacyFrames = new ArrayList<>(changes.size());
+    for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+      (change.getValue() ? joined : left).add(change.getKey());
+      legacyFrames.add(Frame.of(new WireMessage(
+          change.getValue() ? MessageType.USER_JOINED : MessageType.USER_LEFT)
+          .setNickname(change.getKey())));
+    }
+    Frame delta = changes.isEmpty() ? null
+        : Frame.of(new WireMessage(MessageType.ROSTER_DELTA).setUsers(joined).setLeft(left));
+
+    for (Session recipient : registry.sessions()) {
+      boolean accepted;
+      if (recipient.isRosterClient()) {
+        Frame frame = snapshotRecipients.contains(recipient) ? snapshot : delta;
+        accepted = frame == null || recipient.send(frame);
+      } else if (recipient.getNickname() != null
+          && changes.containsKey(recipient.getNickname())) {
+        //nobody is told about their own login
+        List<Frame> others = new ArrayList<>(legacyFrames);
+        others.removeIf(frame -> recipient.getNickname().equals(frame.getNickname()));
+        accepted = recipient.sendAll(others);
+      } else {
+        accepted = legacyFrames.isEmpty() || recipient.sendAll(legacyFrames);
+      }
+      if (!accepted) {
+        disconnectSlowConsumer(recipient);
+      }
+    }
+  }
+
+  /**
+   * Close the session of a client that has not answered a ping in time, e.g. because the peer
+   * has vanished without closing the TCP connection. The remaining clients are informed that the
+   * user has left.
+   *
+   * @param session the session of the silent client.
+   */
+  private void expireIdleSession(Session session) {
+    System.err.println("Closing idle client " + session.getId() + " ("
+        + session.getNickname() + "): nothing received for "
+        + config.getIdleTimeoutMillis() + " ms.");
+    handleDisconnect(session);
+  }
+
+  /**
+   * Disconnect a client whose outbound queue has exceeded its high-water mark. The remaining
+   * clients are informed that the user has left.
+   *
+   * @param session the session of the slow client.
+   */
+  private void disconnectSlowConsumer(Session session) {
+    if (!registry.contains(session) || session.getOutbound().isClosed()) {
+      //the frame was refused because the session is already closed or is being drained
+      return;
+    }
+    OutboundQueue outbound = session.getOutbound();
+    session.setForcedDisconnect();
+    metrics.forcedDisconnect();
+    System.err.println("Disconnecting slow client " + session.getId() + " ("
+        + session.getNickname() + "): " + outbound.getDepth() + " frames and "
+        + outbound.getQueuedBytes() + " bytes queued, " + outbound.getDroppedFrames()
+        + " dropped.");
+    handleDisconnect(session);
+  }
+
+  /**
+   * Stop the network-connection gracefully. The server stops accepting clients and tells the
+   * connected ones that it goes down, then waits up to the drain deadline until their queued
+   * messages have been written. Afterwards the journal is flushed, the connections are closed and
+   * the threads that served them are joined. Stopping a stopped server has no effect.
    */
   public void stop() throws IOException {
-    serverSocket.close();
+    if (stopping) {
+      return;
+    }
+    stopping = true;
+    if (selectorLoop != null) {
+      selectorLoop.stopAccepting();
+    } else {
+      serverSocket.close();
+      //the socket is only released once the accept thread has left the blocking accept call
+      try {
+        acceptThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (heartbeat != null) {
+      heartbeat.close();
+    }
+    //pending presence changes still reach the clients before the notice
+    presence.close();
+
+    List<Session> sessions = List.copyOf(registry.sessions());
+    Frame notice = Frame.of(MessageType.SERVER_SHUTDOWN);
+    for (Session session : sessions) {
+      session.send(notice);
+      session.shutdownOutput();
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+        config.getShutdownDrainMillis());
+    awaitFlushed(sessions, deadline);
+    if (journal != null) {
+      journal.sync();
+    }
+
+    for (Session session : sessions) {
+      registry.remove(session);
+      session.close();
+    }
+    if (selectorLoop != null) {
+      selectorLoop.stop();
+    } else {
+      clientExecutor.shutdown();
+      try {
+        if (!clientExecutor.awaitTermination(config.getShutdownDrainMillis(),
+            TimeUnit.MILLISECONDS)) {
+          System.err.println("Client threads did not terminate.");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (journal != null) {
+      journal.close();
+    }
+    unpublishMetrics();
+  }
+
+  private void unpublishMetrics() {
+    if (metricsEndpoint != null) {
+      metricsEndpoint.stop();
+    }
+    if (metricsName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+      } catch (JMException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Wait until the writers of the given sessions have written the frames that were queued when
+   * their output was shut down.
+   *
+   * @param sessions the sessions to wait for.
+   * @param deadline the {@link System#nanoTime()} after which the server stops waiting.
+   */
+  private static void awaitFlushed(List<Session> sessions, long deadline) {
+    try {
+      for (Session session : sessions) {
+        if (!session.awaitFlushed(deadline - System.nanoTime())) {
+          System.err.println("Client " + session.getId() + " (" + session.getNickname()
+              + ") could not be drained: " + session.getOutbound().getDepth()
+              + " frames discarded.");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 }
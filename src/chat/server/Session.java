@@ -0,0 +1,352 @@
+package chat.server;
+
+import chat.protocol.FrameDecoder;
+import chat.protocol.WireMessage;
+import chat.protocol.WireProtocol;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A single client connected to the server. Hides whether the client is served by a blocking
+ * socket or by the selector event loop, such that the message handling does not need to care.
+ *
+ * <p>Every session owns a bounded {@link OutboundQueue}. Sending a message to a client only
+ * enqueues it, the frames are written by the writer of the session, so a client with a full TCP
+ * window only delays its own messages.
+ */
+abstract class Session {
+
+  private final int id;
+  private final OutboundQueue outbound;
+  private final FrameDecoder decoder;
+  private final WireMessage inbound = new WireMessage();
+  private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+  private final ConcurrentHashMap<String, Long> roomAcks = new ConcurrentHashMap<>();
+  private final TokenBucket messageBucket;
+  private final TokenBucket byteBucket;
+  private volatile String nickname;
+  private volatile String resumeToken;
+  private volatile long mainChatAck;
+  private volatile boolean forcedDisconnect;
+  private volatile boolean loggedOff;
+  private volatile boolean rosterClient;
+  private volatile long lastReadNanos = System.nanoTime();
+  private volatile boolean pingOutstanding;
+  private volatile long writtenBytes;
+
+  /**
+   * Construct a session.
+   *
+   * @param id     the unique number of the connection.
+   * @param config the server configuration that sizes the outbound queue.
+   */
+  Session(int id, ServerConfig config) {
+    this.id = id;
+    decoder = new FrameDecoder(config.getMaxFrameBytes());
+    outbound = new OutboundQueue(config.getOutboundMaxMessages(), config.getOutboundMaxBytes(),
+        config.getSlowConsumerPolicy());
+    messageBucket = config.getMaxMessagesPerSecond() > 0
+        ? new TokenBucket(config.getMaxMessagesPerSecond()) : null;
+    byteBucket = config.getMaxBytesPerSecond() > 0
+        ? new TokenBucket(config.getMaxBytesPerSecond()) : null;
+  }
+
+  int getId() {
+    return id;
+  }
+
+  /**
+   * Get the nickname of the client.
+   *
+   * @return the nickname, or {@code null} if the client has not logged in yet.
+   */
+  String getNickname() {
+    return nickname;
+  }
+
+  void setNickname(String nickname) {
+    this.nickname = nickname;
+  }
+
+  /**
+   * Get the token with which the client can resume this session after losing its connection.
+   *
+   * @return the token, or {@code null} if the client has not logged in yet.
+   */
+  String getResumeToken() {
+    return resumeToken;
+  }
+
+  void setResumeToken(String resumeToken) {
+    this.resumeToken = resumeToken;
+  }
+
+  /**
+   * Record that the client has received the messages of a chat up to a sequence number. Only the
+   * thread that reads from the client acknowledges.
+   *
+   * @param room     the name of the room, or {@code null} for the main chat.
+   * @param sequence the sequence number of the last received message.
+   */
+  void acknowledge(String room, long sequence) {
+    if (room == null) {
+      mainChatAck = Math.max(mainChatAck, sequence);
+    } else {
+      roomAcks.merge(room, sequence, Math::max);
+    }
+  }
+
+  long getMainChatAck() {
+    return mainChatAck;
+  }
+
+  /**
+   * Get the sequence numbers up to which the client has acknowledged the messages of its rooms.
+   *
+   * @return the live map from room names to sequence numbers.
+   */
+  Map<String, Long> getRoomAcks() {
+    return roomAcks;
+  }
+
+  /**
+   * Get the names of the rooms the client has joined. Maintained by the {@link RoomRegistry}.
+   *
+   * @return the live set of room names.
+   */
+  Set<String> getRooms() {
+    return rooms;
+  }
+
+  /**
+   * Get the message instance that the frames received from this client are decoded into. Only
+   * the thread that reads from the client may use it.
+   *
+   * @return the reusable inbound message.
+   */
+  WireMessage getInbound() {
+    return inbound;
+  }
+
+  /**
+   * Get the decoder that splits the bytes received from this client into frames. Only the thread
+   * that reads from the client may use it.
+   *
+   * @return the frame decoder.
+   */
+  FrameDecoder getDecoder() {
+    return decoder;
+  }
+
+  OutboundQueue getOutbound() {
+    return outbound;
+  }
+
+  /**
+   * Check whether the server has disconnected the client because it could not keep up with the
+   * messages that were sent to it.
+   *
+   * @return {@code true} if the client was disconnected by the slow-consumer policy.
+   */
+  boolean isForcedDisconnect() {
+    return forcedDisconnect;
+  }
+
+  void setForcedDisconnect() {
+    forcedDisconnect = true;
+  }
+
+  /**
+   * Check whether the client has logged off on purpose, in which case its session cannot be
+   * resumed.
+   *
+   * @return {@code true} if the client has asked to close its connection.
+   */
+  boolean isLoggedOff() {
+    return loggedOff;
+  }
+
+  void setLoggedOff() {
+    loggedOff = true;
+  }
+
+  /**
+   * Record that a frame has been received from the client, which shows that the client is alive.
+   * Only the thread that reads from the client calls this method.
+   */
+  void frameReceived() {
+    lastReadNanos = System.nanoTime();
+    pingOutstanding = false;
+  }
+
+  /**
+   * Charge a message of the client against its message and byte rates. Only the thread that
+   * reads from the client calls this method.
+   *
+   * @param bytes the size of the frame.
+   * @return {@code false} if the client has exceeded one of its rates and the message has to be
+   *         refused.
+   */
+  boolean admitMessage(int bytes) {
+    if (byteBucket != null && !byteBucket.tryAcquire(bytes)) {
+      return false;
+    }
+    //a message refused here has already taken its bytes, which only slows a flood down further
+    return messageBucket == null || messageBucket.tryAcquire(1);
+  }
+
+  /**
+   * Get the time at which the last frame has been received from the client.
+   *
+   * @return the value of {@link System#nanoTime()} at that moment, or at the connect if the
+   *         client has not sent anything yet.
+   */
+  long getLastReadNanos() {
+    return lastReadNanos;
+  }
+
+  /**
+   * Check whether the client has been pinged and has not sent anything since.
+   *
+   * @return {@code true} if a ping is outstanding.
+   */
+  boolean isPingOutstanding() {
+    return pingOutstanding;
+  }
+
+  void setPingOutstanding() {
+    pingOutstanding = true;
+  }
+
+  /**
+   * Get the number of bytes that have been written to the client so far.
+   *
+   * @return the written bytes.
+   */
+  long getWrittenBytes() {
+    return writtenBytes;
+  }
+
+  /**
+   * Record that frames have been written to the client. Only the writer of the session calls
+   * this method, so the counter needs no atomic update.
+   *
+   * @param frames the batch that holds the frames that have been written completely.
+   * @param from   the index of the first written frame.
+   * @param to     the index behind the last written frame.
+   */
+  void framesWritten(QueuedFrame[] frames, int from, int to) {
+    long bytes = 0;
+    for (int index = from; index < to; index++) {
+      bytes += frames[index].size();
+      frames[index].written();
+    }
+    writtenBytes += bytes;
+  }
+
+  /**
+   * Check whether the client keeps a roster of the users that are online. Such a client gets a
+   * roster snapshot at login and roster deltas afterwards, instead of a {@code user joined} or
+   * {@code user left} message for every user of the main chat.
+   *
+   * @return {@code true} if the client has announced the roster feature at login.
+   */
+  boolean isRosterClient() {
+    return rosterClient;
+  }
+
+  void setRosterClient(boolean rosterClient) {
+    this.rosterClient = rosterClient;
+  }
+
+  /**
+   * Queue a single encoded message for the client. Never blocks the calling thread.
+   *
+   * @param frame the message to send.
+   * @return {@code false} if the message was rejected because the session is closed or because
+   *         the slow-consumer policy demands to disconnect the client.
+   */
+  final boolean send(Frame frame) {
+    return send(frame, null);
+  }
+
+  /**
+   * Queue a single encoded message of a tracked broadcast for the client. Never blocks the
+   * calling thread.
+   *
+   * @param frame    the message to send.
+   * @param delivery the broadcast, which is told once the message has been written.
+   * @return {@code false} if the message was rejected because the session is closed or because
+   *         the slow-consumer policy demands to disconnect the client.
+   */
+  final boolean send(Frame frame, Delivery delivery) {
+    if (!outbound.offer(frame, delivery)) {
+      return false;
+    }
+    framesQueued();
+    return true;
+  }
+
+  /**
+   * Queue several encoded messages for the client at once. Never blocks the calling thread.
+   *
+   * @param frames the messages to send, in order.
+   * @return {@code false} if a message was rejected because the session is closed or because
+   *         the slow-consumer policy demands to disconnect the client.
+   */
+  final boolean sendAll(List<Frame> frames) {
+    boolean accepted = outbound.offerAll(frames);
+    framesQueued();
+    return accepted;
+  }
+
+  /**
+   * Queue the last message in the current encoding, and send all later messages in another one.
+   *
+   * @param frame                the message that confirms the switch to the client.
+   * @param protocol             the protocol of the messages that follow.
+   * @param compressionThreshold the size from which the messages that follow are compressed, or
+   *                             {@code 0} to never compress them.
+   * @return {@code false} if the message was rejected, in which case the encoding is unchanged.
+   */
+  final boolean sendAndSwitchProtocol(Frame frame, WireProtocol protocol,
+      int compressionThreshold) {
+    if (!outbound.offerAndSwitchProtocol(frame, protocol, compressionThreshold)) {
+      return false;
+    }
+    framesQueued();
+    return true;
+  }
+
+  /**
+   * Reject any further messages, but let the writer of the session write the queued ones.
+   */
+  final void shutdownOutput() {
+    outbound.shutdown();
+    framesQueued();
+  }
+
+  /**
+   * Notify the writer of the session that new frames are waiting in the outbound queue.
+   */
+  abstract void framesQueued();
+
+  /**
+   * Wait until the writer has written all frames that were queued when the output was shut down.
+   *
+   * @param timeoutNanos how long to wait at most.
+   * @return {@code false} if the frames have not all been written in time.
+   * @throws InterruptedException if the waiting thread is interrupted.
+   */
+  abstract boolean awaitFlushed(long timeoutNanos) throws InterruptedException;
+
+  /**
+   * Close the underlying connection. Frames that have not been written yet are discarded.
+   *
+   * @throws IOException if the connection cannot be closed.
+   */
+  abstract void close() throws IOException;
+}
@@ -0,0 +1,103 @@
+package chat.server;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The sessions of all connected clients, indexed by connection number and by nickname. All
+ * operations are lock-free, so logins, leaves and broadcasts of different clients never wait for
+ * each other. Iterating over the sessions is weakly consistent: a broadcast sees every session
+ * that was registered before it started and may or may not see sessions that come and go
+ * concurrently.
+ */
+final class SessionRegistry {
+
+  private final ConcurrentHashMap<Integer, Session> sessionsById = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Session> sessionsByNickname = new ConcurrentHashMap<>();
+
+  /**
+   * Add a newly connected client.
+   *
+   * @param session the session of the client.
+   */
+  void add(Session session) {
+    sessionsById.put(session.getId(), session);
+  }
+
+  /**
+   * Remove a client and release its nickname.
+   *
+   * @param session the session of the client.
+   * @return {@code false} if the session had already been removed.
+   */
+  boolean remove(Session session) {
+    if (!sessionsById.remove(session.getId(), session)) {
+      return false;
+    }
+    //the nickname is read after the removal, see claimNickname
+    String nickname = session.getNickname();
+    if (nickname != null) {
+      sessionsByNickname.remove(nickname, session);
+    }
+    return true;
+  }
+
+  /**
+   * Atomically assign a nickname to a client, unless another client already uses it.
+   *
+   * @param session  the session of the client.
+   * @param nickname the requested nickname.
+   * @return {@code true} if the client now owns the nickname.
+   */
+  boolean claimNickname(Session session, String nickname) {
+    if (session.getNickname() != null
+        || sessionsByNickname.putIfAbsent(nickname, session) != null) {
+      return false;
+    }
+    session.setNickname(nickname);
+    //a concurrent remove either sees the nickname or has already removed the session, in which
+    //case the claim has to be undone here
+    if (!sessionsById.containsKey(session.getId())) {
+      sessionsByNickname.remove(nickname, session);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Look up the client that uses a nickname.
+   *
+   * @param nickname the nickname.
+   * @return the session of the client, or {@code null} if nobody uses the nickname.
+   */
+  Session findByNickname(String nickname) {
+    return sessionsByNickname.get(nickname);
+  }
+
+  /**
+   * Get a live view on the nicknames of all logged-in clients, that can be iterated without
+   * locking.
+   *
+   * @return the nicknames.
+   */
+  Collection<String> nicknames() {
+    return sessionsByNickname.keySet();
+  }
+
+  boolean contains(Session session) {
+    return sessionsById.get(session.getId()) == session;
+  }
+
+  /**
+   * Get a live view on all connected clients, that can be iterated without locking.
+   *
+   * @return the sessions of all clients.
+   */
+  Collection<Session> sessions() {
+    return sessionsById.values();
+  }
+
+  int size() {
+    return sessionsById.size();
+  }
+}
@@ -0,0 +1,57 @@
+package chat.server;
+
+import java.util.Arrays;
+
+/**
+ * What the server does when the outbound queue of a client grows beyond its high-water mark,
+ * i.e. when a client reads its messages slower than they are broadcast.
+ */
+public enum SlowConsumerPolicy {
+
+  /**
+   * Drop the oldest queued chat messages until the queue is below its high-water mark again.
+   * Presence events and answers to the client itself are never dropped; if they alone fill the
+   * queue, the client is disconnected.
+   */
+  DROP_OLDEST("drop-oldest"),
+
+  /**
+   * Merge the queued presence events of the same user, a join followed by a leave (or vice versa)
+   * cancel each other out. If that does not suffice, the oldest chat messages are dropped, and if
+   * nothing is left to drop, the client is disconnected.
+   */
+  COALESCE_PRESENCE("coalesce-presence"),
+
+  /**
+   * Disconnect the client and inform the remaining clients that the user has left.
+   */
+  DISCONNECT("disconnect");
+
+  private final String optionName;
+
+  SlowConsumerPolicy(String optionName) {
+    this.optionName = optionName;
+  }
+
+  /**
+   * Get the name that selects this policy on the command line.
+   *
+   * @return the option name.
+   */
+  public String getOptionName() {
+    return optionName;
+  }
+
+  /**
+   * Find the policy that belongs to a command-line option name.
+   *
+   * @param optionName the name given on the command line, e.g. {@code drop-oldest}.
+   * @return the corresponding policy.
+   * @throws IllegalArgumentException if no policy has the given name.
+   */
+  public static SlowConsumerPolicy fromOptionName(String optionName) {
+    return Arrays.stream(values()).filter(x -> x.optionName.equals(optionName)).findFirst()
+        .orElseThrow(() -> new IllegalArgumentException(
+            String.format("Unknown slow-consumer policy '%s'", optionName)));
+  }
+}
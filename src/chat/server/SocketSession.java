@@ -0,0 +1,112 @@
+package chat.server;
+
+import chat.protocol.FrameBuffer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A session that is served by a blocking socket. One platform or virtual thread reads from the
+ * socket, a second one drains the outbound queue into it. All frames that are waiting when the
+ * writer wakes up are copied into one buffer and written with a single call.
+ */
+class SocketSession extends Session {
+
+  private final Socket socket;
+  private final OutputStream out;
+  private final QueuedFrame[] batch;
+  private final int batchBytes;
+  private final long batchDelayNanos;
+  private final FrameBuffer batchBuffer = new FrameBuffer();
+  private final CountDownLatch writerDone = new CountDownLatch(1);
+
+  /**
+   * Construct a session for a blocking socket.
+   *
+   * @param id     the unique number of the connection.
+   * @param socket the accepted client socket.
+   * @param config the server configuration.
+   * @throws IOException if the output stream of the socket cannot be opened.
+   */
+  SocketSession(int id, Socket socket, ServerConfig config) throws IOException {
+    super(id, config);
+    this.socket = socket;
+    out = socket.getOutputStream();
+    batch = new QueuedFrame[config.getWriteBatchFrames()];
+    batchBytes = config.getWriteBatchBytes();
+    batchDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getWriteBatchDelayMillis());
+  }
+
+  Socket getSocket() {
+    return socket;
+  }
+
+  @Override
+  void framesQueued() {
+    //the writer thread is waiting on the outbound queue and wakes up by itself
+  }
+
+  /**
+   * Write the queued frames to the socket until the session is closed, or until the output has
+   * been shut down and the remaining frames are written. Only the writer thread of this session
+   * calls this method.
+   *
+   * @throws IOException          if writing to the socket fails.
+   * @throws InterruptedException if the writer thread is interrupted.
+   */
+  void writeQueuedFrames() throws IOException, InterruptedException {
+    try {
+      writeBatches();
+    } finally {
+      writerDone.countDown();
+    }
+  }
+
+  private void writeBatches() throws IOException, InterruptedException {
+    int count;
+    while ((count = getOutbound().takeBatch(batch, batchBytes, batchDelayNanos)) > 0) {
+      ChatEvents.FrameWrite event = new ChatEvents.FrameWrite();
+      event.begin();
+      try {
+        if (count == 1) {
+          batch[0].writeTo(out);
+        } else {
+          //a socket stream has no gathering write, so the frames are copied into one buffer
+          batchBuffer.reset();
+          for (int index = 0; index < count; index++) {
+            byte[] bytes = batch[index].bytes();
+            batchBuffer.write(bytes, 0, bytes.length);
+          }
+          batchBuffer.writeTo(out);
+        }
+      } catch (IOException e) {
+        for (int index = 0; index < count; index++) {
+          batch[index].dropped();
+        }
+        throw e;
+      }
+      if (event.shouldCommit()) {
+        event.nickname = getNickname();
+        event.frames = count;
+        event.bytes = count == 1 ? batch[0].size() : batchBuffer.size();
+        event.commit();
+      }
+      framesWritten(batch, 0, count);
+      Arrays.fill(batch, 0, count, null);
+    }
+  }
+
+  @Override
+  boolean awaitFlushed(long timeoutNanos) throws InterruptedException {
+    return writerDone.await(timeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  void close() throws IOException {
+    getOutbound().close();
+    socket.close();
+  }
+}
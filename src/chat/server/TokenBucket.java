@@ -0,0 +1,70 @@
+package chat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how fast something may happen. The bucket holds up to one second worth of tokens and is
+ * refilled continuously at the given rate; every event takes tokens out of it and is refused if
+ * there are not enough. A short burst is thus allowed, a sustained flood is cut down to the rate.
+ *
+ * <p>The bucket is refilled lazily whenever tokens are taken, so it needs no timer.
+ */
+final class TokenBucket {
+
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final long ratePerSecond;
+  private final ReentrantLock lock = new ReentrantLock();
+  //the tokens are counted in units of 1 / NANOS_PER_SECOND, such that refilling stays exact
+  private long scaledTokens;
+  private long lastRefillNanos;
+
+  /**
+   * Construct a full bucket.
+   *
+   * @param ratePerSecond the number of tokens that are added per second, which is also the
+   *                      capacity of the bucket.
+   */
+  TokenBucket(long ratePerSecond) {
+    this(ratePerSecond, System.nanoTime());
+  }
+
+  TokenBucket(long ratePerSecond, long nowNanos) {
+    this.ratePerSecond = ratePerSecond;
+    scaledTokens = capacity();
+    lastRefillNanos = nowNanos;
+  }
+
+  /**
+   * Take tokens out of the bucket if there are enough.
+   *
+   * @param tokens the number of tokens the event costs.
+   * @return {@code false} if the event has to be refused. No tokens are taken in that case.
+   */
+  boolean tryAcquire(long tokens) {
+    return tryAcquire(tokens, System.nanoTime());
+  }
+
+  boolean tryAcquire(long tokens, long nowNanos) {
+    lock.lock();
+    try {
+      long elapsed = Math.min(nowNanos - lastRefillNanos, NANOS_PER_SECOND);
+      lastRefillNanos = nowNanos;
+      scaledTokens = Math.min(capacity(), scaledTokens + elapsed * ratePerSecond);
+      //an event that costs more than the capacity takes a full bucket, else it could never pass
+      long cost = Math.min(tokens, ratePerSecond) * NANOS_PER_SECOND;
+      if (scaledTokens < cost) {
+        return false;
+      }
+      scaledTokens -= cost;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private long capacity() {
+    return ratePerSecond * NANOS_PER_SECOND;
+  }
+}
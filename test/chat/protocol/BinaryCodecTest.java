@@ -0,0 +1,179 @@
+package chat.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.util.List;
+import java.util.zip.Inflater;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * check the binary framing and the switch from JSON to binary in the frame decoder.
+ */
+public class BinaryCodecTest {
+
+  private static final String AWKWARD_TEXT = "Quote \" newline \n umlaut \u00fc euro \u20ac "
+      + "emoji \ud83d\ude00";
+
+  @Test
+  public void decode_whenEncoded_roundTripsAllFields() throws IOException {
+    WireMessage original = new WireMessage(MessageType.MESSAGE).setNickname("SomeUser")
+        .setContent(AWKWARD_TEXT).setTime(1700000000000L);
+
+    WireMessage message = readSingleFrame(encode(original), WireProtocol.BINARY);
+
+    Assertions.assertEquals(MessageType.MESSAGE, message.getType());
+    Assertions.assertEquals("SomeUser", message.getNickname());
+    Assertions.assertEquals(AWKWARD_TEXT, message.getContent());
+    Assertions.assertEquals(1700000000000L, message.getTime());
+  }
+
+  @Test
+  public void decode_whenRosterDelta_roundTripsLists() throws IOException {
+    WireMessage original = new WireMessage(MessageType.ROSTER_DELTA)
+        .setUsers(List.of("SomeUser", AWKWARD_TEXT)).setLeft(List.of("AnotherUser"));
+
+    WireMessage message = readSingleFrame(encode(original), WireProtocol.BINARY);
+
+    Assertions.assertEquals(MessageType.ROSTER_DELTA, message.getType());
+    Assertions.assertEquals(List.of("SomeUser", AWKWARD_TEXT), message.getUsers());
+    Assertions.assertEquals(List.of("AnotherUser"), message.getLeft());
+  }
+
+  @Test
+  public void decode_whenLongContent_readsMultiByteLengthPrefix() throws IOException {
+    String content = "x".repeat(20000);
+
+    WireMessage message = readSingleFrame(
+        encode(new WireMessage(MessageType.POST_MESSAGE).setContent(content)),
+        WireProtocol.BINARY);
+
+    Assertions.assertEquals(content, message.getContent());
+  }
+
+  @Test
+  public void decode_whenUnknownField_skipsIt() throws ProtocolException {
+    //type, unknown varint field with tag 30, unknown string field with tag 31, nick
+    byte[] body = {(byte) MessageType.USER_JOINED.getCode(), 60, 5, 63, 2, 'h', 'i', 3, 1, 'A'};
+    WireMessage message = new WireMessage();
+
+    BinaryCodec.decode(body, 0, body.length, message);
+
+    Assertions.assertEquals(MessageType.USER_JOINED, message.getType());
+    Assertions.assertEquals("A", message.getNickname());
+  }
+
+  @Test
+  public void decode_whenTruncated_throwsProtocolException() {
+    byte[] body = {(byte) MessageType.LOGIN.getCode(), 3, 10, 'S'};
+
+    Assertions.assertThrows(ProtocolException.class,
+        () -> BinaryCodec.decode(body, 0, body.length, new WireMessage()));
+  }
+
+  @Test
+  public void decode_whenNegativeFieldLength_throwsProtocolException() {
+    //type, unknown string field with tag 31 and a ten byte varint length of -1
+    byte[] body = {(byte) MessageType.LOGIN.getCode(), 63, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1};
+
+    Assertions.assertThrows(ProtocolException.class,
+        () -> BinaryCodec.decode(body, 0, body.length, new WireMessage()));
+  }
+
+  @Test
+  public void decode_whenUnknownType_throwsProtocolException() {
+    byte[] body = {(byte) 127, 3, 1, 'A'};
+
+    Assertions.assertThrows(ProtocolException.class,
+        () -> BinaryCodec.decode(body, 0, body.length, new WireMessage()));
+  }
+
+  @Test
+  public void decode_whenCompressed_inflatesBody() throws IOException {
+    String content = "at chat.server.Frame.bytes(Frame.java:42)\n".repeat(100);
+    byte[] plain = encode(new WireMessage(MessageType.MESSAGE).setContent(content));
+    FrameBuffer compressed = new FrameBuffer();
+
+    Assertions.assertTrue(BinaryCodec.compress(plain, 0, plain.length, compressed));
+    Assertions.assertTrue(compressed.size() < plain.length / 10);
+    FrameDecoder decoder = new FrameDecoder();
+    decoder.setProtocol(WireProtocol.BINARY);
+    decoder.setCompression(true);
+    Assertions.assertTrue(decoder.readFrame(new ByteArrayInputStream(compressed.toByteArray())));
+    WireMessage message = new WireMessage();
+    decoder.decode(message);
+
+    Assertions.assertEquals(MessageType.MESSAGE, message.getType());
+    Assertions.assertEquals(content, message.getContent());
+  }
+
+  @Test
+  public void decode_whenCompressionNotNegotiated_throwsProtocolException() {
+    String content = "at chat.server.Frame.bytes(Frame.java:42)\n".repeat(100);
+    byte[] plain = encode(new WireMessage(MessageType.MESSAGE).setContent(content));
+    FrameBuffer compressed = new FrameBuffer();
+    Assertions.assertTrue(BinaryCodec.compress(plain, 0, plain.length, compressed));
+
+    Assertions.assertThrows(ProtocolException.class,
+        () -> readSingleFrame(compressed.toByteArray(), WireProtocol.BINARY));
+  }
+
+  @Test
+  public void inflate_whenLengthNegative_throwsProtocolException() {
+    //the compressed marker 0 followed by a ten byte varint with the sign bit set
+    byte[] body = {0, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+        (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x01};
+
+    Assertions.assertThrows(ProtocolException.class, () -> BinaryCodec.inflate(body, 0,
+        body.length, 1024, new Inflater(true), new FrameBuffer()));
+  }
+
+  @Test
+  public void compress_whenNotSmaller_appendsNothing() {
+    byte[] plain = encode(new WireMessage(MessageType.USER_JOINED).setNickname("SomeUser"));
+    FrameBuffer compressed = new FrameBuffer();
+
+    Assertions.assertFalse(BinaryCodec.compress(plain, 0, plain.length, compressed));
+    Assertions.assertEquals(0, compressed.size());
+  }
+
+  @Test
+  public void readFrame_whenProtocolSwitched_readsJsonThenBinary() throws IOException {
+    FrameBuffer buffer = new FrameBuffer();
+    JsonCodec.encode(new WireMessage(MessageType.LOGIN_SUCCESS)
+        .setProtocol(WireProtocol.BINARY), buffer);
+    BinaryCodec.encode(new WireMessage(MessageType.USER_LEFT).setNickname("SomeUser"), buffer);
+    FrameDecoder decoder = new FrameDecoder();
+    InputStream in = new ByteArrayInputStream(buffer.toByteArray());
+    WireMessage message = new WireMessage();
+
+    Assertions.assertTrue(decoder.readFrame(in));
+    decoder.decode(message);
+    Assertions.assertEquals(WireProtocol.BINARY, message.getProtocol());
+    decoder.setProtocol(message.getProtocol());
+    Assertions.assertTrue(decoder.readFrame(in));
+    decoder.decode(message);
+
+    Assertions.assertEquals(MessageType.USER_LEFT, message.getType());
+    Assertions.assertEquals("SomeUser", message.getNickname());
+    Assertions.assertFalse(decoder.readFrame(in));
+  }
+
+  private static byte[] encode(WireMessage message) {
+    FrameBuffer buffer = new FrameBuffer();
+    BinaryCodec.encode(message, buffer);
+    return buffer.toByteArray();
+  }
+
+  private static WireMessage readSingleFrame(byte[] bytes, WireProtocol protocol)
+      throws IOException {
+    FrameDecoder decoder = new FrameDecoder();
+    decoder.setProtocol(protocol);
+    Assertions.assertTrue(decoder.readFrame(new ByteArrayInputStream(bytes)));
+    WireMessage message = new WireMessage();
+    decoder.decode(message);
+    return message;
+  }
+}
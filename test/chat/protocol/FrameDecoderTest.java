@@ -0,0 +1,59 @@
+package chat.protocol;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * check the frame limit and the buffer size of the frame decoder.
+ */
+public class FrameDecoderTest {
+
+  private static final int MAX_FRAME_LENGTH = 16 * 1024;
+
+  @Test
+  public void readFrame_whenLineHasNoEnd_failsAtLimit() {
+    FrameDecoder decoder = new FrameDecoder(MAX_FRAME_LENGTH);
+    InputStream in = new ByteArrayInputStream(new byte[10 * MAX_FRAME_LENGTH]);
+
+    Assertions.assertThrows(FrameTooLargeException.class, () -> decoder.readFrame(in));
+    Assertions.assertTrue(decoder.buffer().length <= MAX_FRAME_LENGTH + 8);
+  }
+
+  @Test
+  public void readFrame_whenLineAtLimit_acceptsIt() throws IOException {
+    FrameDecoder decoder = new FrameDecoder(MAX_FRAME_LENGTH);
+    InputStream in = new ByteArrayInputStream(("x".repeat(MAX_FRAME_LENGTH) + "\r\n")
+        .getBytes(US_ASCII));
+
+    Assertions.assertTrue(decoder.readFrame(in));
+    Assertions.assertEquals(MAX_FRAME_LENGTH, decoder.frameLength());
+  }
+
+  @Test
+  public void readFrame_whenLengthPrefixExceedsLimit_failsBeforeBody() {
+    FrameDecoder decoder = new FrameDecoder(MAX_FRAME_LENGTH);
+    decoder.setProtocol(WireProtocol.BINARY);
+    //a varint of 1 MiB, without any body
+    InputStream in = new ByteArrayInputStream(new byte[] {(byte) 0x80, (byte) 0x80, 0x40});
+
+    Assertions.assertThrows(FrameTooLargeException.class, () -> decoder.readFrame(in));
+  }
+
+  @Test
+  public void readFrame_afterLargeFrame_shrinksBuffer() throws IOException {
+    FrameDecoder decoder = new FrameDecoder(MAX_FRAME_LENGTH);
+    InputStream in = new ByteArrayInputStream(("x".repeat(MAX_FRAME_LENGTH) + "\nsmall\n")
+        .getBytes(US_ASCII));
+
+    Assertions.assertTrue(decoder.readFrame(in));
+    Assertions.assertTrue(decoder.buffer().length > MAX_FRAME_LENGTH);
+    Assertions.assertTrue(decoder.readFrame(in));
+    Assertions.assertFalse(decoder.readFrame(in));
+    Assertions.assertTrue(decoder.buffer().length < MAX_FRAME_LENGTH);
+  }
+}
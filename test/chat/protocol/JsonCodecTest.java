@@ -0,0 +1,128 @@
+package chat.protocol;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import chat.server.JsonMessage;
+import java.net.ProtocolException;
+import java.util.List;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * check the codec against the messages of the reference implementation in {@link JsonMessage}.
+ */
+public class JsonCodecTest {
+
+  private static final String AWKWARD_TEXT = "Quote \" backslash \\ tab \t newline \n "
+      + "control \u0001 umlaut \u00fc euro \u20ac emoji \ud83d\ude00";
+
+  @Test
+  public void decode_whenReferenceLogin_readsNickname() throws ProtocolException {
+    WireMessage message = decode(JsonMessage.login(AWKWARD_TEXT));
+
+    Assertions.assertEquals(MessageType.LOGIN, message.getType());
+    Assertions.assertEquals(AWKWARD_TEXT, message.getNickname());
+  }
+
+  @Test
+  public void decode_whenReferencePostMessage_readsContent() throws ProtocolException {
+    WireMessage message = decode(JsonMessage.postMessage(AWKWARD_TEXT));
+
+    Assertions.assertEquals(MessageType.POST_MESSAGE, message.getType());
+    Assertions.assertEquals(AWKWARD_TEXT, message.getContent());
+  }
+
+  @Test
+  public void decode_whenUnknownFields_skipsThem() throws ProtocolException {
+    WireMessage message = decode(" { \"extra\" : {\"a\": [1, \"}\", null]}, \"type\":\"message\","
+        + " \"flag\": true, \"nick\": \"SomeUser\", \"time\": 1700000000000 } ");
+
+    Assertions.assertEquals(MessageType.MESSAGE, message.getType());
+    Assertions.assertEquals("SomeUser", message.getNickname());
+    Assertions.assertEquals(1700000000000L, message.getTime());
+  }
+
+  @Test
+  public void decode_whenReferenceRosterLogin_readsFeatures() throws ProtocolException {
+    WireMessage message = decode(JsonMessage.loginWithRoster("SomeUser"));
+
+    Assertions.assertTrue(message.hasFeature(WireMessage.ROSTER_FEATURE));
+    Assertions.assertFalse(decode(JsonMessage.login("SomeUser"))
+        .hasFeature(WireMessage.ROSTER_FEATURE));
+  }
+
+  @Test
+  public void encode_whenRosterDelta_isReadableByReference() throws JSONException {
+    WireMessage message = new WireMessage(MessageType.ROSTER_DELTA)
+        .setUsers(List.of("SomeUser", AWKWARD_TEXT)).setLeft(List.of("AnotherUser"));
+    FrameBuffer buffer = new FrameBuffer();
+    JsonCodec.encode(message, buffer);
+
+    JSONObject json = new JSONObject(new String(buffer.array(), 0, buffer.size(), UTF_8).trim());
+    Assertions.assertEquals(JsonMessage.ROSTER_DELTA, JsonMessage.typeOf(json));
+    Assertions.assertEquals(List.of("SomeUser", AWKWARD_TEXT), JsonMessage.getUsers(json));
+    Assertions.assertEquals(List.of("AnotherUser"), JsonMessage.getLeft(json));
+  }
+
+  @Test
+  public void decode_whenMalformed_throwsProtocolException() {
+    Assertions.assertThrows(ProtocolException.class, () -> decode("{\"type\": \"login"));
+    Assertions.assertThrows(ProtocolException.class, () -> decode("not json"));
+    Assertions.assertThrows(ProtocolException.class,
+        () -> decode("{\"type\": \"roster\", \"users\": [\"a\", 1]}"));
+  }
+
+  @Test
+  public void decode_whenTypeMissingOrUnknown_throwsProtocolException() {
+    Assertions.assertThrows(ProtocolException.class, () -> decode("{\"foo\": 1}"));
+    Assertions.assertThrows(ProtocolException.class, () -> decode("{}"));
+    Assertions.assertThrows(ProtocolException.class,
+        () -> decode("{\"type\": \"no such type\", \"nickname\": \"a\"}"));
+  }
+
+  @Test
+  public void decode_whenNumberOutOfRange_throwsProtocolException() {
+    Assertions.assertThrows(ProtocolException.class,
+        () -> decode("{\"type\": \"history request\", \"seq\": 9223372036854775808}"));
+    Assertions.assertThrows(ProtocolException.class,
+        () -> decode("{\"type\": \"history request\", \"seq\": -9223372036854775809}"));
+    Assertions.assertThrows(ProtocolException.class,
+        () -> decode("{\"type\": \"history request\", \"seq\": 100000000000000000000}"));
+  }
+
+  @Test
+  public void encode_whenLongExtremes_roundTrips() throws ProtocolException {
+    for (long value : new long[] {Long.MIN_VALUE, Long.MAX_VALUE, -1, 0, 10}) {
+      FrameBuffer buffer = new FrameBuffer();
+      JsonCodec.encode(new WireMessage(MessageType.HISTORY_END).setSequence(value), buffer);
+
+      Assertions.assertEquals(value, decode(new String(buffer.array(), 0, buffer.size(), UTF_8))
+          .getSequence());
+    }
+  }
+
+  @Test
+  public void encode_whenMessage_isReadableByReference() throws JSONException {
+    WireMessage message = new WireMessage(MessageType.MESSAGE).setNickname("SomeUser")
+        .setContent(AWKWARD_TEXT).setTime(1700000000000L);
+    FrameBuffer buffer = new FrameBuffer();
+    JsonCodec.encode(message, buffer);
+
+    String frame = new String(buffer.array(), 0, buffer.size(), UTF_8);
+    Assertions.assertTrue(frame.endsWith("\n"));
+
+    JSONObject json = new JSONObject(frame.trim());
+    Assertions.assertEquals(JsonMessage.MESSAGE, JsonMessage.typeOf(json));
+    Assertions.assertEquals("SomeUser", JsonMessage.getNickname(json));
+    Assertions.assertEquals(AWKWARD_TEXT, JsonMessage.getContent(json));
+  }
+
+  private static WireMessage decode(Object frame) throws ProtocolException {
+    byte[] bytes = frame.toString().getBytes(UTF_8);
+    WireMessage message = new WireMessage();
+    JsonCodec.decode(bytes, 0, bytes.length, message);
+    return message;
+  }
+}
@@ -0,0 +1,16 @@
+package chat.server;
+
+/**
+ * run the integration tests against a selector server that holds back writes to batch them.
+ */
+public class BatchedWritesChatServerIntegrationTest extends ChatServerIntegrationTest {
+
+  @Override
+  protected ServerNetworkConnection createServer() {
+    ServerConfig config = new ServerConfig();
+    config.setMode(ExecutionMode.SELECTOR);
+    config.setWriteBatchFrames(4);
+    config.setWriteBatchDelayMillis(20);
+    return new ServerNetworkConnection(config);
+  }
+}
@@ -0,0 +1,86 @@
+package chat.server;
+
+import static chat.server.JsonMessage.typeOf;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * test that a selector session which is closed in the middle of a write completes the deliveries
+ * of the frames it has already taken from its queue.
+ */
+public class ChannelSessionTest {
+
+  private static final int MESSAGES = 40;
+
+  @Test
+  public void close_whenBatchInFlight_completesDeliveries()
+      throws IOException, InterruptedException, JSONException {
+    ServerConfig config = new ServerConfig();
+    config.setMode(ExecutionMode.SELECTOR);
+    config.setMaxMessagesPerSecond(0);
+    config.setMaxBytesPerSecond(0);
+    config.setShutdownDrainMillis(100);
+    //nothing is dropped before the socket buffers are full
+    config.setOutboundMaxBytes(64 * 1024 * 1024);
+    ServerNetworkConnection server = new ServerNetworkConnection(config);
+    server.start();
+    //a small receive buffer, such that the socket buffers fill up quickly
+    Socket slowClient = new Socket();
+    slowClient.setReceiveBufferSize(4096);
+    slowClient.connect(new InetSocketAddress("localhost", 8080));
+    ChatTestClient poster = new ChatTestClient();
+    try {
+      slowClient.getOutputStream().write((JsonMessage.login("SlowUser") + "\n").getBytes(UTF_8));
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+          slowClient.getInputStream(), UTF_8));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS,
+          typeOf(new JSONObject(reader.readLine())));
+      poster.send(JsonMessage.login("SomeUser"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, typeOf(poster.receive()));
+
+      //the slow client reads nothing anymore, so its socket buffers fill up in the middle of a
+      //batch that the event loop has taken from the queue
+      String content = "x".repeat(256 * 1024);
+      for (int index = 0; index < MESSAGES; index++) {
+        poster.send(JsonMessage.postMessage(content));
+      }
+      for (int wait = 0; wait < 100 && server.getMetrics().getBroadcasts() < MESSAGES; wait++) {
+        Thread.sleep(50);
+      }
+      Assertions.assertEquals(MESSAGES, server.getMetrics().getBroadcasts());
+      //wait until the event loop cannot write any further
+      long written = -1;
+      while (written != server.getMetrics().getOutboundBytes()) {
+        written = server.getMetrics().getOutboundBytes();
+        Thread.sleep(200);
+      }
+    } finally {
+      //closes the session of the slow client from this thread once the drain has timed out
+      server.stop();
+      slowClient.close();
+      poster.close();
+    }
+
+    Assertions.assertEquals(MESSAGES, completedDeliveries(server.getMetrics()));
+    Assertions.assertTrue(server.getMetrics().getDroppedDeliveries() > 0);
+  }
+
+  private static long completedDeliveries(ServerMetrics metrics) {
+    String prefix = "chat_delivery_latency_seconds_count ";
+    for (String line : metrics.toText().split("\n")) {
+      if (line.startsWith(prefix)) {
+        return Long.parseLong(line.substring(prefix.length()));
+      }
+    }
+    throw new AssertionError("no delivery count in " + metrics.toText());
+  }
+}
@@ -2,9 +2,21 @@ package chat.server;
 
 import static chat.server.JsonMessage.typeOf;
 
+import chat.protocol.BinaryCodec;
+import chat.protocol.FrameBuffer;
+import chat.protocol.FrameDecoder;
+import chat.protocol.JsonCodec;
+import chat.protocol.MessageType;
+import chat.protocol.WireMessage;
+import chat.protocol.WireProtocol;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
@@ -27,12 +39,21 @@ public class ChatServerIntegrationTest {
    */
   @BeforeEach
   public void setUp() throws IOException {
-    serverConnection = new ServerNetworkConnection();
+    serverConnection = createServer();
     serverConnection.start();
 
     client = new ChatTestClient();
   }
 
+  /**
+   * create the server under test.
+   *
+   * @return the server network connection.
+   */
+  protected ServerNetworkConnection createServer() {
+    return new ServerNetworkConnection();
+  }
+
   /**
    * stop connection.
    *
@@ -145,6 +166,8 @@ public class ChatServerIntegrationTest {
     ChatTestClient otherClient = new ChatTestClient();
     try {
       otherClient.send(JsonMessage.login("SomeUser"));
+      //a login and a logout within the same presence window cancel each other out
+      Assertions.assertTrue(hasMessageOfType(JsonMessage.USER_JOINED, receiveAllClientMessages()));
       otherClient.close();
 
       List<JSONObject> messages = receiveAllClientMessages();
@@ -161,6 +184,356 @@ public class ChatServerIntegrationTest {
 
   }
 
+  @Test
+  public void handleMessage_whenRosterLogin_sendsSnapshotAndDeltas()
+      throws IOException, InterruptedException {
+    ChatTestClient legacyClient = new ChatTestClient();
+    ChatTestClient otherClient = new ChatTestClient();
+    try {
+      legacyClient.send(JsonMessage.login("LegacyUser"));
+      Thread.sleep(100);
+      client.send(JsonMessage.loginWithRoster("SomeUser"));
+      List<JSONObject> messages = receiveAllClientMessages();
+      JSONObject roster = getMessageOfType(JsonMessage.ROSTER, messages);
+      Assertions.assertNotNull(roster);
+      Assertions.assertEquals(Set.of("LegacyUser", "SomeUser"),
+          Set.copyOf(JsonMessage.getUsers(roster)));
+
+      otherClient.send(JsonMessage.login("AnotherUser"));
+      //a login and a logout within the same presence window cancel each other out
+      receiveAllClientMessages();
+      otherClient.close();
+      legacyClient.receiveAll();
+      messages = receiveAllClientMessages();
+
+      //a roster client only gets deltas, whose last one reports the user as gone
+      JSONObject lastDelta = null;
+      for (JSONObject delta : messages) {
+        Assertions.assertEquals(JsonMessage.ROSTER_DELTA, typeOf(delta));
+        if (JsonMessage.getUsers(delta).contains("AnotherUser")
+            || JsonMessage.getLeft(delta).contains("AnotherUser")) {
+          lastDelta = delta;
+        }
+      }
+      Assertions.assertNotNull(lastDelta);
+      Assertions.assertEquals(List.of("AnotherUser"), JsonMessage.getLeft(lastDelta));
+    } finally {
+      legacyClient.close();
+      otherClient.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenLoginAfterMessages_sendsBackfill()
+      throws IOException, InterruptedException {
+    ChatTestClient otherClient = new ChatTestClient();
+    try {
+      otherClient.send(JsonMessage.login("AnotherUser"));
+      otherClient.send(JsonMessage.postMessage("first"));
+      otherClient.send(JsonMessage.postMessage("second"));
+      Thread.sleep(100);
+      client.send(JsonMessage.login("SomeUser"));
+
+      //the connection was already open, so the client may have received the messages live, too
+      List<JSONObject> messages = receiveAllClientMessages();
+      JSONObject loginSuccess = getMessageOfType(JsonMessage.LOGIN_SUCCESS, messages);
+      Assertions.assertNotNull(loginSuccess);
+      List<JSONObject> backfill =
+          messages.subList(messages.indexOf(loginSuccess) + 1, messages.size());
+
+      Assertions.assertEquals(List.of("first", "second"), backfill.stream()
+          .filter(x -> typeOf(x) == JsonMessage.MESSAGE).map(JsonMessage::getContent).toList());
+    } finally {
+      otherClient.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenHistoryRequest_sendsOlderPage()
+      throws IOException, InterruptedException {
+    ChatTestClient otherClient = new ChatTestClient();
+    try {
+      otherClient.send(JsonMessage.login("AnotherUser"));
+      for (int index = 1; index <= 4; index++) {
+        otherClient.send(JsonMessage.postMessage("message-" + index));
+      }
+      Thread.sleep(100);
+      otherClient.receiveAll();
+      otherClient.send(JsonMessage.historyRequest(4, 2));
+
+      Thread.sleep(200);
+      List<JSONObject> page = otherClient.receiveAll();
+      Assertions.assertEquals(List.of(JsonMessage.MESSAGE, JsonMessage.MESSAGE,
+          JsonMessage.HISTORY_END), page.stream().map(JsonMessage::typeOf).toList());
+      Assertions.assertEquals(List.of(2L, 3L),
+          page.subList(0, 2).stream().map(JsonMessage::getSequence).toList());
+      Assertions.assertEquals("message-2", JsonMessage.getContent(page.get(0)));
+    } finally {
+      otherClient.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenResume_replaysOnlyMissedMessages()
+      throws IOException, InterruptedException {
+    ChatTestClient otherClient = new ChatTestClient();
+    ChatTestClient resumedClient = null;
+    try {
+      client.send(JsonMessage.login("SomeUser"));
+      otherClient.send(JsonMessage.login("AnotherUser"));
+      Thread.sleep(100);
+      otherClient.send(JsonMessage.postMessage("seen"));
+      List<JSONObject> messages = receiveAllClientMessages();
+      JSONObject firstSuccess = getMessageOfType(JsonMessage.LOGIN_SUCCESS, messages);
+      String session = JsonMessage.getSession(firstSuccess);
+      long lastSeen = JsonMessage.getSequence(getMessageOfType(JsonMessage.MESSAGE, messages));
+      Assertions.assertNotNull(session);
+      Assertions.assertFalse(JsonMessage.isResumed(firstSuccess));
+
+      //the connection breaks without logging off
+      client.close();
+      Thread.sleep(100);
+      otherClient.send(JsonMessage.postMessage("missed"));
+      Thread.sleep(100);
+      resumedClient = new ChatTestClient();
+      resumedClient.send(JsonMessage.resume("SomeUser", session, lastSeen));
+
+      Thread.sleep(200);
+      List<JSONObject> resumed = resumedClient.receiveAll();
+      JSONObject loginSuccess = getMessageOfType(JsonMessage.LOGIN_SUCCESS, resumed);
+      Assertions.assertNotNull(loginSuccess);
+      Assertions.assertTrue(JsonMessage.isResumed(loginSuccess));
+      Assertions.assertEquals(List.of("missed"),
+          resumed.subList(resumed.indexOf(loginSuccess) + 1, resumed.size()).stream()
+              .filter(x -> typeOf(x) == JsonMessage.MESSAGE).map(JsonMessage::getContent)
+              .toList());
+    } finally {
+      otherClient.close();
+      if (resumedClient != null) {
+        resumedClient.close();
+      }
+    }
+  }
+
+  @Test
+  public void handleMessage_whenPostToRoom_reachesOnlyMembers()
+      throws IOException, InterruptedException {
+    ChatTestClient member = new ChatTestClient();
+    ChatTestClient outsider = new ChatTestClient();
+    try {
+      client.send(JsonMessage.login("SomeUser"));
+      client.send(JsonMessage.joinRoom("dev"));
+      member.send(JsonMessage.login("AnotherUser"));
+      outsider.send(JsonMessage.login("Outsider"));
+      Thread.sleep(100);
+      member.send(JsonMessage.joinRoom("dev"));
+      member.send(JsonMessage.postToRoom("dev", "Hi dev!"));
+      outsider.send(JsonMessage.postToRoom("dev", "Let me in!"));
+
+      List<JSONObject> messages = receiveAllClientMessages();
+      JSONObject message = getMessageOfType(JsonMessage.MESSAGE, messages);
+      Assertions.assertNotNull(message);
+      Assertions.assertEquals("AnotherUser", JsonMessage.getNickname(message));
+      Assertions.assertEquals("Hi dev!", JsonMessage.getContent(message));
+      Assertions.assertEquals("dev", JsonMessage.getRoom(message));
+      Assertions.assertEquals(1,
+          messages.stream().filter(x -> typeOf(x) == JsonMessage.MESSAGE).count());
+
+      Assertions.assertFalse(hasMessageOfType(JsonMessage.MESSAGE, outsider.receiveAll()));
+    } finally {
+      member.close();
+      outsider.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenDirectMessage_reachesOnlyRecipient()
+      throws IOException, InterruptedException {
+    ChatTestClient sender = new ChatTestClient();
+    ChatTestClient bystander = new ChatTestClient();
+    try {
+      client.send(JsonMessage.login("SomeUser"));
+      sender.send(JsonMessage.login("AnotherUser"));
+      bystander.send(JsonMessage.login("Bystander"));
+      Thread.sleep(100);
+      sender.send(JsonMessage.directMessage("SomeUser", "Psst!"));
+      sender.send(JsonMessage.directMessage("Nobody", "Hello?"));
+
+      JSONObject message =
+          getMessageOfType(JsonMessage.DIRECT_MESSAGE, receiveAllClientMessages());
+      Assertions.assertNotNull(message);
+      Assertions.assertEquals("AnotherUser", JsonMessage.getNickname(message));
+      Assertions.assertEquals("Psst!", JsonMessage.getContent(message));
+
+      List<String> statuses = sender.receiveAll().stream()
+          .filter(x -> typeOf(x) == JsonMessage.DELIVERY_STATUS)
+          .map(JsonMessage::getStatus).toList();
+      Assertions.assertEquals(List.of("delivered", "unknown user"), statuses);
+      Assertions.assertFalse(
+          hasMessageOfType(JsonMessage.DIRECT_MESSAGE, bystander.receiveAll()));
+    } finally {
+      sender.close();
+      bystander.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenMixedProtocols_broadcastsToBoth()
+      throws IOException, InterruptedException {
+    client.send(JsonMessage.login("JsonUser"));
+    client.receive();
+    try (Socket binaryClient = new Socket("localhost", 8080)) {
+      FrameBuffer out = new FrameBuffer();
+      JsonCodec.encode(new WireMessage(MessageType.LOGIN).setNickname("BinaryUser")
+          .setProtocol(WireProtocol.BINARY), out);
+      out.writeTo(binaryClient.getOutputStream());
+
+      InputStream in = binaryClient.getInputStream();
+      FrameDecoder decoder = new FrameDecoder();
+      WireMessage message = new WireMessage();
+      Assertions.assertTrue(decoder.readFrame(in));
+      decoder.decode(message);
+      Assertions.assertEquals(MessageType.LOGIN_SUCCESS, message.getType());
+      Assertions.assertEquals(WireProtocol.BINARY, message.getProtocol());
+      decoder.setProtocol(WireProtocol.BINARY);
+
+      out.reset();
+      BinaryCodec.encode(new WireMessage(MessageType.POST_MESSAGE).setContent("Hi!"), out);
+      out.writeTo(binaryClient.getOutputStream());
+      client.send(JsonMessage.postMessage("Hello!"));
+
+      List<JSONObject> messages = receiveAllClientMessages();
+      JSONObject received = getMessageOfType(JsonMessage.MESSAGE, messages);
+      Assertions.assertNotNull(received);
+      Assertions.assertEquals("BinaryUser", JsonMessage.getNickname(received));
+      Assertions.assertEquals("Hi!", JsonMessage.getContent(received));
+
+      Assertions.assertTrue(decoder.readFrame(in));
+      decoder.decode(message);
+      Assertions.assertEquals(MessageType.MESSAGE, message.getType());
+      Assertions.assertEquals("JsonUser", message.getNickname());
+      Assertions.assertEquals("Hello!", message.getContent());
+    }
+  }
+
+  @Test
+  public void stop_whenClientConnected_drainsNoticeAndCloses()
+      throws IOException, InterruptedException {
+    ChatTestClient otherClient = new ChatTestClient();
+    try {
+      client.send(JsonMessage.login("SomeUser"));
+      otherClient.send(JsonMessage.login("AnotherUser"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, typeOf(client.receive()));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, typeOf(otherClient.receive()));
+      otherClient.send(JsonMessage.postMessage("Bye!"));
+      Thread.sleep(200);
+
+      serverConnection.stop();
+
+      //the queued messages arrive before the notice, then the connection is closed
+      List<JsonMessage> types = new ArrayList<>();
+      JSONObject message;
+      while ((message = client.receive()) != null) {
+        types.add(typeOf(message));
+      }
+      Assertions.assertTrue(types.contains(JsonMessage.MESSAGE));
+      Assertions.assertEquals(JsonMessage.SERVER_SHUTDOWN, types.get(types.size() - 1));
+    } finally {
+      otherClient.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenFlooding_answersRateLimited()
+      throws IOException, InterruptedException {
+    client.send(JsonMessage.login("SomeUser"));
+    Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, typeOf(client.receive()));
+
+    int burst = serverConnection.getConfig().getMaxMessagesPerSecond();
+    for (int index = 0; index < 2 * burst; index++) {
+      client.send(JsonMessage.postMessage("Spam"));
+    }
+
+    JSONObject error = getMessageOfType(JsonMessage.ERROR, receiveAllClientMessages());
+    Assertions.assertNotNull(error);
+    Assertions.assertEquals("rate limited", JsonMessage.getError(error));
+    Assertions.assertTrue(serverConnection.getRateLimitedFrames() > 0);
+  }
+
+  @Test
+  public void handleMessage_whenBroadcast_recordsMetrics()
+      throws IOException, InterruptedException {
+    ChatTestClient otherClient = new ChatTestClient();
+    try {
+      client.send(JsonMessage.login("SomeUser"));
+      otherClient.send(JsonMessage.login("AnotherUser"));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, typeOf(client.receive()));
+      Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, typeOf(otherClient.receive()));
+      otherClient.send(JsonMessage.postMessage("Hello!"));
+      receiveAllClientMessages();
+
+      ServerMetrics metrics = serverConnection.getMetrics();
+      Assertions.assertEquals(3, metrics.getInboundFrames());
+      Assertions.assertEquals(1, metrics.getBroadcasts());
+      Assertions.assertEquals(2, metrics.getActiveSessions());
+      Assertions.assertTrue(metrics.getOutboundBytes() > 0);
+      Assertions.assertTrue(metrics.getDeliveryLatencyMaxMicros() > 0);
+      Assertions.assertTrue(metrics.toText().contains("chat_broadcasts_total 1\n"));
+    } finally {
+      otherClient.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenFrameTooLarge_answersErrorAndCloses() throws IOException {
+    serverConnection.getConfig().setMaxFrameBytes(1024);
+
+    ChatTestClient otherClient = new ChatTestClient();
+    try {
+      otherClient.send(JsonMessage.postMessage("x".repeat(3000)));
+
+      JSONObject error = otherClient.receive();
+      Assertions.assertEquals(JsonMessage.ERROR, typeOf(error));
+      Assertions.assertEquals("frame too large", JsonMessage.getError(error));
+      Assertions.assertNull(otherClient.receive());
+    } finally {
+      otherClient.close();
+    }
+  }
+
+  @Test
+  public void handleMessage_whenTypeUnknown_closesOnlyThatClient()
+      throws IOException, JSONException {
+    ChatTestClient otherClient = new ChatTestClient();
+    try {
+      otherClient.send(new JSONObject("{\"foo\": 1}"));
+      Assertions.assertNull(otherClient.receive());
+    } finally {
+      otherClient.close();
+    }
+
+    client.send(JsonMessage.login("SomeUser"));
+    Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, typeOf(client.receive()));
+  }
+
+  @Test
+  public void register_whenAtConnectionLimit_refusesClient() throws IOException {
+    client.send(JsonMessage.login("SomeUser"));
+    Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, typeOf(client.receive()));
+    serverConnection.getConfig().setMaxConnections(1);
+
+    ChatTestClient otherClient = new ChatTestClient();
+    try {
+      JSONObject error = otherClient.receive();
+      Assertions.assertEquals(JsonMessage.ERROR, typeOf(error));
+      Assertions.assertEquals("too many connections", JsonMessage.getError(error));
+      //the server closes the connection after the error
+      Assertions.assertNull(otherClient.receive());
+    } finally {
+      otherClient.close();
+    }
+  }
+
   /**
    * receive all client messages.
    *
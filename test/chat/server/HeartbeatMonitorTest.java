@@ -0,0 +1,99 @@
+package chat.server;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * test the pings and the idle timeout of the heartbeat monitor.
+ */
+public class HeartbeatMonitorTest {
+
+  private static final long PING_INTERVAL_MILLIS = 40;
+  private static final long IDLE_TIMEOUT_MILLIS = 120;
+
+  private final List<Session> pinged = new CopyOnWriteArrayList<>();
+  private final List<Session> expired = new CopyOnWriteArrayList<>();
+  private final List<Session> unreachable = new CopyOnWriteArrayList<>();
+  private final HeartbeatMonitor monitor = new HeartbeatMonitor(PING_INTERVAL_MILLIS,
+      IDLE_TIMEOUT_MILLIS, session -> !expired.contains(session), this::ping, expired::add);
+
+  @Test
+  public void tick_whenClientStaysSilent_pingsAndExpiresIt() throws InterruptedException {
+    Session session = newSession();
+    monitor.add(session);
+
+    advance(PING_INTERVAL_MILLIS + 20);
+    Assertions.assertEquals(List.of(session), pinged);
+    Assertions.assertTrue(expired.isEmpty());
+
+    advance(IDLE_TIMEOUT_MILLIS);
+    Assertions.assertEquals(List.of(session), pinged);
+    Assertions.assertEquals(List.of(session), expired);
+  }
+
+  @Test
+  public void tick_whenClientAnswers_keepsIt() throws InterruptedException {
+    Session session = newSession();
+    monitor.add(session);
+
+    for (int round = 0; round < 5; round++) {
+      advance(PING_INTERVAL_MILLIS + 20);
+      //the pong of the client
+      session.frameReceived();
+    }
+    Assertions.assertFalse(pinged.isEmpty());
+    Assertions.assertTrue(expired.isEmpty());
+  }
+
+  @Test
+  public void tick_whenPingFails_keepsWatchingAllClients() throws InterruptedException {
+    Session broken = newSession();
+    Session session = newSession();
+    unreachable.add(broken);
+    monitor.add(broken);
+    monitor.add(session);
+
+    advance(PING_INTERVAL_MILLIS + 20);
+    Assertions.assertEquals(List.of(session), pinged);
+
+    advance(IDLE_TIMEOUT_MILLIS);
+    Assertions.assertTrue(expired.containsAll(List.of(broken, session)));
+  }
+
+  private void ping(Session session) {
+    if (unreachable.contains(session)) {
+      throw new IllegalStateException("channel already closed");
+    }
+    pinged.add(session);
+  }
+
+  /**
+   * advance the wheel in real time, as the ticker thread would.
+   */
+  private void advance(long millis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + millis;
+    while (System.currentTimeMillis() < deadline) {
+      Thread.sleep(2);
+      monitor.tick();
+    }
+  }
+
+  private static Session newSession() {
+    return new Session(1, new ServerConfig()) {
+      @Override
+      void framesQueued() {
+      }
+
+      @Override
+      boolean awaitFlushed(long timeoutNanos) {
+        return true;
+      }
+
+      @Override
+      void close() {
+      }
+    };
+  }
+}
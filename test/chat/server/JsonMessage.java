@@ -3,9 +3,12 @@ package chat.server;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -16,7 +19,11 @@ public enum JsonMessage {
 
   LOGIN("login"), LOGIN_SUCCESS("login success"), LOGIN_FAILED("login failed"),
   USER_JOINED("user joined"), POST_MESSAGE("post message"), MESSAGE("message"),
-  USER_LEFT("user left");
+  USER_LEFT("user left"), JOIN_ROOM("join room"), LEAVE_ROOM("leave room"),
+  POST_TO_ROOM("post to room"), DIRECT_MESSAGE("direct message"),
+  DELIVERY_STATUS("delivery status"), HISTORY_REQUEST("history request"),
+  HISTORY_END("history end"), ROSTER("roster"), ROSTER_DELTA("roster delta"),
+  SERVER_SHUTDOWN("server shutdown"), ERROR("error"), PING("ping"), PONG("pong");
 
   public static final String TYPE_FIELD = "type";
 
@@ -26,6 +33,28 @@ public enum JsonMessage {
 
   public static final String TIME_FIELD = "time";
 
+  public static final String ROOM_FIELD = "room";
+
+  public static final String TO_FIELD = "to";
+
+  public static final String STATUS_FIELD = "status";
+
+  public static final String SEQUENCE_FIELD = "seq";
+
+  public static final String LIMIT_FIELD = "limit";
+
+  public static final String SESSION_FIELD = "session";
+
+  public static final String RESUMED_FIELD = "resumed";
+
+  public static final String USERS_FIELD = "users";
+
+  public static final String LEFT_FIELD = "left";
+
+  public static final String FEATURES_FIELD = "features";
+
+  public static final String ERROR_FIELD = "error";
+
   private final String jsonName;
 
   /**
@@ -74,6 +103,106 @@ public enum JsonMessage {
     }
   }
 
+  /**
+   * create a login message of a client that keeps a roster.
+   *
+   * @param nickname nickname of the login client.
+   *
+   * @return login message.
+   */
+  public static JSONObject loginWithRoster(String nickname) {
+    try {
+      return login(nickname).put(FEATURES_FIELD, new JSONArray().put("roster"));
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
+  /**
+   * create a login message of a client that answers pings.
+   *
+   * @param nickname nickname of the login client.
+   *
+   * @return login message.
+   */
+  public static JSONObject loginWithPing(String nickname) {
+    try {
+      return login(nickname).put(FEATURES_FIELD, new JSONArray().put("ping"));
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
+  /**
+   * get the nicknames of a roster snapshot, or the ones that have joined in a roster delta.
+   *
+   * @param object the Json object.
+   *
+   * @return the nicknames, empty if the field is absent.
+   */
+  public static List<String> getUsers(JSONObject object) {
+    return getList(object, USERS_FIELD);
+  }
+
+  /**
+   * get the nicknames that have left in a roster delta.
+   *
+   * @param object the Json object.
+   *
+   * @return the nicknames, empty if the field is absent.
+   */
+  public static List<String> getLeft(JSONObject object) {
+    return getList(object, LEFT_FIELD);
+  }
+
+  private static List<String> getList(JSONObject object, String field) {
+    List<String> values = new ArrayList<>();
+    JSONArray array = object.optJSONArray(field);
+    for (int index = 0; array != null && index < array.length(); index++) {
+      values.add(array.optString(index));
+    }
+    return values;
+  }
+
+  /**
+   * create a login message that resumes a lost session.
+   *
+   * @param nickname nickname of the login client.
+   * @param session  the token of the lost session.
+   * @param lastSeen the sequence number of the last received message of the main chat.
+   *
+   * @return login message.
+   */
+  public static JSONObject resume(String nickname, String session, long lastSeen) {
+    try {
+      return login(nickname).put(SESSION_FIELD, session).put(SEQUENCE_FIELD, lastSeen);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
+  /**
+   * get the session token of the Json object.
+   *
+   * @param object the Json object.
+   *
+   * @return the session token, or null if it is absent.
+   */
+  public static String getSession(JSONObject object) {
+    return object.optString(SESSION_FIELD, null);
+  }
+
+  /**
+   * check whether a login success has resumed the session of the login.
+   *
+   * @param object the Json object.
+   *
+   * @return true if the resumed flag is set.
+   */
+  public static boolean isResumed(JSONObject object) {
+    return object.optLong(RESUMED_FIELD, 0) != 0;
+  }
+
   /**
    * post message.
    *
@@ -92,6 +221,111 @@ public enum JsonMessage {
     }
   }
 
+  /**
+   * join a room.
+   *
+   * @param room name of the room.
+   *
+   * @return a Json message.
+   */
+  public static JSONObject joinRoom(String room) {
+    try {
+      return createMessageOfType(JOIN_ROOM).put(ROOM_FIELD, room);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
+  /**
+   * post a message to a room.
+   *
+   * @param room    name of the room.
+   * @param content content of message.
+   *
+   * @return a Json message.
+   */
+  public static JSONObject postToRoom(String room, String content) {
+    try {
+      return createMessageOfType(POST_TO_ROOM).put(ROOM_FIELD, room).put(CONTENT_FIELD, content);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
+  /**
+   * send a direct message.
+   *
+   * @param to      nickname of the recipient.
+   * @param content content of message.
+   *
+   * @return a Json message.
+   */
+  public static JSONObject directMessage(String to, String content) {
+    try {
+      return createMessageOfType(DIRECT_MESSAGE).put(TO_FIELD, to).put(CONTENT_FIELD, content);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
+  /**
+   * request the messages of the main chat before a sequence number.
+   *
+   * @param before the sequence number behind the requested messages.
+   * @param limit  the largest number of messages.
+   *
+   * @return a Json message.
+   */
+  public static JSONObject historyRequest(long before, int limit) {
+    try {
+      return createMessageOfType(HISTORY_REQUEST).put(SEQUENCE_FIELD, before)
+          .put(LIMIT_FIELD, limit);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to create a json object.", e);
+    }
+  }
+
+  /**
+   * get the sequence number of the Json object.
+   *
+   * @param object the Json object.
+   *
+   * @return the sequence number, or 0 if it is absent.
+   */
+  public static long getSequence(JSONObject object) {
+    return object.optLong(SEQUENCE_FIELD, 0);
+  }
+
+  /**
+   * get the delivery status of the Json object.
+   *
+   * @param object the Json object.
+   *
+   * @return the status.
+   */
+  public static String getStatus(JSONObject object) {
+    try {
+      return object.getString(STATUS_FIELD);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to read a json object.", e);
+    }
+  }
+
+  /**
+   * get the error code of the Json object.
+   *
+   * @param object the Json object.
+   *
+   * @return the error code.
+   */
+  public static String getError(JSONObject object) {
+    try {
+      return object.getString(ERROR_FIELD);
+    } catch (JSONException e) {
+      throw new IllegalArgumentException("Failed to read a json object.", e);
+    }
+  }
+
   /**
    * create a Json message.
    *
@@ -119,6 +353,17 @@ public enum JsonMessage {
     }
   }
 
+  /**
+   * get the room of the Json object.
+   *
+   * @param object the Json object.
+   *
+   * @return the room, or null for the main chat.
+   */
+  public static String getRoom(JSONObject object) {
+    return object.optString(ROOM_FIELD, null);
+  }
+
   /**
    * get the content of the Json object.
    *
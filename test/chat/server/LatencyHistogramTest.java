@@ -0,0 +1,44 @@
+package chat.server;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * test the buckets and the percentiles of the latency histogram.
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void indexOf_whenValueAtBucketEdge_matchesHighestValue() {
+    for (int index = 0; index < 900; index++) {
+      long highest = LatencyHistogram.highestValueOf(index);
+      Assertions.assertEquals(index, LatencyHistogram.indexOf(highest));
+      Assertions.assertEquals(index + 1, LatencyHistogram.indexOf(highest + 1));
+    }
+    Assertions.assertTrue(LatencyHistogram.indexOf(Long.MAX_VALUE) < 1000);
+  }
+
+  @Test
+  public void getPercentileNanos_whenUniformValues_isWithinPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 100_000; value++) {
+      histogram.record(value * 1000);
+    }
+
+    assertClose(50_000_000, histogram.getPercentileNanos(50));
+    assertClose(99_000_000, histogram.getPercentileNanos(99));
+    Assertions.assertEquals(100_000_000, histogram.getPercentileNanos(100));
+    Assertions.assertEquals(100_000_000, histogram.getMaxNanos());
+    Assertions.assertEquals(100_000, histogram.getCount());
+  }
+
+  @Test
+  public void getPercentileNanos_whenEmpty_isZero() {
+    Assertions.assertEquals(0, new LatencyHistogram().getPercentileNanos(99));
+  }
+
+  private static void assertClose(long expected, long actual) {
+    Assertions.assertTrue(Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS,
+        "expected about " + expected + " but was " + actual);
+  }
+}
@@ -0,0 +1,136 @@
+package chat.server;
+
+import chat.protocol.BinaryCodec;
+import chat.protocol.MessageType;
+import chat.protocol.WireMessage;
+import chat.protocol.WireProtocol;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * test the sequence numbers, the bounds and the pages of the message history.
+ */
+public class MessageHistoryTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void add_beyondMaxMessages_evictsOldest() {
+    MessageHistory history = new MessageHistory(2, Integer.MAX_VALUE);
+
+    history.add(message("first", null));
+    Frame second = history.add(message("second", null));
+    Frame third = history.add(message("third", null));
+
+    Assertions.assertEquals(List.of(second, third), history.recent(null));
+  }
+
+  @Test
+  public void add_beyondMaxBytes_evictsOldest() {
+    //the ring counts the characters of the nickname and the content of every message
+    int size = "AnotherUser".length() * 2 + "second".length() + "third".length();
+    MessageHistory history = new MessageHistory(10, size);
+
+    history.add(message("first", null));
+    Frame secondFrame = history.add(message("second", null));
+    Frame thirdFrame = history.add(message("third", null));
+
+    Assertions.assertEquals(List.of(secondFrame, thirdFrame), history.recent(null));
+  }
+
+  @Test
+  public void add_toRoom_numbersAndKeepsRoomsApart() {
+    MessageHistory history = new MessageHistory(10, Integer.MAX_VALUE);
+
+    Frame main = history.add(message("main", null));
+    Frame dev = history.add(message("dev", "dev"));
+    Frame moreDev = history.add(message("more dev", "dev"));
+
+    Assertions.assertEquals(1, main.getSequence());
+    Assertions.assertEquals(1, dev.getSequence());
+    Assertions.assertEquals(2, moreDev.getSequence());
+    Assertions.assertEquals(List.of(main), history.recent(null));
+    Assertions.assertEquals(List.of(dev, moreDev), history.recent("dev"));
+    Assertions.assertEquals(List.of(), history.recent("ops"));
+  }
+
+  @Test
+  public void add_whenDisabled_keepsNothing() {
+    MessageHistory history = new MessageHistory(0, Integer.MAX_VALUE);
+
+    history.add(message("hello", null));
+
+    Assertions.assertEquals(List.of(), history.recent(null));
+  }
+
+  @Test
+  public void page_withinRing_servesFromMemory() throws ProtocolException {
+    MessageHistory history = new MessageHistory(10, Integer.MAX_VALUE);
+    for (int index = 1; index <= 5; index++) {
+      history.add(message("message-" + index, null));
+    }
+
+    assertContents(history.page(null, 5, 2), "message-3", "message-4");
+    assertContents(history.page(null, 0, 2), "message-4", "message-5");
+    assertContents(history.page(null, 2, 10), "message-1");
+  }
+
+  @Test
+  public void page_beyondRing_readsJournal() throws IOException {
+    MessageJournal journal = new MessageJournal(directory, 4096, 4, JournalSyncPolicy.NEVER, 0);
+    journal.open();
+    MessageHistory history = new MessageHistory(2, Integer.MAX_VALUE);
+    history.recover(journal);
+    for (int index = 1; index <= 5; index++) {
+      history.journal(history.add(message("message-" + index, null)));
+    }
+
+    assertContents(history.page(null, 0, 4), "message-2", "message-3", "message-4", "message-5");
+    journal.close();
+  }
+
+  @Test
+  public void recover_afterRestart_continuesSequenceAndBackfill() throws IOException {
+    MessageJournal journal = new MessageJournal(directory, 4096, 4, JournalSyncPolicy.NEVER, 0);
+    journal.open();
+    MessageHistory history = new MessageHistory(10, Integer.MAX_VALUE);
+    history.recover(journal);
+    history.journal(history.add(message("first", "dev")));
+    history.journal(history.add(message("second", "dev")));
+    journal.close();
+
+    MessageJournal reopened =
+        new MessageJournal(directory, 4096, 4, JournalSyncPolicy.NEVER, 0);
+    reopened.open();
+    MessageHistory recovered = new MessageHistory(10, Integer.MAX_VALUE);
+    recovered.recover(reopened);
+
+    assertContents(recovered.recent("dev"), "first", "second");
+    Assertions.assertEquals(3, recovered.add(message("third", "dev")).getSequence());
+    reopened.close();
+  }
+
+  private static WireMessage message(String content, String room) {
+    return new WireMessage(MessageType.MESSAGE).setNickname("AnotherUser").setContent(content)
+        .setRoom(room);
+  }
+
+  private static void assertContents(List<Frame> frames, String... expected)
+      throws ProtocolException {
+    List<String> contents = new ArrayList<>();
+    for (Frame frame : frames) {
+      byte[] bytes = frame.bytes(WireProtocol.BINARY);
+      WireMessage message = new WireMessage();
+      BinaryCodec.decodeFrame(bytes, 0, bytes.length, message);
+      contents.add(message.getContent());
+    }
+    Assertions.assertEquals(List.of(expected), contents);
+  }
+}
@@ -0,0 +1,152 @@
+package chat.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * test appending, recovering and rolling the memory-mapped message journal.
+ */
+public class MessageJournalTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void open_afterClose_recoversRecordsAndIndex() throws IOException {
+    MessageJournal journal = journal(4096, 4);
+    journal.open();
+    Assertions.assertEquals(0, journal.append(record("first")));
+    Assertions.assertEquals(1, journal.append(record("second")));
+    journal.close();
+
+    MessageJournal reopened = journal(4096, 4);
+    reopened.open();
+    Assertions.assertEquals(2, reopened.append(record("third")));
+    assertRecords(reopened.read(0, 10), "first", "second", "third");
+    assertRecords(reopened.read(1, 1), "second");
+    reopened.close();
+  }
+
+  @Test
+  public void open_withTornRecord_dropsIncompleteTail() throws IOException {
+    MessageJournal journal = journal(4096, 4);
+    journal.open();
+    journal.append(record("complete"));
+    journal.append(record("torn"));
+    journal.close();
+    //destroy the last byte of the second payload, as if the machine crashed during the append
+    Path segment = segmentFiles().get(0);
+    int tornByte = 2 * JournalSegment.HEADER_BYTES + "complete".length() + "torn".length() - 1;
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0}), tornByte);
+    }
+
+    MessageJournal reopened = journal(4096, 4);
+    reopened.open();
+    Assertions.assertEquals(1, reopened.getNextIndex());
+    reopened.append(record("after"));
+    assertRecords(reopened.read(0, 10), "complete", "after");
+    reopened.close();
+  }
+
+  @Test
+  public void open_withTornRecord_zerosTail() throws IOException {
+    MessageJournal journal = journal(4096, 4);
+    journal.open();
+    journal.append(record("complete"));
+    journal.close();
+    //a torn append that left a header and some bytes far behind the last record
+    Path segment = segmentFiles().get(0);
+    int end = JournalSegment.HEADER_BYTES + "complete".length();
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 42}), end);
+      channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), 4000);
+    }
+
+    MessageJournal reopened = journal(4096, 4);
+    reopened.open();
+    reopened.close();
+
+    byte[] bytes = Files.readAllBytes(segment);
+    Assertions.assertArrayEquals(new byte[bytes.length - end],
+        Arrays.copyOfRange(bytes, end, bytes.length));
+  }
+
+  @Test
+  public void append_whenSegmentFull_rollsAndDeletesOldestSegments() throws IOException {
+    //every segment has room for exactly two records
+    MessageJournal journal = journal(2 * (JournalSegment.HEADER_BYTES + 8), 2);
+    journal.open();
+    for (int index = 0; index < 7; index++) {
+      journal.append(record("record-" + index));
+    }
+
+    Assertions.assertEquals(2, journal.getSegmentCount());
+    Assertions.assertEquals(2, segmentFiles().size());
+    Assertions.assertEquals(4, journal.getFirstIndex());
+    assertRecords(journal.read(0, 10), "record-4", "record-5", "record-6");
+    journal.close();
+  }
+
+  @Test
+  public void open_afterRolls_recoversAllSegmentsAndLeavesNoSpare() throws IOException {
+    MessageJournal journal = journal(2 * (JournalSegment.HEADER_BYTES + 8), 8);
+    journal.open();
+    for (int index = 0; index < 7; index++) {
+      journal.append(record("record-" + index));
+    }
+    journal.close();
+    Assertions.assertFalse(Files.exists(directory.resolve(JournalSegment.SPARE_NAME)));
+
+    MessageJournal reopened = journal(2 * (JournalSegment.HEADER_BYTES + 8), 8);
+    reopened.open();
+    Assertions.assertEquals(4, reopened.getSegmentCount());
+    Assertions.assertEquals(7, reopened.append(record("record-7")));
+    assertRecords(reopened.read(5, 10), "record-5", "record-6", "record-7");
+    reopened.close();
+  }
+
+  @Test
+  public void append_recordLargerThanSegment_getsOwnSegment() throws IOException {
+    MessageJournal journal = journal(64, 4);
+    journal.open();
+    String large = "x".repeat(200);
+    journal.append(record("small"));
+    journal.append(record(large));
+
+    assertRecords(journal.read(0, 10), "small", large);
+    journal.close();
+  }
+
+  private MessageJournal journal(int segmentBytes, int retentionSegments) {
+    return new MessageJournal(directory, segmentBytes, retentionSegments,
+        JournalSyncPolicy.GROUP_COMMIT, 10);
+  }
+
+  private List<Path> segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(JournalSegment::isSegmentFile).sorted().toList();
+    }
+  }
+
+  private static byte[] record(String text) {
+    return text.getBytes(UTF_8);
+  }
+
+  private static void assertRecords(List<byte[]> records, String... expected) {
+    Assertions.assertEquals(List.of(expected),
+        records.stream().map(x -> new String(x, UTF_8)).toList());
+  }
+}
@@ -0,0 +1,193 @@
+package chat.server;
+
+import chat.protocol.MessageType;
+import chat.protocol.WireMessage;
+import chat.protocol.WireProtocol;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * test the slow-consumer policies of the outbound queue.
+ */
+public class OutboundQueueTest {
+
+  @Test
+  public void offer_whenFullAndDropOldest_dropsOldestMessage() {
+    OutboundQueue queue = new OutboundQueue(2, Integer.MAX_VALUE, SlowConsumerPolicy.DROP_OLDEST);
+    Frame joined = presence(MessageType.USER_JOINED, "SomeUser");
+    Frame first = message("first");
+    Frame second = message("second");
+
+    Assertions.assertTrue(queue.offer(first));
+    Assertions.assertTrue(queue.offer(joined));
+    Assertions.assertTrue(queue.offer(second));
+
+    Assertions.assertSame(joined, queue.poll().frame());
+    Assertions.assertSame(second, queue.poll().frame());
+    Assertions.assertEquals(1, queue.getDroppedFrames());
+  }
+
+  @Test
+  public void offer_whenFullAndCoalescePresence_cancelsJoinAndLeave() {
+    OutboundQueue queue =
+        new OutboundQueue(2, Integer.MAX_VALUE, SlowConsumerPolicy.COALESCE_PRESENCE);
+    Frame text = message("hello");
+
+    Assertions.assertTrue(queue.offer(presence(MessageType.USER_JOINED, "SomeUser")));
+    Assertions.assertTrue(queue.offer(text));
+    Assertions.assertTrue(queue.offer(presence(MessageType.USER_LEFT, "SomeUser")));
+
+    Assertions.assertSame(text, queue.poll().frame());
+    Assertions.assertTrue(queue.isEmpty());
+    Assertions.assertEquals(2, queue.getCoalescedFrames());
+    Assertions.assertEquals(0, queue.getDroppedFrames());
+  }
+
+  @Test
+  public void offer_whenStalledAndDropOldest_keepsNewestMessages() {
+    OutboundQueue queue = new OutboundQueue(2, Integer.MAX_VALUE, SlowConsumerPolicy.DROP_OLDEST);
+    Frame previous = null;
+    Frame last = message("last");
+
+    for (int index = 0; index < 1000; index++) {
+      previous = message("message " + index);
+      Assertions.assertTrue(queue.offer(previous));
+    }
+    Assertions.assertTrue(queue.offer(last));
+
+    Assertions.assertEquals(2, queue.getDepth());
+    Assertions.assertEquals(999, queue.getDroppedFrames());
+    Assertions.assertSame(previous, queue.poll().frame());
+    Assertions.assertSame(last, queue.poll().frame());
+    Assertions.assertNull(queue.poll());
+  }
+
+  @Test
+  public void offer_whenFullOfPresenceAndDropOldest_refusesFrame() {
+    OutboundQueue queue = new OutboundQueue(2, Integer.MAX_VALUE, SlowConsumerPolicy.DROP_OLDEST);
+
+    Assertions.assertTrue(queue.offer(presence(MessageType.USER_JOINED, "SomeUser")));
+    Assertions.assertTrue(queue.offer(presence(MessageType.USER_JOINED, "AnotherUser")));
+    Assertions.assertFalse(queue.offer(presence(MessageType.USER_JOINED, "ThirdUser")));
+    Assertions.assertEquals(2, queue.getDepth());
+  }
+
+  @Test
+  public void offer_whenFullAndCoalescePresence_cancelsOnlyTheSameUser() {
+    OutboundQueue queue =
+        new OutboundQueue(2, Integer.MAX_VALUE, SlowConsumerPolicy.COALESCE_PRESENCE);
+    Frame other = presence(MessageType.USER_JOINED, "AnotherUser");
+    Frame third = presence(MessageType.USER_JOINED, "ThirdUser");
+
+    Assertions.assertTrue(queue.offer(presence(MessageType.USER_JOINED, "SomeUser")));
+    Assertions.assertTrue(queue.offer(other));
+    Assertions.assertTrue(queue.offer(presence(MessageType.USER_LEFT, "SomeUser")));
+    Assertions.assertTrue(queue.offer(third));
+    //no queued event of the user cancels this one and nothing else can be dropped
+    Assertions.assertFalse(queue.offer(presence(MessageType.USER_JOINED, "FourthUser")));
+
+    Assertions.assertSame(other, queue.poll().frame());
+    Assertions.assertSame(third, queue.poll().frame());
+    Assertions.assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void close_whenBroadcastQueued_completesDeliveryWithDrops() {
+    OutboundQueue queue = new OutboundQueue(1, Integer.MAX_VALUE, SlowConsumerPolicy.DROP_OLDEST);
+    LatencyHistogram latency = new LatencyHistogram();
+    LongAdder drops = new LongAdder();
+    Delivery delivery = new Delivery(System.nanoTime(), latency, drops);
+
+    delivery.expect();
+    Assertions.assertTrue(queue.offer(message("first"), delivery));
+    delivery.expect();
+    //evicts the first message
+    Assertions.assertTrue(queue.offer(message("second"), delivery));
+    delivery.done();
+    Assertions.assertEquals(0, latency.getCount());
+
+    queue.close();
+    Assertions.assertEquals(1, latency.getCount());
+    Assertions.assertEquals(2, drops.sum());
+  }
+
+  @Test
+  public void offer_whenFullAndDisconnect_refusesFrame() {
+    OutboundQueue queue = new OutboundQueue(1, Integer.MAX_VALUE, SlowConsumerPolicy.DISCONNECT);
+
+    Assertions.assertTrue(queue.offer(message("first")));
+    Assertions.assertFalse(queue.offer(message("second")));
+    Assertions.assertEquals(1, queue.getDepth());
+  }
+
+  @Test
+  public void offer_whenCompressing_sharesCompressedFrameAndCountsSavings() {
+    OutboundQueue plain = new OutboundQueue(10, Integer.MAX_VALUE, SlowConsumerPolicy.DROP_OLDEST);
+    OutboundQueue first = new OutboundQueue(10, Integer.MAX_VALUE, SlowConsumerPolicy.DROP_OLDEST);
+    OutboundQueue second =
+        new OutboundQueue(10, Integer.MAX_VALUE, SlowConsumerPolicy.DROP_OLDEST);
+    Frame login = presence(MessageType.LOGIN_SUCCESS, null);
+    plain.offerAndSwitchProtocol(login, WireProtocol.BINARY, 0);
+    first.offerAndSwitchProtocol(login, WireProtocol.BINARY, 100);
+    second.offerAndSwitchProtocol(login, WireProtocol.BINARY, 100);
+    Frame large = message("a stack trace ".repeat(100));
+
+    Assertions.assertTrue(plain.offer(large));
+    Assertions.assertTrue(first.offer(large));
+    Assertions.assertTrue(second.offer(large));
+
+    plain.poll();
+    first.poll();
+    second.poll();
+    byte[] uncompressed = plain.poll().bytes();
+    byte[] compressed = first.poll().bytes();
+    Assertions.assertSame(compressed, second.poll().bytes());
+    Assertions.assertTrue(compressed.length < uncompressed.length);
+    Assertions.assertEquals(uncompressed.length - compressed.length,
+        first.getCompressionSavedBytes());
+    Assertions.assertEquals(0, plain.getCompressionSavedBytes());
+  }
+
+  @Test
+  public void pollBatch_whenOverByteLimit_stopsAfterLimit() {
+    OutboundQueue queue =
+        new OutboundQueue(10, Integer.MAX_VALUE, SlowConsumerPolicy.DROP_OLDEST);
+    for (int index = 0; index < 6; index++) {
+      Assertions.assertTrue(queue.offer(message("message " + index)));
+    }
+    QueuedFrame[] batch = new QueuedFrame[4];
+
+    Assertions.assertEquals(1, queue.pollBatch(batch, 1));
+    Assertions.assertEquals(4, queue.pollBatch(batch, Integer.MAX_VALUE));
+    Assertions.assertEquals(1, queue.pollBatch(batch, Integer.MAX_VALUE));
+    Assertions.assertEquals(0, queue.pollBatch(batch, Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void takeBatch_whenDelayed_collectsLaterFrames() throws InterruptedException {
+    OutboundQueue queue =
+        new OutboundQueue(10, Integer.MAX_VALUE, SlowConsumerPolicy.DROP_OLDEST);
+    queue.offer(message("first"));
+    Thread producer = new Thread(() -> queue.offer(message("second")));
+    producer.start();
+
+    QueuedFrame[] batch = new QueuedFrame[2];
+    int count = queue.takeBatch(batch, Integer.MAX_VALUE, TimeUnit.SECONDS.toNanos(5));
+    producer.join();
+
+    Assertions.assertEquals(2, count);
+    queue.close();
+    Assertions.assertEquals(0, queue.takeBatch(batch, Integer.MAX_VALUE, 0));
+  }
+
+  private static Frame message(String content) {
+    return Frame.of(new WireMessage(MessageType.MESSAGE).setNickname("AnotherUser")
+        .setContent(content));
+  }
+
+  private static Frame presence(MessageType type, String nickname) {
+    return Frame.of(new WireMessage(type).setNickname(nickname));
+  }
+}
@@ -0,0 +1,97 @@
+package chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * test the coalescing and the adaptive window of the presence batcher.
+ */
+public class PresenceBatcherTest {
+
+  private final List<Map<String, Boolean>> published = new ArrayList<>();
+
+  private PresenceBatcher batcher;
+
+  /**
+   * stop the timer of the batcher.
+   */
+  @AfterEach
+  public void tearDown() {
+    if (batcher != null) {
+      batcher.close();
+    }
+  }
+
+  @Test
+  public void flush_whenUserJoinsAndLeaves_dropsBothEvents() {
+    batcher = new PresenceBatcher(60_000, 60_000, (changes, snapshots) -> published.add(changes));
+
+    batcher.joined("SomeUser");
+    batcher.joined("AnotherUser");
+    batcher.left("SomeUser");
+    Assertions.assertTrue(published.isEmpty());
+    batcher.flush();
+
+    Assertions.assertEquals(List.of(Map.of("AnotherUser", true)), published);
+  }
+
+  @Test
+  public void flush_whenUserLeavesAndRejoins_dropsBothEvents() {
+    batcher = new PresenceBatcher(60_000, 60_000, (changes, snapshots) -> published.add(changes));
+
+    batcher.joined("SomeUser");
+    batcher.flush();
+    batcher.left("SomeUser");
+    batcher.joined("SomeUser");
+    batcher.flush();
+
+    Assertions.assertEquals(List.of(Map.of("SomeUser", true)), published);
+  }
+
+  @Test
+  public void flush_whenUserJoinsLeavesAndJoins_publishesFinalState() {
+    batcher = new PresenceBatcher(60_000, 60_000, (changes, snapshots) -> published.add(changes));
+
+    batcher.joined("SomeUser");
+    batcher.left("SomeUser");
+    batcher.joined("SomeUser");
+    batcher.flush();
+    batcher.left("SomeUser");
+    batcher.flush();
+
+    Assertions.assertEquals(List.of(Map.of("SomeUser", true), Map.of("SomeUser", false)),
+        published);
+  }
+
+  @Test
+  public void flush_whenManyChanges_growsWindowUpToMaximum() {
+    batcher = new PresenceBatcher(10_000, 30_000, (changes, snapshots) -> published.add(changes));
+
+    for (int round = 0; round < 3; round++) {
+      for (int index = 0; index < PresenceBatcher.BUSY_CHANGES; index++) {
+        batcher.joined("User" + round + "-" + index);
+      }
+      batcher.flush();
+    }
+    Assertions.assertEquals(30_000, batcher.getWindowMillis());
+
+    //quiet windows shrink it again
+    batcher.joined("SomeUser");
+    batcher.flush();
+    batcher.flush();
+    Assertions.assertEquals(10_000, batcher.getWindowMillis());
+  }
+
+  @Test
+  public void joined_whenNoWindow_publishesRightAway() {
+    batcher = new PresenceBatcher(0, 0, (changes, snapshots) -> published.add(changes));
+
+    batcher.joined("SomeUser");
+
+    Assertions.assertEquals(List.of(Map.of("SomeUser", true)), published);
+  }
+}
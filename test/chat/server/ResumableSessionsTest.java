@@ -0,0 +1,64 @@
+package chat.server;
+
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * test parking, claiming and expiring the sessions of lost connections.
+ */
+public class ResumableSessionsTest {
+
+  @Test
+  public void claim_whenParked_returnsSessionOnce() {
+    ResumableSessions resumable = new ResumableSessions(60000);
+    Session session = newSession("SomeUser", resumable.newToken());
+    session.acknowledge(null, 7);
+    resumable.park(session, Set.of("room"));
+
+    ResumableSessions.ParkedSession parked =
+        resumable.claim(session.getResumeToken(), "SomeUser");
+
+    Assertions.assertEquals(Set.of("room"), parked.rooms());
+    Assertions.assertEquals(7, parked.mainChatAck());
+    Assertions.assertNull(resumable.claim(session.getResumeToken(), "SomeUser"));
+  }
+
+  @Test
+  public void park_whenOlderSessionsExpired_dropsThem() throws InterruptedException {
+    ResumableSessions resumable = new ResumableSessions(200);
+    Session first = newSession("SomeUser", resumable.newToken());
+    Session claimed = newSession("AnotherUser", resumable.newToken());
+    resumable.park(first, Set.of());
+    resumable.park(claimed, Set.of());
+    Assertions.assertNotNull(resumable.claim(claimed.getResumeToken(), "AnotherUser"));
+
+    Thread.sleep(300);
+    Session last = newSession("ThirdUser", resumable.newToken());
+    resumable.park(last, Set.of());
+
+    Assertions.assertEquals(1, resumable.size());
+    Assertions.assertNull(resumable.claim(first.getResumeToken(), "SomeUser"));
+    Assertions.assertNotNull(resumable.claim(last.getResumeToken(), "ThirdUser"));
+  }
+
+  private static Session newSession(String nickname, String token) {
+    Session session = new Session(1, new ServerConfig()) {
+      @Override
+      void framesQueued() {
+      }
+
+      @Override
+      boolean awaitFlushed(long timeoutNanos) {
+        return true;
+      }
+
+      @Override
+      void close() {
+      }
+    };
+    session.setNickname(nickname);
+    session.setResumeToken(token);
+    return session;
+  }
+}
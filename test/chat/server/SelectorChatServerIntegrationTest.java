@@ -0,0 +1,12 @@
+package chat.server;
+
+/**
+ * run the integration tests against a server that uses the selector event loop.
+ */
+public class SelectorChatServerIntegrationTest extends ChatServerIntegrationTest {
+
+  @Override
+  protected ServerNetworkConnection createServer() {
+    return new ServerNetworkConnection(ExecutionMode.SELECTOR);
+  }
+}
@@ -0,0 +1,90 @@
+package chat.server;
+
+import static chat.server.JsonMessage.typeOf;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * test that the server only pings and disconnects silent clients that announced the ping feature.
+ */
+public class ServerHeartbeatTest {
+
+  private static final int IDLE_TIMEOUT_MILLIS = 300;
+
+  private ServerNetworkConnection server;
+
+  private final List<ChatTestClient> clients = new ArrayList<>();
+
+  /**
+   * start a server with a short heartbeat.
+   *
+   * @throws IOException the exception.
+   */
+  @BeforeEach
+  public void setUp() throws IOException {
+    ServerConfig config = new ServerConfig();
+    config.setPingIntervalMillis(100);
+    config.setIdleTimeoutMillis(IDLE_TIMEOUT_MILLIS);
+    server = new ServerNetworkConnection(config);
+    server.start();
+  }
+
+  /**
+   * stop the server and the clients.
+   *
+   * @throws IOException the exception.
+   */
+  @AfterEach
+  public void tearDown() throws IOException {
+    server.stop();
+    for (ChatTestClient client : clients) {
+      client.close();
+    }
+  }
+
+  @Test
+  public void heartbeat_whenClientAnnouncedPing_pingsAndClosesIt() throws IOException {
+    ChatTestClient client = login(JsonMessage.loginWithPing("SomeUser"));
+
+    List<JsonMessage> received = Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5),
+        () -> receiveUntilClosed(client));
+
+    Assertions.assertTrue(received.contains(JsonMessage.PING));
+  }
+
+  @Test
+  public void heartbeat_whenClientDidNotAnnouncePing_keepsIt()
+      throws IOException, InterruptedException {
+    ChatTestClient client = login(JsonMessage.login("SomeUser"));
+
+    Thread.sleep(3 * IDLE_TIMEOUT_MILLIS);
+
+    Assertions.assertEquals(1, server.getActiveSessions());
+    Assertions.assertTrue(client.receiveAll().isEmpty());
+  }
+
+  private ChatTestClient login(JSONObject login) throws IOException {
+    ChatTestClient client = new ChatTestClient();
+    clients.add(client);
+    client.send(login);
+    Assertions.assertEquals(JsonMessage.LOGIN_SUCCESS, typeOf(client.receive()));
+    return client;
+  }
+
+  private static List<JsonMessage> receiveUntilClosed(ChatTestClient client) throws IOException {
+    List<JsonMessage> received = new ArrayList<>();
+    JSONObject message;
+    while ((message = client.receive()) != null) {
+      received.add(typeOf(message));
+    }
+    return received;
+  }
+}
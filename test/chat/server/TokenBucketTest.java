@@ -0,0 +1,46 @@
+package chat.server;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * test the bursts and the refill of the token bucket.
+ */
+public class TokenBucketTest {
+
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void tryAcquire_whenBurstExceedsRate_refusesRest() {
+    TokenBucket bucket = new TokenBucket(10, 0);
+
+    for (int index = 0; index < 10; index++) {
+      Assertions.assertTrue(bucket.tryAcquire(1, 0));
+    }
+    Assertions.assertFalse(bucket.tryAcquire(1, 0));
+  }
+
+  @Test
+  public void tryAcquire_whenTimePasses_refillsAtRate() {
+    TokenBucket bucket = new TokenBucket(10, 0);
+    Assertions.assertTrue(bucket.tryAcquire(10, 0));
+
+    //one token every 100 ms
+    Assertions.assertFalse(bucket.tryAcquire(1, 99 * MILLIS));
+    Assertions.assertTrue(bucket.tryAcquire(1, 100 * MILLIS));
+    Assertions.assertFalse(bucket.tryAcquire(1, 150 * MILLIS));
+
+    //a long pause refills no more than the capacity
+    Assertions.assertTrue(bucket.tryAcquire(10, 60_000 * MILLIS));
+    Assertions.assertFalse(bucket.tryAcquire(1, 60_000 * MILLIS));
+  }
+
+  @Test
+  public void tryAcquire_whenCostExceedsCapacity_takesFullBucket() {
+    TokenBucket bucket = new TokenBucket(100, 0);
+
+    Assertions.assertTrue(bucket.tryAcquire(1000, 0));
+    Assertions.assertFalse(bucket.tryAcquire(1, 0));
+  }
+}
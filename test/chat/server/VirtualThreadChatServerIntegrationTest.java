@@ -0,0 +1,12 @@
+package chat.server;
+
+/**
+ * run the integration tests against a server that serves every client with a virtual thread.
+ */
+public class VirtualThreadChatServerIntegrationTest extends ChatServerIntegrationTest {
+
+  @Override
+  protected ServerNetworkConnection createServer() {
+    return new ServerNetworkConnection(ExecutionMode.VIRTUAL_THREADS);
+  }
+}